@@ -0,0 +1,130 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookkeeping around every copy: the watermark of the records in flight, the ledger entry of every object, and
+ * the scan state saved at every deadline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CheckpointBenchmark {
+    @Param({"64", "1024"})
+    public int inFlight;
+
+    @Param({"100000", "1000000"})
+    public int ledgerEntries;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Random random = new Random(42);
+    private final List<Integer> completionOrder = new ArrayList<>();
+    private final List<S3Object> objects = new ArrayList<>();
+    private Path directory;
+    private ReplicationLedger ledger;
+    private ScanState scanState;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        for (int i = 0; i < inFlight; i++) {
+            completionOrder.add(i);
+        }
+        Collections.shuffle(completionOrder, random);
+
+        directory = Files.createTempDirectory("drps3-bench");
+        ledger = new ReplicationLedger(new FileStateStore(directory), "ledger/bench");
+        for (int i = 0; i < ledgerEntries; i++) {
+            final var object = ImmutableS3Object.builder()
+                    .key(String.format("data/%03d/%09d", i % 997, i))
+                    .size(i)
+                    .etag(Integer.toHexString(i))
+                    .build();
+            objects.add(object);
+            ledger.record(object, ReplicationLedger.Status.COPIED);
+        }
+        ledger.flush();
+
+        scanState = new ScanState();
+        final var units = new ArrayList<ScanState.Unit>();
+        for (int i = 0; i < BucketScanner.PARALLELISM * 4; i++) {
+            final var unit = new ScanState.Unit(String.format("data/%03d/", i), false);
+            unit.setToken(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()));
+            unit.setLastKey(String.format("data/%03d/%09d", i, random.nextInt(ledgerEntries)));
+            units.add(unit);
+        }
+        scanState.setUnits(units);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(directory)) {
+            files.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Tracks a window of records and completes them out of order, as the lanes do.
+     */
+    @Benchmark
+    public Integer watermark() {
+        final var watermark = new SequenceWatermark<Integer>();
+        final var tickets = new ArrayList<SequenceWatermark.Ticket<Integer>>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            tickets.add(watermark.track(i));
+        }
+        for (var i : completionOrder) {
+            watermark.complete(tickets.get(i));
+        }
+        return watermark.get();
+    }
+
+    @Benchmark
+    public boolean ledgerIsCopied() {
+        return ledger.isCopied(objects.get(random.nextInt(objects.size())));
+    }
+
+    @Benchmark
+    public void ledgerRecord() {
+        ledger.record(objects.get(next++ % objects.size()), ReplicationLedger.Status.COPIED);
+    }
+
+    @Benchmark
+    public void ledgerSave() throws IOException {
+        ledger.save();
+    }
+
+    @Benchmark
+    public byte[] scanState() throws IOException {
+        return mapper.writeValueAsBytes(scanState);
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The records sent by {@link ScanBucket} and received by {@link RecordProcessor}, one page of objects at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RecordCodecBenchmark {
+    private static final int PAGE_SIZE = 1000;
+
+    @Param({"24", "96", "512"})
+    public int keyLength;
+
+    @Param({"simple", "multipart"})
+    public String etag;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<S3Object> page;
+    private List<ByteBuffer> records;
+    private List<ByteBuffer> jsonRecords;
+
+    @Setup
+    public void setup() throws IOException {
+        final var random = new Random(42);
+        page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page.add(ImmutableS3Object.builder()
+                    .key(key(random, i))
+                    .size(random.nextInt(Integer.MAX_VALUE))
+                    .etag(etag(random))
+                    .build());
+        }
+
+        records = RecordCodec.encode(page);
+        jsonRecords = new ArrayList<>(PAGE_SIZE);
+        for (var object : page) {
+            jsonRecords.add(ByteBuffer.wrap(mapper.writeValueAsBytes(object)));
+        }
+    }
+
+    private String key(Random random, int index) {
+        final var builder = new StringBuilder(keyLength);
+        builder.append("data/").append(index % 16).append('/');
+        while (builder.length() < keyLength) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
+    private String etag(Random random) {
+        final var bytes = new byte[16];
+        random.nextBytes(bytes);
+        final var builder = new StringBuilder("\"");
+        for (var b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.append("multipart".equals(etag) ? "-" + (1 + random.nextInt(10_000)) : "")
+                .append('"').toString();
+    }
+
+    @Benchmark
+    public List<ByteBuffer> encode() {
+        return RecordCodec.encode(page);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        for (var record : records) {
+            blackhole.consume(RecordCodec.decode(record, mapper));
+        }
+    }
+
+    /**
+     * The records of earlier versions, one object of JSON per record, as the baseline of {@link #decode}.
+     */
+    @Benchmark
+    public void decodeJson(Blackhole blackhole) throws IOException {
+        for (var record : jsonRecords) {
+            blackhole.consume(RecordCodec.decode(record, mapper));
+        }
+    }
+}
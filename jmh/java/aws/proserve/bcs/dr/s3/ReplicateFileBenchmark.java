@@ -0,0 +1,191 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cross-partition copy of {@link ReplicateFile}, in memory below 100 MB and by parts above, against
+ * {@link InMemoryS3}. One operation copies a batch of objects drawn from the size distribution, with the given number
+ * of copies in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ReplicateFileBenchmark {
+    private static final int ONE_KB = 1024;
+    private static final int ONE_MB = 1024 * ONE_KB;
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+
+    /**
+     * {@code small}: 1 KB to 1 MB. {@code mixed}: mostly small, some tens of MB and one of 200 MB.
+     * {@code large}: 256 MB each, by parts.
+     */
+    @Param({"small", "mixed", "large"})
+    public String distribution;
+
+    @Param({"1", "16"})
+    public int concurrency;
+
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final List<S3Object> batch = new ArrayList<>();
+    private long batchBytes;
+    private ReplicateFile replicateFile;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        final var random = new Random(42);
+        final var sizes = sizes(random);
+        for (int i = 0; i < sizes.size(); i++) {
+            final var content = new byte[sizes.get(i)];
+            random.nextBytes(content);
+
+            final var part = new TransferChecksum.Part();
+            part.update(content, 0, content.length);
+            final var checksum = new TransferChecksum(1);
+            checksum.complete(1, part);
+
+            final var key = String.format("%s/%05d", distribution, i);
+            s3.put(SOURCE, key, content, '"' + checksum.etag() + '"');
+            batchBytes += content.length;
+            batch.add(ImmutableS3Object.builder().key(key).size(content.length).etag(checksum.etag()).build());
+        }
+
+        final var request = new ReplicateBucket.Request();
+        request.setSource(resource(SOURCE, "us-east-1"));
+        request.setTarget(resource(TARGET, "cn-north-1"));
+        final var metrics = new ReplicationMetrics(new ObjectMapper(), "benchmark", System.out);
+        final var store = new NullStore();
+        final var retry = new RetryPolicy(metrics);
+        replicateFile = new ReplicateFile(s3, s3, request, metrics,
+                new BandwidthGovernor(0, 0, null), retry, new ConcurrencyLimiter(metrics),
+                new BufferPool(),
+                new UploadJournal(store, "benchmark"), new DeadLetters(store, new ObjectMapper(), "benchmark"),
+                new MetadataPrefetcher(s3, request, retry));
+        executor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    private List<Integer> sizes(Random random) {
+        final var sizes = new ArrayList<Integer>();
+        switch (distribution) {
+            case "small":
+                for (int i = 0; i < 256; i++) {
+                    sizes.add(ONE_KB + random.nextInt(ONE_MB));
+                }
+                break;
+            case "mixed":
+                for (int i = 0; i < 57; i++) {
+                    sizes.add(ONE_KB + random.nextInt(ONE_MB));
+                }
+                for (int i = 0; i < 6; i++) {
+                    sizes.add(10 * ONE_MB + random.nextInt(40 * ONE_MB));
+                }
+                sizes.add(200 * ONE_MB);
+                break;
+            case "large":
+                for (int i = 0; i < 4; i++) {
+                    sizes.add(256 * ONE_MB);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+        return sizes;
+    }
+
+    /**
+     * Keeps no state, so that the journal of uploads adds no disk I/O to the measurement.
+     */
+    private static final class NullStore implements StateStore {
+        @Override
+        public InputStream load(String name) {
+            return null;
+        }
+
+        @Override
+        public void save(String name, InputStream content, long length) {
+        }
+
+        @Override
+        public void delete(String name) {
+        }
+
+        @Override
+        public List<String> list(String prefix) {
+            return List.of();
+        }
+    }
+
+    private static Resource resource(String name, String region) {
+        final var resource = new Resource();
+        resource.setName(name);
+        resource.setRegion(region);
+        return resource;
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void copy(Bytes bytes) {
+        final var futures = new ArrayList<CompletableFuture<ReplicationLedger.Status>>(batch.size());
+        for (var object : batch) {
+            futures.add(CompletableFuture.supplyAsync(() -> replicateFile.copy(object), executor));
+        }
+
+        for (var future : futures) {
+            if (future.join() != ReplicationLedger.Status.COPIED) {
+                throw new IllegalStateException("Copy did not succeed: " + future.join());
+            }
+        }
+        bytes.copied += batchBytes;
+    }
+
+    /**
+     * The bytes uploaded, reported next to the operations so that the throughput in bytes is visible as well.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long copied;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            copied = 0;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the bandwidth of all the transfers in the task, with separate limits for reading from the source and writing
+ * to the target. Every stream of bytes through the task is wrapped, so the in-memory and the multipart copies share
+ * the same limits. The copies within a partition are done by S3 and not limited.
+ * <p>
+ * The limits are read from the environment variables {@code read_limit_mbps} and {@code write_limit_mbps} at start,
+ * in MB per second, and can be changed while running by editing the properties file named by
+ * {@code bandwidth_control_file} with the same keys. A limit of {@code 0} or absent means unlimited.
+ */
+@Singleton
+class BandwidthGovernor {
+    static final String READ_LIMIT = "read_limit_mbps";
+    static final String WRITE_LIMIT = "write_limit_mbps";
+    static final String CONTROL_FILE = "bandwidth_control_file";
+
+    private static final long ONE_MB = 1024 * 1024;
+    private static final long POLL_INTERVAL_SECONDS = 30;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final TokenBucket read;
+    private final TokenBucket write;
+    private final Path controlFile;
+    private FileTime controlModified;
+
+    @Inject
+    BandwidthGovernor() {
+        this(mbps(System.getenv(READ_LIMIT)) * ONE_MB,
+                mbps(System.getenv(WRITE_LIMIT)) * ONE_MB,
+                System.getenv(CONTROL_FILE) == null ? null : Path.of(System.getenv(CONTROL_FILE)));
+    }
+
+    /**
+     * @param controlFile the properties file to poll for new limits, or {@code null} to keep the limits.
+     */
+    BandwidthGovernor(long readBytesPerSecond, long writeBytesPerSecond, @Nullable Path controlFile) {
+        this.read = new TokenBucket(readBytesPerSecond);
+        this.write = new TokenBucket(writeBytesPerSecond);
+        this.controlFile = controlFile;
+        log.info("Bandwidth limits: read {} MB/s, write {} MB/s{}", readBytesPerSecond / ONE_MB,
+                writeBytesPerSecond / ONE_MB, controlFile == null ? "" : ", controlled by " + controlFile);
+
+        if (controlFile != null) {
+            final var poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final var thread = new Thread(runnable, "bandwidth-control");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poller.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return {@code true} if the environment sets a limit, or a control file to set one while running.
+     */
+    static boolean isLimited() {
+        return mbps(System.getenv(READ_LIMIT)) > 0 || mbps(System.getenv(WRITE_LIMIT)) > 0
+                || System.getenv(CONTROL_FILE) != null;
+    }
+
+    private static long mbps(String value) {
+        return value == null || value.isBlank() ? 0 : Long.parseLong(value.trim());
+    }
+
+    /**
+     * @param bytesPerSecond the new limit, or {@code 0} for unlimited.
+     */
+    void setReadLimit(long bytesPerSecond) {
+        read.setRate(bytesPerSecond);
+    }
+
+    void setWriteLimit(long bytesPerSecond) {
+        write.setRate(bytesPerSecond);
+    }
+
+    long getReadLimit() {
+        return read.getRate();
+    }
+
+    long getWriteLimit() {
+        return write.getRate();
+    }
+
+    /**
+     * @return the stream of the source, throttled by the read limit.
+     */
+    InputStream read(InputStream input) {
+        return new ThrottledInputStream(input, read);
+    }
+
+    /**
+     * @return the stream to upload to the target, throttled by the write limit as the client reads it.
+     */
+    InputStream write(InputStream input) {
+        return new ThrottledInputStream(input, write);
+    }
+
+    /**
+     * Takes the limits of the control file, if modified since the last poll.
+     */
+    synchronized void poll() {
+        try {
+            if (!Files.exists(controlFile)) {
+                return;
+            }
+
+            final var modified = Files.getLastModifiedTime(controlFile);
+            if (modified.equals(controlModified)) {
+                return;
+            }
+            controlModified = modified;
+
+            final var properties = new Properties();
+            try (var input = Files.newInputStream(controlFile)) {
+                properties.load(input);
+            }
+
+            final var readLimit = mbps(properties.getProperty(READ_LIMIT)) * ONE_MB;
+            final var writeLimit = mbps(properties.getProperty(WRITE_LIMIT)) * ONE_MB;
+            if (readLimit != read.getRate() || writeLimit != write.getRate()) {
+                setReadLimit(readLimit);
+                setWriteLimit(writeLimit);
+                log.info("Bandwidth limits changed: read {} MB/s, write {} MB/s",
+                        readLimit / ONE_MB, writeLimit / ONE_MB);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read bandwidth control file " + controlFile, e);
+        }
+    }
+
+    /**
+     * Pays for the bytes after every read, in chunks small enough to keep the flow smooth. A stream reset for a retry
+     * pays again for the bytes sent again.
+     */
+    static final class ThrottledInputStream extends FilterInputStream {
+        private static final int MAX_CHUNK = 64 * 1024;
+
+        private final TokenBucket bucket;
+
+        private ThrottledInputStream(InputStream input, TokenBucket bucket) {
+            super(input);
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final var b = super.read();
+            if (b >= 0) {
+                bucket.acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final var read = super.read(buffer, offset, bucket.getRate() <= 0 ? length : Math.min(length, MAX_CHUNK));
+            bucket.acquire(read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Var-ints and ETags in binary, shared by the scan records and the ledger.
+ */
+final class BinaryCodec {
+    private static final byte NO_ETAG = 0;
+    private static final byte MD5_ETAG = 1;
+    private static final byte MULTIPART_ETAG = 2;
+    private static final byte RAW_ETAG = 3;
+
+    private BinaryCodec() {
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final var b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return the most bytes the ETag takes in binary.
+     */
+    static int etagSize(String etag) {
+        return etag == null ? 1 : 6 + 3 * etag.length();
+    }
+
+    /**
+     * An MD5 digest, with the number of parts if multipart, is kept in 16 bytes. Any other ETag is kept as is.
+     */
+    static void putEtag(ByteBuffer buffer, String etag) {
+        final var dash = etag == null ? -1 : etag.indexOf('-');
+        final var digest = dash < 0 ? etag : etag.substring(0, dash);
+        if (digest == null) {
+            buffer.put(NO_ETAG);
+        } else if (isHex(digest) && (dash < 0 || isDigits(etag.substring(dash + 1)))) {
+            buffer.put(dash < 0 ? MD5_ETAG : MULTIPART_ETAG);
+            for (int i = 0; i < 32; i += 2) {
+                buffer.put((byte) Integer.parseInt(digest.substring(i, i + 2), 16));
+            }
+            if (dash >= 0) {
+                putVarint(buffer, Long.parseLong(etag.substring(dash + 1)));
+            }
+        } else {
+            final var raw = etag.getBytes(StandardCharsets.UTF_8);
+            buffer.put(RAW_ETAG);
+            putVarint(buffer, raw.length);
+            buffer.put(raw);
+        }
+    }
+
+    static String getEtag(ByteBuffer buffer) {
+        final var kind = buffer.get();
+        if (kind == NO_ETAG) {
+            return null;
+        } else if (kind == RAW_ETAG) {
+            return getString(buffer, (int) getVarint(buffer));
+        }
+
+        final var builder = new StringBuilder(40);
+        for (int i = 0; i < 16; i++) {
+            final var b = buffer.get();
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        if (kind == MULTIPART_ETAG) {
+            builder.append('-').append(getVarint(buffer));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decodes the UTF-8 bytes in place if the buffer is backed by an array.
+     */
+    static String getString(ByteBuffer buffer, int length) {
+        final String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            final var bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static boolean isHex(String digest) {
+        return digest.length() == 32 && digest.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    private static boolean isDigits(String parts) {
+        return !parts.isEmpty() && parts.length() < 6 && parts.chars().allMatch(Character::isDigit);
+    }
+}
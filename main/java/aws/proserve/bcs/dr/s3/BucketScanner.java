@@ -0,0 +1,377 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Lists a bucket page by page, following the continuation tokens.
+ * <p>
+ * The key space is split by the common prefixes (delimited by {@code /}), which are then listed concurrently. The
+ * listing throughput thus grows with the number of prefixes instead of one {@code LIST} call at a time. A listing keeps
+ * at most about {@value #MAX_PREFIXES} common prefixes, and the keys after them are listed in depth at once, so that a
+ * level of countless prefixes holds neither the memory nor the saved state.
+ * <p>
+ * With a target bucket, the source and target listings of every prefix are merged side by side in lexicographic
+ * order, and only the objects missing or changed in the target are sent. The memory used is one page per listing,
+ * regardless of the bucket size.
+ * <p>
+ * The progress is kept in a {@link ScanState}, so a scan stopped at a deadline can be resumed later.
+ */
+class BucketScanner {
+    static final String DELIMITER = "/";
+    static final int PARALLELISM = 16;
+    private static final int MAX_DISCOVERY_DEPTH = 3;
+    private static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_PREFIXES = 1000;
+
+    /**
+     * The greatest code point, which sorts after every other one.
+     */
+    static final String MAX_CODE_POINT = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonS3 s3;
+    private final AmazonS3 targetS3;
+    private final String targetBucket;
+    private final int parallelism;
+    private final int maxPrefixes;
+
+    BucketScanner(AmazonS3 s3) {
+        this(s3, null, null, PARALLELISM);
+    }
+
+    /**
+     * @param targetS3 the target to compare with for a delta scan, or {@code null} to scan every object.
+     */
+    BucketScanner(AmazonS3 s3, AmazonS3 targetS3, String targetBucket, int parallelism) {
+        this(s3, targetS3, targetBucket, parallelism, MAX_PREFIXES);
+    }
+
+    BucketScanner(AmazonS3 s3, AmazonS3 targetS3, String targetBucket, int parallelism, int maxPrefixes) {
+        this.s3 = s3;
+        this.targetS3 = targetS3;
+        this.targetBucket = targetBucket;
+        this.parallelism = parallelism;
+        this.maxPrefixes = maxPrefixes;
+    }
+
+    /**
+     * @param consumer receives every page of objects as soon as it arrives, must be thread-safe.
+     * @return the number of objects sent to the consumer.
+     */
+    long scan(String bucket, Consumer<List<S3ObjectSummary>> consumer) {
+        final var state = new ScanState();
+        scan(bucket, state, Long.MAX_VALUE, consumer);
+        return state.getCount();
+    }
+
+    /**
+     * Continues the scan from the state until it is done or the deadline passes. The pages fetched before the deadline
+     * are always sent to the consumer in full, so the state can be saved and resumed.
+     *
+     * @param deadline in epoch milliseconds, after which no more page is fetched.
+     * @return {@code true} if the scan is done.
+     */
+    boolean scan(String bucket, ScanState state, long deadline, Consumer<List<S3ObjectSummary>> consumer) {
+        final Consumer<List<S3ObjectSummary>> counted = page -> {
+            consumer.accept(page);
+            state.add(page.size());
+        };
+
+        while (!state.isDone()) {
+            if (!list(bucket, state.getUnits(), deadline, counted)) {
+                return false;
+            }
+
+            if (state.isDeep()) {
+                state.setDone(true);
+            } else {
+                next(state);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the key space by common prefixes, level by level, until there are enough prefixes to list in parallel.
+     * The objects found along the way are sent to the consumer, so every key is covered by exactly one prefix or page.
+     * A listing capped at its common prefixes is followed by one in depth of the keys after them.
+     */
+    private void next(ScanState state) {
+        final var prefixes = new ArrayList<String>();
+        state.getUnits().forEach(unit -> prefixes.addAll(unit.getCommonPrefixes()));
+        final var capped = state.getUnits().stream().filter(ScanState.Unit::isCapped).collect(Collectors.toList());
+        if (prefixes.isEmpty() && capped.isEmpty()) {
+            state.setDone(true);
+            return;
+        }
+
+        state.setDepth(state.getDepth() + 1);
+        state.setDeep(state.getDepth() >= MAX_DISCOVERY_DEPTH || prefixes.size() >= parallelism || !capped.isEmpty());
+        final var units = new ArrayList<ScanState.Unit>();
+        for (var unit : state.getUnits()) {
+            for (var prefix : unit.getCommonPrefixes()) {
+                final var next = new ScanState.Unit(prefix, !state.isDeep());
+                next.setEndAt(unit.isCapped() ? unit.getEndAt() : null);
+                units.add(next);
+            }
+            if (unit.isCapped()) {
+                final var rest = new ScanState.Unit(unit.getPrefix(), false);
+                rest.setLastKey(unit.getEndAt());
+                units.add(rest);
+            }
+        }
+        state.setUnits(units);
+        log.info("Scan {} prefixes{} at depth {}{}", prefixes.size(),
+                capped.isEmpty() ? "" : " and the keys after " + capped.size() + " capped listings",
+                state.getDepth(), state.isDeep() ? " in depth" : "");
+    }
+
+    /**
+     * Lists the unfinished units concurrently.
+     *
+     * @return {@code true} if every unit is finished.
+     */
+    private boolean list(String bucket, List<ScanState.Unit> units, long deadline,
+                         Consumer<List<S3ObjectSummary>> consumer) {
+        final var pending = units.stream().filter(u -> !u.isFinished()).collect(Collectors.toList());
+        if (pending.isEmpty()) {
+            return true;
+        }
+
+        final var executor = Executors.newFixedThreadPool(Math.min(parallelism, pending.size()));
+        try {
+            final var futures = new ArrayList<Future<?>>();
+            for (var unit : pending) {
+                futures.add(executor.submit(() -> list(bucket, unit, deadline, consumer)));
+            }
+
+            for (var future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning bucket [" + bucket + "]", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to scan bucket [" + bucket + "]", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return pending.stream().allMatch(ScanState.Unit::isFinished);
+    }
+
+    private void list(String bucket, ScanState.Unit unit, long deadline, Consumer<List<S3ObjectSummary>> consumer) {
+        final var source = new Pages(s3, bucket, unit, deadline, maxPrefixes);
+        if (targetS3 == null) {
+            while (source.hasNext()) {
+                final var page = source.next();
+                if (!page.isEmpty()) {
+                    consumer.accept(page);
+                }
+            }
+        } else {
+            final var target = new ScanState.Unit(unit.getPrefix(), unit.isShallow());
+            target.setLastKey(unit.getLastKey());
+            target.setEndAt(unit.getEndAt());
+            merge(new Summaries(source), new Summaries(new Pages(targetS3, targetBucket, target, Long.MAX_VALUE, 0)),
+                    consumer);
+        }
+    }
+
+    /**
+     * Both listings are in lexicographic order, so one pass finds the source objects missing or changed in the target.
+     */
+    private void merge(Summaries source, Summaries target, Consumer<List<S3ObjectSummary>> consumer) {
+        var page = new ArrayList<S3ObjectSummary>();
+        while (source.hasNext()) {
+            final var object = source.next();
+            while (target.hasNext() && compare(target.peek().getKey(), object.getKey()) < 0) {
+                target.next();
+            }
+
+            if (!target.hasNext()
+                    || !target.peek().getKey().equals(object.getKey())
+                    || isChanged(object, target.peek())) {
+                page.add(object);
+                if (page.size() == MAX_PAGE_SIZE) {
+                    consumer.accept(page);
+                    page = new ArrayList<>();
+                }
+            }
+        }
+
+        if (!page.isEmpty()) {
+            consumer.accept(page);
+        }
+    }
+
+    /**
+     * The ETag of a multipart object depends on its part size, which the copy may not preserve. The modified time is
+     * compared instead in that case.
+     */
+    static boolean isChanged(S3ObjectSummary source, S3ObjectSummary target) {
+        if (source.getSize() != target.getSize()) {
+            return true;
+        }
+
+        if (isMultipart(source.getETag()) || isMultipart(target.getETag())) {
+            return target.getLastModified().before(source.getLastModified());
+        }
+        return !source.getETag().equals(target.getETag());
+    }
+
+    static boolean isMultipart(String eTag) {
+        return eTag == null || eTag.contains("-");
+    }
+
+    /**
+     * S3 lists keys in the binary order of UTF-8, which is the order of code points rather than of UTF-16 chars.
+     */
+    static int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            final var x = a.codePointAt(i);
+            final var y = b.codePointAt(j);
+            if (x != y) {
+                return Integer.compare(x, y);
+            }
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Lists one page at a time, following the continuation tokens, and keeps the progress in the unit.
+     * <p>
+     * Once a shallow unit keeps the most common prefixes, it is capped at the page: its end is set past the keys of
+     * its last common prefix, after which the keys are left to a listing in depth.
+     */
+    static class Pages implements Iterator<List<S3ObjectSummary>> {
+        private final AmazonS3 s3;
+        private final ScanState.Unit unit;
+        private final long deadline;
+        private final int maxPrefixes;
+        private final ListObjectsV2Request request;
+
+        /**
+         * @param maxPrefixes the common prefixes to keep in the unit before it is capped, or {@code 0} to keep none.
+         */
+        Pages(AmazonS3 s3, String bucket, ScanState.Unit unit, long deadline, int maxPrefixes) {
+            this.s3 = s3;
+            this.unit = unit;
+            this.deadline = deadline;
+            this.maxPrefixes = maxPrefixes;
+            this.request = new ListObjectsV2Request()
+                    .withBucketName(bucket)
+                    .withPrefix(unit.getPrefix().isEmpty() ? null : unit.getPrefix())
+                    .withDelimiter(unit.isShallow() ? DELIMITER : null)
+                    .withContinuationToken(unit.getToken())
+                    .withStartAfter(unit.getToken() == null ? unit.getLastKey() : null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !unit.isFinished() && System.currentTimeMillis() < deadline;
+        }
+
+        @Override
+        public List<S3ObjectSummary> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final ListObjectsV2Result result = s3.listObjectsV2(request);
+            var objects = result.getObjectSummaries();
+            unit.setToken(result.getNextContinuationToken());
+            unit.setFinished(!result.isTruncated());
+            if (maxPrefixes > 0) {
+                final var prefixes = unit.getCommonPrefixes();
+                prefixes.addAll(result.getCommonPrefixes());
+                if (result.isTruncated() && prefixes.size() >= maxPrefixes) {
+                    unit.setEndAt(prefixes.get(prefixes.size() - 1) + MAX_CODE_POINT);
+                    unit.setCapped(true);
+                    unit.setFinished(true);
+                }
+            }
+
+            final var endAt = unit.getEndAt();
+            if (endAt != null && !objects.isEmpty() && compare(objects.get(objects.size() - 1).getKey(), endAt) >= 0) {
+                objects = objects.stream().filter(o -> compare(o.getKey(), endAt) <= 0).collect(Collectors.toList());
+                unit.setFinished(true);
+            }
+            if (!objects.isEmpty()) {
+                unit.setLastKey(objects.get(objects.size() - 1).getKey());
+            }
+
+            request.setContinuationToken(result.getNextContinuationToken());
+            return objects;
+        }
+    }
+
+    /**
+     * Iterates the objects of the pages, fetching the next page only when the current one is consumed.
+     */
+    static class Summaries implements Iterator<S3ObjectSummary> {
+        private final Pages pages;
+        private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+        private S3ObjectSummary peeked;
+
+        Summaries(Pages pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (peeked != null) {
+                return true;
+            }
+
+            while (!page.hasNext() && pages.hasNext()) {
+                page = pages.next().iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public S3ObjectSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            if (peeked != null) {
+                final var next = peeked;
+                peeked = null;
+                return next;
+            }
+            return page.next();
+        }
+
+        S3ObjectSummary peek() {
+            if (peeked == null) {
+                peeked = next();
+            }
+            return peeked;
+        }
+    }
+}
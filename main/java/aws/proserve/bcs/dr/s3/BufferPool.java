@@ -0,0 +1,82 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.TreeMap;
+
+/**
+ * A pool of part buffers reused across parts and objects, bounded by the total bytes allocated, by default half of the
+ * heap, or {@code buffer_memory_mb} MB if set.
+ * <p>
+ * Acquiring blocks while the budget is used up by buffers in flight, which bounds the memory held by the parts being
+ * transferred. A single buffer larger than the budget is still granted once nothing else is allocated.
+ * <p>
+ * The free buffers are kept by length, and the smallest that fits is reused. A free buffer more than twice as large as
+ * asked is left for the parts while there is room for a new buffer, so that a small object never holds a large one.
+ */
+@Singleton
+class BufferPool {
+    private static final long ONE_MB = 1024 * 1024;
+    private static final int MAX_WASTE = 2;
+
+    private final long capacity;
+    private final TreeMap<Integer, Deque<byte[]>> free = new TreeMap<>();
+    private long allocated;
+
+    @Inject
+    BufferPool() {
+        this(defaultCapacity());
+    }
+
+    BufferPool(long capacity) {
+        this.capacity = capacity;
+    }
+
+    private static long defaultCapacity() {
+        final var megabytes = System.getenv("buffer_memory_mb");
+        return megabytes == null ? Runtime.getRuntime().maxMemory() / 2 : Long.parseLong(megabytes) * ONE_MB;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    synchronized byte[] acquire(int size) throws InterruptedException {
+        while (true) {
+            final var fit = free.ceilingKey(size);
+            if (fit != null && ((long) fit <= (long) size * MAX_WASTE || allocated + size > capacity)) {
+                return take(fit);
+            }
+
+            // drop the free buffers which are too small, smallest first, to make room for a larger one.
+            while (allocated + size > capacity && !free.isEmpty() && free.firstKey() < size) {
+                allocated -= take(free.firstKey()).length;
+            }
+
+            if (allocated + size <= capacity || allocated == 0) {
+                allocated += size;
+                return new byte[size];
+            }
+            wait();
+        }
+    }
+
+    synchronized void release(byte[] buffer) {
+        free.computeIfAbsent(buffer.length, length -> new ArrayDeque<>()).push(buffer);
+        notifyAll();
+    }
+
+    private byte[] take(int length) {
+        final var buffers = free.get(length);
+        final var buffer = buffers.pop();
+        if (buffers.isEmpty()) {
+            free.remove(length);
+        }
+        return buffer;
+    }
+}
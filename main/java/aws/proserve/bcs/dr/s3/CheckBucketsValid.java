@@ -0,0 +1,228 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Default;
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.HeadBucketRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Checks many buckets in one call, such as all the buckets of a DR plan, each by {@code HeadBucket} rather than
+ * listing all the buckets of the account. The verdicts are in the order of the buckets requested.
+ * <p>
+ * Unlike listing, {@code HeadBucket} succeeds for any bucket the caller can reach, not only those it owns. Give the
+ * expected owner to accept only the buckets of that account.
+ */
+public class CheckBucketsValid implements RequestHandler<CheckBucketsValid.Request, List<CheckBucketsValid.Verdict>> {
+
+    @Override
+    public List<Verdict> handleRequest(Request request, Context context) {
+        return S3Component.build(request.getProjectId(), request.getRegion())
+                .checkBucketsValid()
+                .check(request.getBuckets(), request.getOwner());
+    }
+
+    static class Request {
+        private List<Resource> buckets;
+        private String region;
+        private String owner;
+        private String projectId;
+
+        /**
+         * @return the buckets to check, each in the region expected, or any region if absent.
+         */
+        public List<Resource> getBuckets() {
+            return buckets;
+        }
+
+        public void setBuckets(List<Resource> buckets) {
+            this.buckets = buckets;
+        }
+
+        /**
+         * @return the region of the client to check from, in the same partition as the buckets.
+         */
+        public String getRegion() {
+            return region;
+        }
+
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        /**
+         * @return the account expected to own every bucket, or {@code null} to accept any bucket reachable.
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        public void setOwner(String owner) {
+            this.owner = owner;
+        }
+
+        public String getProjectId() {
+            return projectId;
+        }
+
+        public void setProjectId(String projectId) {
+            this.projectId = projectId;
+        }
+    }
+
+    public static class Verdict {
+        private String name;
+        private String region;
+        private boolean valid;
+        private String reason;
+
+        public Verdict() {
+        }
+
+        private Verdict(String name, String region, boolean valid, String reason) {
+            this.name = name;
+            this.region = region;
+            this.valid = valid;
+            this.reason = reason;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the actual region of the bucket, or {@code null} if unknown.
+         */
+        public String getRegion() {
+            return region;
+        }
+
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        public void setValid(boolean valid) {
+            this.valid = valid;
+        }
+
+        /**
+         * @return why the bucket is invalid, or {@code null} if valid.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        public void setReason(String reason) {
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * @apiNote the verdicts are cached for a minute, as a plan is often validated again right after a change, and for
+     * at most {@value #CACHE_SIZE} buckets.
+     */
+    @Singleton
+    static class Worker {
+        private static final Duration CACHE_TTL = Duration.ofMinutes(1);
+        private static final int CACHE_SIZE = 10_000;
+        private static final int CONCURRENCY = 16;
+
+        private final Logger log = LoggerFactory.getLogger(getClass());
+        private final AmazonS3 s3;
+        private final ExpiringCache<List<String>, Verdict> verdicts =
+                new ExpiringCache<>(CACHE_TTL, CACHE_TTL, CACHE_SIZE,
+                        key -> head(key.get(0), key.get(1), key.get(2)));
+        private final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY, runnable -> {
+            final var thread = new Thread(runnable, "check-bucket");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        @Inject
+        Worker(@Default AmazonS3 s3) {
+            this.s3 = s3;
+        }
+
+        /**
+         * @param owner the account expected to own the buckets, or {@code null} for any.
+         */
+        List<Verdict> check(List<Resource> buckets, @Nullable String owner) {
+            final var futures = buckets.stream()
+                    .map(bucket -> CompletableFuture.supplyAsync(() -> check(bucket, owner), executor))
+                    .collect(Collectors.toList());
+            return futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        }
+
+        private Verdict check(Resource bucket, @Nullable String owner) {
+            final var name = bucket.getName();
+            if (name == null || name.isEmpty() || name.contains(".")) {
+                return new Verdict(name, null, false, "Invalid bucket name, cannot contain '.'");
+            }
+
+            try {
+                return verdicts.get(Arrays.asList(name, bucket.getRegion(), owner));
+            } catch (RuntimeException e) {
+                log.warn("Unable to check bucket [" + name + "]", e);
+                return new Verdict(name, null, false, "Unable to check: " + e.getMessage());
+            }
+        }
+
+        /**
+         * @throws AmazonS3Exception if neither of the expected errors, thus not cached.
+         */
+        private Verdict head(String name, String expectedRegion, String owner) {
+            String region;
+            try {
+                region = s3.headBucket(new HeadBucketRequest(name).withExpectedBucketOwner(owner)).getBucketRegion();
+            } catch (AmazonS3Exception e) {
+                switch (e.getStatusCode()) {
+                    case 301:
+                        region = e.getHttpHeaders() == null ? null : e.getHttpHeaders().get("x-amz-bucket-region");
+                        if (region == null) {
+                            return new Verdict(name, null, false, "In an unknown region");
+                        }
+                        break;
+                    case 403:
+                        return new Verdict(name, null, false,
+                                owner == null ? "Access denied" : "Access denied or not owned by " + owner);
+                    case 404:
+                        return new Verdict(name, null, false, "Unable to find bucket");
+                    default:
+                        throw e;
+                }
+            }
+
+            if (expectedRegion != null && region != null && !expectedRegion.equals(region)) {
+                return new Verdict(name, region, false,
+                        String.format("In region %s rather than %s", region, expectedRegion));
+            }
+            return new Verdict(name, region, true, null);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.secret.Credential;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSSessionCredentials;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Keeps the components of the Lambda handlers, with their SDK clients and warm connection pools, and the credentials
+ * of the projects across the invocations of a warm Lambda, so that a warm invocation neither builds clients nor calls
+ * Secrets Manager.
+ * <p>
+ * The credentials of a project are refreshed ahead of their expiry, while the components are kept as long as they are
+ * used: a component is built again only once the refreshed credentials resolve to other keys, and dropped once unused
+ * for {@link #IDLE}, such as that of a project or a stream no longer replicated. The components of a replication keep
+ * state of their own, thus are never kept.
+ * <p>
+ * A component replaced or dropped is shut down, with its clients, transfer managers, producers and metrics, after the
+ * {@linkplain #GRACE grace} of an invocation which may still use it.
+ */
+final class ComponentCache {
+    private static final Duration TTL = Duration.ofMinutes(15);
+    private static final Duration REFRESH_AFTER = Duration.ofMinutes(10);
+    private static final Duration IDLE = Duration.ofHours(1);
+
+    /**
+     * The longest a Lambda invocation runs, so that an invocation which took a component before it was replaced
+     * finishes with it.
+     */
+    private static final Duration GRACE = Duration.ofMinutes(15);
+
+    private static final ScheduledExecutorService CLOSER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "component-close");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExpiringCache<String, Credential> CREDENTIALS = new ExpiringCache<>(TTL, REFRESH_AFTER,
+            projectId -> SecretManagerHolder.COMPONENT.secretManager().getCredentialByProject(projectId));
+
+    /**
+     * Keyed by the project and the region.
+     */
+    private static final Map<List<String>, Built> COMPONENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Keyed by the project, the source and target regions and the stream, for the components without a replication.
+     */
+    private static final Map<List<String>, Built> PAIR_COMPONENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Keyed by the stream and its region, built with the credential of the task itself.
+     */
+    private static final Map<List<String>, Built> STREAM_COMPONENTS = new ConcurrentHashMap<>();
+
+    private ComponentCache() {
+    }
+
+    /**
+     * @return the credential of the project, or {@code null} for the credential of the task itself.
+     */
+    @Nullable
+    static Credential credential(@Nullable String projectId) {
+        return projectId == null ? null : CREDENTIALS.get(projectId);
+    }
+
+    static S3Component component(@Nullable String projectId, String region) {
+        return current(COMPONENTS, Arrays.asList(projectId, region), projectId, credential -> DaggerS3Component.builder()
+                .region(region)
+                .credential(credential)
+                .build());
+    }
+
+    static S3Component component(@Nullable String projectId, String source, String target, @Nullable String stream) {
+        return current(PAIR_COMPONENTS, Arrays.asList(projectId, source, target, stream), projectId,
+                credential -> DaggerS3Component.builder()
+                        .sourceRegion(source)
+                        .targetRegion(target)
+                        .stream(stream)
+                        .credential(credential)
+                        .build());
+    }
+
+    static S3Component component(Resource stream) {
+        evictIdle();
+        final var built = STREAM_COMPONENTS.computeIfAbsent(Arrays.asList(stream.getName(), stream.getRegion()),
+                key -> new Built(null, DaggerS3Component.builder()
+                        .stream(key.get(0))
+                        .targetRegion(key.get(1))
+                        .build()));
+        built.usedMillis = System.currentTimeMillis();
+        return built.component;
+    }
+
+    /**
+     * @return the component cached, or built again if the credentials of the project now resolve to other keys.
+     */
+    private static S3Component current(Map<List<String>, Built> components, List<String> key,
+                                       @Nullable String projectId, Function<Credential, S3Component> builder) {
+        evictIdle();
+        final var credential = credential(projectId);
+        final var built = components.computeIfAbsent(key, k -> new Built(credential, builder.apply(credential)));
+        built.usedMillis = System.currentTimeMillis();
+        if (built.credential == credential) {
+            return built.component;
+        }
+
+        if (sameKeys(built.credential, credential)) {
+            // the credentials are refreshed but unchanged, keep the component and skip comparing them next time.
+            built.credential = credential;
+            return built.component;
+        }
+
+        final var replaced = new AtomicBoolean();
+        final var current = components.compute(key, (k, b) -> {
+            if (b != built) {
+                return b;
+            }
+            replaced.set(true);
+            return new Built(credential, builder.apply(credential));
+        });
+        if (replaced.get()) {
+            retire(built.component);
+        }
+        return current.component;
+    }
+
+    /**
+     * Drops the components unused for {@link #IDLE}, to be shut down after the grace.
+     */
+    private static void evictIdle() {
+        final var before = System.currentTimeMillis() - IDLE.toMillis();
+        for (var components : List.of(COMPONENTS, PAIR_COMPONENTS, STREAM_COMPONENTS)) {
+            components.forEach((key, built) -> {
+                if (built.usedMillis < before && components.remove(key, built)) {
+                    retire(built.component);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return whether both credentials resolve to the same keys.
+     */
+    static boolean sameKeys(@Nullable Credential a, @Nullable Credential b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.equals(b)) {
+            return true;
+        }
+
+        final var x = Credential.toProvider(a).getCredentials();
+        final var y = Credential.toProvider(b).getCredentials();
+        return Objects.equals(x.getAWSAccessKeyId(), y.getAWSAccessKeyId())
+                && Objects.equals(x.getAWSSecretKey(), y.getAWSSecretKey())
+                && Objects.equals(sessionToken(x), sessionToken(y));
+    }
+
+    @Nullable
+    private static String sessionToken(AWSCredentials credentials) {
+        return credentials instanceof AWSSessionCredentials
+                ? ((AWSSessionCredentials) credentials).getSessionToken()
+                : null;
+    }
+
+    private static void retire(S3Component component) {
+        CLOSER.schedule(() -> component.resources().close(), GRACE.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Built {
+        private volatile Credential credential;
+        private volatile long usedMillis = System.currentTimeMillis();
+        private final S3Component component;
+
+        private Built(@Nullable Credential credential, S3Component component) {
+            this.credential = credential;
+            this.component = component;
+        }
+    }
+
+    /**
+     * Builds the component of Secrets Manager once, on first use.
+     */
+    private static final class SecretManagerHolder {
+        private static final S3Component COMPONENT = DaggerS3Component.builder().build();
+    }
+}
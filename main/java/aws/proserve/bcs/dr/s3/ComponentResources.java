@@ -0,0 +1,54 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the clients and the transfer resources built in one component, to shut them down together once the component
+ * is dropped from the {@link ComponentCache}. Only what the component has built is registered, so closing builds
+ * nothing, and the resources are shut down in the reverse order of their building.
+ */
+@Singleton
+class ComponentResources {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Deque<Runnable> shutdowns = new ArrayDeque<>();
+
+    @Inject
+    ComponentResources() {
+    }
+
+    /**
+     * @return the resource itself, to be registered as it is provided.
+     */
+    synchronized <T> T register(T resource, Consumer<T> shutdown) {
+        shutdowns.push(() -> shutdown.accept(resource));
+        return resource;
+    }
+
+    void close() {
+        while (true) {
+            final Runnable shutdown;
+            synchronized (this) {
+                shutdown = shutdowns.poll();
+            }
+            if (shutdown == null) {
+                return;
+            }
+
+            try {
+                shutdown.run();
+            } catch (RuntimeException e) {
+                log.warn("Unable to shut down a resource of the component", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Limits the transfers in flight, that is the single request copies and the parts, with additive increase and
+ * multiplicative decrease (AIMD).
+ * <p>
+ * The outcomes are collected in windows. After a window with throttling, the limit is cut by 30%; after a window whose
+ * latency per MB is twice the best seen, by 10%. Otherwise the limit grows by one, as long as it was actually reached
+ * and the throughput did not drop. Thus each task probes the parallelism of its own network path.
+ * <p>
+ * A blocking transfer waits for its slot on the calling thread, while a non-blocking one waits in a queue and is
+ * started by the transfer releasing the slot, so that no thread of the event loop of the CRT is blocked.
+ */
+@Singleton
+class ConcurrencyLimiter {
+    static final int MIN_LIMIT = 4;
+    static final int MAX_LIMIT = 256;
+
+    private static final int INITIAL_LIMIT = 32;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int MIN_WINDOW_SAMPLES = 8;
+    private static final double BACKOFF_RATIO = 0.7;
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2;
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final long ONE_MB = 1024 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private final AtomicInteger drains = new AtomicInteger();
+    private final LongSupplier clock;
+    private int limit = INITIAL_LIMIT;
+    private int inFlight;
+    private int peak;
+
+    private long windowStart;
+    private int samples;
+    private long bytes;
+    private double latency;
+    private boolean throttled;
+    private double lastThroughput;
+    private double baseline;
+
+    @Inject
+    ConcurrencyLimiter(ReplicationMetrics metrics) {
+        this(metrics, System::nanoTime);
+    }
+
+    /**
+     * @param clock the time in nanoseconds, to time the transfers and the windows by.
+     */
+    ConcurrencyLimiter(ReplicationMetrics metrics, LongSupplier clock) {
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+        metrics.gauge("ConcurrencyLimit", this::getLimit);
+        metrics.gauge("InFlightTransfers", this::getInFlight);
+    }
+
+    /**
+     * Runs one transfer of about the bytes once a slot is free, recording its latency or throttling.
+     */
+    <T> T call(long bytes, Callable<T> callable) throws Exception {
+        acquire();
+        final var start = clock.getAsLong();
+        try {
+            final var result = callable.call();
+            release(bytes, clock.getAsLong() - start, false);
+            return result;
+        } catch (Exception e) {
+            release(0, 0, RetryPolicy.classify(e) == RetryPolicy.ErrorClass.THROTTLING);
+            throw e;
+        } catch (Error e) {
+            release(0, 0, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Starts one non-blocking transfer of about the bytes once a slot is free, recording its latency or throttling.
+     *
+     * @param throttling tells the errors of the transfer that are throttling.
+     */
+    <T> CompletableFuture<T> callAsync(long bytes, Supplier<CompletableFuture<T>> call,
+                                       Predicate<Throwable> throttling) {
+        return acquireAsync().thenCompose(v -> {
+            final var start = clock.getAsLong();
+            CompletableFuture<T> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            return future.whenComplete((result, e) -> {
+                if (e == null) {
+                    release(bytes, clock.getAsLong() - start, false);
+                } else {
+                    release(0, 0, throttling.test(
+                            e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+                }
+            });
+        });
+    }
+
+    private synchronized CompletableFuture<Void> acquireAsync() {
+        if (waiters.isEmpty() && inFlight < limit) {
+            inFlight++;
+            peak = Math.max(peak, inFlight);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final var waiter = new CompletableFuture<Void>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    private synchronized void acquire() {
+        while (inFlight >= limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }
+        inFlight++;
+        peak = Math.max(peak, inFlight);
+    }
+
+    private void release(long bytes, long nanos, boolean throttled) {
+        free(bytes, nanos, throttled);
+        drain();
+    }
+
+    /**
+     * Starts the waiting transfers while slots are free. Only one thread drains at a time, and it drains again if a
+     * slot was freed meanwhile, so that a transfer failing at once does not recurse.
+     */
+    private void drain() {
+        if (drains.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            for (var waiter = nextWaiter(); waiter != null; waiter = nextWaiter()) {
+                waiter.complete(null);
+            }
+            missed = drains.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private synchronized CompletableFuture<Void> nextWaiter() {
+        if (waiters.isEmpty() || inFlight >= limit) {
+            return null;
+        }
+        inFlight++;
+        peak = Math.max(peak, inFlight);
+        return waiters.poll();
+    }
+
+    private synchronized void free(long bytes, long nanos, boolean throttled) {
+        inFlight--;
+        if (throttled) {
+            this.throttled = true;
+        } else if (nanos > 0) {
+            this.samples++;
+            this.bytes += bytes;
+            this.latency += nanos / (double) Math.max(bytes, ONE_MB) * ONE_MB;
+        }
+
+        final var now = clock.getAsLong();
+        if (now - windowStart >= WINDOW_NANOS && (samples >= MIN_WINDOW_SAMPLES || this.throttled)) {
+            adjust(now);
+        }
+        notifyAll();
+    }
+
+    private void adjust(long now) {
+        final var old = limit;
+        final var throughput = bytes / ((now - windowStart) / 1e9);
+        final var meanLatency = samples == 0 ? 0 : latency / samples;
+        baseline = baseline == 0 ? meanLatency : Math.min(meanLatency, baseline * (1 + BASELINE_DRIFT));
+
+        if (throttled) {
+            limit = Math.max(MIN_LIMIT, (int) (limit * BACKOFF_RATIO));
+        } else if (meanLatency > baseline * LATENCY_TOLERANCE) {
+            limit = Math.max(MIN_LIMIT, (int) (limit * LATENCY_BACKOFF_RATIO));
+        } else if (peak >= limit && throughput >= lastThroughput * 0.95) {
+            limit = Math.min(MAX_LIMIT, limit + 1);
+        }
+
+        if (limit != old) {
+            log.info("Concurrency limit {} -> {}: {} MB/s, {} ms per MB{}", old, limit,
+                    String.format("%.1f", throughput / ONE_MB), String.format("%.1f", meanLatency / 1e6),
+                    throttled ? ", throttled" : "");
+        }
+        lastThroughput = throughput;
+        windowStart = now;
+        samples = 0;
+        bytes = 0;
+        latency = 0;
+        throttled = false;
+        peak = inFlight;
+    }
+
+    synchronized long getLimit() {
+        return limit;
+    }
+
+    synchronized long getInFlight() {
+        return inFlight;
+    }
+}
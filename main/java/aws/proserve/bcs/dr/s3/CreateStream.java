@@ -4,30 +4,50 @@
 package aws.proserve.bcs.dr.s3;
 
 import aws.proserve.bcs.dr.lambda.StringHandler;
+import aws.proserve.bcs.dr.lambda.annotation.Default;
 import aws.proserve.bcs.dr.lambda.dto.Resource;
 import aws.proserve.bcs.dr.lambda.util.Assure;
 import aws.proserve.bcs.dr.util.Preconditions;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Datapoint;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.DimensionFilter;
+import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsRequest;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
 import com.amazonaws.services.kinesis.AmazonKinesis;
 import com.amazonaws.services.lambda.runtime.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
 
 public class CreateStream implements StringHandler<CreateStream.Request> {
 
     @Override
     public String handleRequest(Request request, Context context) {
+        final var estimate = request.getSource() == null ? null
+                : S3Component.build(request.getProjectId(), request.getSource().getRegion())
+                .bucketEstimator()
+                .estimate(request.getSource().getName());
         return S3Component.build(request.getBucket())
                 .createStream()
-                .create(request.getBucket().getName());
+                .create(request.getBucket().getName(), estimate);
     }
 
     static class Request {
         private Resource bucket;
+        private Resource source;
+        private String projectId;
 
         public Resource getBucket() {
             return bucket;
@@ -36,11 +56,34 @@ public class CreateStream implements StringHandler<CreateStream.Request> {
         public void setBucket(Resource bucket) {
             this.bucket = bucket;
         }
+
+        /**
+         * @return the bucket to replicate, to size the stream by, or {@code null} for the default size.
+         */
+        public Resource getSource() {
+            return source;
+        }
+
+        public void setSource(Resource source) {
+            this.source = source;
+        }
+
+        public String getProjectId() {
+            return projectId;
+        }
+
+        public void setProjectId(String projectId) {
+            this.projectId = projectId;
+        }
     }
 
     @Singleton
     static class Worker {
         static final String INVALID_CHAR = "[^0-9a-zA-Z-_\\.]";
+        static final int DEFAULT_SHARDS = 10;
+        static final int MAX_SHARDS = 64;
+        static final long OBJECTS_PER_SHARD = 1_000_000;
+        static final long BYTES_PER_SHARD = 1024L * 1024 * 1024 * 1024;
 
         private final Logger log = LoggerFactory.getLogger(getClass());
         private final AmazonKinesis kinesis;
@@ -50,22 +93,146 @@ public class CreateStream implements StringHandler<CreateStream.Request> {
             this.kinesis = kinesis;
         }
 
-        String create(String bucketName) {
+        String create(String bucketName, @Nullable Estimate estimate) {
             final var pruned = bucketName.replaceAll(INVALID_CHAR, "-");
             final var rawName = "DRPS3-Stream"
                     + "-" + ZonedDateTime.now().format(DateTimeFormatter.ofPattern("yyMMdd-HHmmss-SSS"))
                     + "-" + pruned;
             final var name = rawName.substring(0, Math.min(128, rawName.length()));
-            log.info("Create a stream named [{}]", name);
-            kinesis.createStream(name, 10);
+            final var shards = shards(estimate);
+            log.info("Create a stream named [{}] with {} shards for {}", name, shards,
+                    estimate == null ? "unknown size" : estimate);
+            kinesis.createStream(name, shards);
 
             Assure.assure(() ->
                     Preconditions.checkState(isActive(name), "Stream [" + name + "] is not ACTIVE yet."));
             return isActive(name) ? name : null;
         }
 
+        /**
+         * One shard per million objects or per TB, whichever is more, so that the records and the leases are spread
+         * over as many consumers as the copy can keep busy.
+         */
+        static int shards(@Nullable Estimate estimate) {
+            if (estimate == null) {
+                return DEFAULT_SHARDS;
+            }
+
+            final var byObjects = (estimate.getObjects() + OBJECTS_PER_SHARD - 1) / OBJECTS_PER_SHARD;
+            final var byBytes = (estimate.getBytes() + BYTES_PER_SHARD - 1) / BYTES_PER_SHARD;
+            return (int) Math.max(1, Math.min(MAX_SHARDS, Math.max(byObjects, byBytes)));
+        }
+
         private boolean isActive(String name) {
             return "ACTIVE".equals(kinesis.describeStream(name).getStreamDescription().getStreamStatus());
         }
     }
+
+    /**
+     * Estimates the size of a bucket from the daily storage metrics of S3 in CloudWatch, without listing the bucket.
+     * The size is summed over the storage types the bucket has metrics of, from Standard to Deep Archive.
+     */
+    @Singleton
+    static class Estimator {
+        private static final String NAMESPACE = "AWS/S3";
+        private static final int PERIOD_SECONDS = 86400;
+        private static final int LOOK_BACK_DAYS = 3;
+
+        private final Logger log = LoggerFactory.getLogger(getClass());
+        private final AmazonCloudWatch cloudWatch;
+
+        @Inject
+        Estimator(@Default AmazonCloudWatch cloudWatch) {
+            this.cloudWatch = cloudWatch;
+        }
+
+        /**
+         * @return the estimate, or {@code null} if the metrics are not available, e.g. for a bucket created today.
+         */
+        @Nullable
+        Estimate estimate(String bucket) {
+            try {
+                final var objects = latest(bucket, "NumberOfObjects", "AllStorageTypes");
+                var bytes = -1L;
+                for (var storageType : storageTypes(bucket)) {
+                    final var size = latest(bucket, "BucketSizeBytes", storageType);
+                    if (size >= 0) {
+                        bytes = Math.max(0, bytes) + size;
+                    }
+                }
+                if (objects < 0 && bytes < 0) {
+                    log.info("No storage metrics of bucket [{}] yet", bucket);
+                    return null;
+                }
+                return new Estimate(Math.max(0, objects), Math.max(0, bytes));
+            } catch (RuntimeException e) {
+                log.warn("Unable to estimate the size of bucket [" + bucket + "]", e);
+                return null;
+            }
+        }
+
+        /**
+         * @return the storage types of the bucket size, listed by CloudWatch for the last two weeks.
+         */
+        private List<String> storageTypes(String bucket) {
+            final var request = new ListMetricsRequest()
+                    .withNamespace(NAMESPACE)
+                    .withMetricName("BucketSizeBytes")
+                    .withDimensions(new DimensionFilter().withName("BucketName").withValue(bucket));
+            final var types = new ArrayList<String>();
+            do {
+                final var result = cloudWatch.listMetrics(request);
+                result.getMetrics().forEach(metric -> metric.getDimensions().stream()
+                        .filter(dimension -> "StorageType".equals(dimension.getName()))
+                        .forEach(dimension -> types.add(dimension.getValue())));
+                request.setNextToken(result.getNextToken());
+            } while (request.getNextToken() != null);
+            return types;
+        }
+
+        /**
+         * @return the latest value of the metric, or {@code -1} if none.
+         */
+        private long latest(String bucket, String metric, String storageType) {
+            final var now = Instant.now();
+            return cloudWatch.getMetricStatistics(new GetMetricStatisticsRequest()
+                    .withNamespace(NAMESPACE)
+                    .withMetricName(metric)
+                    .withDimensions(
+                            new Dimension().withName("BucketName").withValue(bucket),
+                            new Dimension().withName("StorageType").withValue(storageType))
+                    .withStartTime(Date.from(now.minus(LOOK_BACK_DAYS, ChronoUnit.DAYS)))
+                    .withEndTime(Date.from(now))
+                    .withPeriod(PERIOD_SECONDS)
+                    .withStatistics("Maximum"))
+                    .getDatapoints()
+                    .stream()
+                    .max(Comparator.comparing(Datapoint::getTimestamp))
+                    .map(d -> d.getMaximum().longValue())
+                    .orElse(-1L);
+        }
+    }
+
+    static final class Estimate {
+        private final long objects;
+        private final long bytes;
+
+        Estimate(long objects, long bytes) {
+            this.objects = objects;
+            this.bytes = bytes;
+        }
+
+        long getObjects() {
+            return objects;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d objects of %d GB", objects, bytes >> 30);
+        }
+    }
 }
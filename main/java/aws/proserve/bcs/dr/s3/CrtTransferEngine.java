@@ -0,0 +1,310 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Source;
+import aws.proserve.bcs.dr.lambda.annotation.Target;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectAclRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectAclResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.Grant;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.Permission;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.ServerSideEncryption;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.Tagging;
+import software.amazon.awssdk.services.s3.model.TaggingDirective;
+import software.amazon.awssdk.services.s3.model.Type;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies the objects on the non-blocking S3 client of the AWS SDK v2 on the AWS Common Runtime (CRT). The body of the
+ * GET streams into the PUT buffer by buffer as it arrives, and the CRT splits both into ranges and parts transferred in
+ * parallel on its own event loop, so that thousands of requests are in flight on a few threads. Within the same
+ * partition, the CRT copies by parts on the server side.
+ * <p>
+ * {@link #copyAsync} returns once the requests are sent, so the callers bound the objects in flight by permits, as
+ * {@link TransferLanes#submitAsync} does, rather than holding a thread for every object.
+ * <p>
+ * Selected by {@code transfer_engine=crt}. The integrity is checked by the CRC32C that the CRT computes over every
+ * part, rather than by the MD5s of {@link ReplicateFile}. The objects in flight are limited by the
+ * {@link ConcurrencyLimiter} as the parts of the blocking engine are. The bytes flow on the event loop of the CRT,
+ * where the {@link BandwidthGovernor} cannot limit them, so the CRT is refused with a bandwidth limit, see
+ * {@link S3Module#selectEngine}.
+ */
+@Singleton
+class CrtTransferEngine implements TransferEngine {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final S3AsyncClient sourceS3;
+    private final S3AsyncClient targetS3;
+    private final ReplicateBucket.Request request;
+    private final DeadLetters deadLetters;
+    private final ConcurrencyLimiter limiter;
+    private final ReplicationMetrics.Rate copiedObjects;
+    private final ReplicationMetrics.Rate copiedBytes;
+    private final LongAdder failedObjects;
+    private final LatencyHistogram objectLatency;
+    private final boolean copyAcl;
+
+    @Inject
+    CrtTransferEngine(@Source S3AsyncClient sourceS3,
+                      @Target S3AsyncClient targetS3,
+                      @Nullable ReplicateBucket.Request request,
+                      DeadLetters deadLetters,
+                      ConcurrencyLimiter limiter,
+                      ReplicationMetrics metrics) {
+        this(sourceS3, targetS3, request, deadLetters, limiter, metrics,
+                Boolean.parseBoolean(System.getenv("copy_acl")));
+    }
+
+    /**
+     * @param copyAcl whether to copy the ACL within the same partition, as {@link ReplicateFile} does by
+     *                {@code copy_acl}.
+     */
+    CrtTransferEngine(S3AsyncClient sourceS3,
+                      S3AsyncClient targetS3,
+                      ReplicateBucket.Request request,
+                      DeadLetters deadLetters,
+                      ConcurrencyLimiter limiter,
+                      ReplicationMetrics metrics,
+                      boolean copyAcl) {
+        this.sourceS3 = sourceS3;
+        this.targetS3 = targetS3;
+        this.request = request;
+        this.deadLetters = deadLetters;
+        this.limiter = limiter;
+        this.copiedObjects = metrics.rate("CopiedObjects", ReplicationMetrics.COUNT_PER_SECOND);
+        this.copiedBytes = metrics.rate("CopiedBytes", ReplicationMetrics.BYTES_PER_SECOND);
+        this.failedObjects = metrics.counter("FailedObjects");
+        this.objectLatency = metrics.histogram("ObjectLatency");
+        this.copyAcl = copyAcl;
+    }
+
+    @Override
+    public Status copy(S3Object object) {
+        return copyAsync(object).join();
+    }
+
+    @Override
+    public CompletableFuture<Status> copyAsync(S3Object object) {
+        final var start = System.nanoTime();
+        final var copy = limiter.callAsync(object.getSize(), () -> start(object),
+                e -> classify(e) == RetryPolicy.ErrorClass.THROTTLING);
+        return copy.handle((v, e) -> {
+            objectLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            if (e != null) {
+                return fail(object, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+
+            log.info("Transferred {} via crt", object.getKey());
+            deadLetters.remove(object.getKey());
+            copiedObjects.add(1);
+            copiedBytes.add(object.getSize());
+            return Status.COPIED;
+        });
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    private CompletableFuture<Void> start(S3Object object) {
+        try {
+            return (isSamePartition() ? copyIn(object) : copyX(object)).thenAccept(response -> {
+            });
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private boolean isSamePartition() {
+        return ReplicateFile.partition(request.getSource().getRegion())
+                .equals(ReplicateFile.partition(request.getTarget().getRegion()));
+    }
+
+    /**
+     * Copies on the server side, by parts if large, with the same attributes as {@link ReplicateFile} keeps: the
+     * metadata, the storage class and the tags of the source, and its ACL if asked by {@code copy_acl}. They are set
+     * on the copy rather than copied by S3, as the CRT copies a large object by parts, which S3 starts without them.
+     */
+    private CompletableFuture<?> copyIn(S3Object object) {
+        final var head = sourceS3.headObject(HeadObjectRequest.builder()
+                .bucket(request.getSource().getName())
+                .key(object.getKey())
+                .build());
+        final var tags = sourceS3.getObjectTagging(GetObjectTaggingRequest.builder()
+                        .bucket(request.getSource().getName())
+                        .key(object.getKey())
+                        .build())
+                .thenApply(GetObjectTaggingResponse::tagSet);
+        final var grants = !copyAcl ? CompletableFuture.completedFuture(List.<Grant>of())
+                : sourceS3.getObjectAcl(GetObjectAclRequest.builder()
+                        .bucket(request.getSource().getName())
+                        .key(object.getKey())
+                        .build())
+                .thenApply(GetObjectAclResponse::grants);
+
+        return CompletableFuture.allOf(head, tags, grants)
+                .thenCompose(v -> targetS3.copyObject(copy(object, head.join(), tags.join(), grants.join())));
+    }
+
+    private CopyObjectRequest copy(S3Object object, HeadObjectResponse source, List<Tag> tags, List<Grant> grants) {
+        final var headers = grantHeaders(grants);
+        final var copy = CopyObjectRequest.builder()
+                .sourceBucket(request.getSource().getName())
+                .sourceKey(object.getKey())
+                .destinationBucket(request.getTarget().getName())
+                .destinationKey(object.getKey())
+                .metadataDirective(MetadataDirective.REPLACE)
+                .contentType(source.contentType())
+                .contentEncoding(source.contentEncoding())
+                .contentDisposition(source.contentDisposition())
+                .contentLanguage(source.contentLanguage())
+                .cacheControl(source.cacheControl())
+                .websiteRedirectLocation(source.websiteRedirectLocation())
+                .metadata(source.metadata())
+                .storageClass(source.storageClassAsString())
+                .taggingDirective(TaggingDirective.REPLACE)
+                .grantFullControl(headers.get(Permission.FULL_CONTROL))
+                .grantRead(headers.get(Permission.READ))
+                .grantReadACP(headers.get(Permission.READ_ACP))
+                .grantWriteACP(headers.get(Permission.WRITE_ACP));
+        if (source.serverSideEncryption() == ServerSideEncryption.AES256) {
+            copy.serverSideEncryption(ServerSideEncryption.AES256);
+        }
+        if (!tags.isEmpty()) {
+            copy.tagging(Tagging.builder().tagSet(tags).build());
+        }
+        return copy.build();
+    }
+
+    /**
+     * @return the grantees of the grants by permission, in the form of the grant headers of a request.
+     */
+    static Map<Permission, String> grantHeaders(List<Grant> grants) {
+        final var headers = new EnumMap<Permission, String>(Permission.class);
+        for (var grant : grants) {
+            final var grantee = grant.grantee();
+            final String value;
+            if (grantee.type() == Type.CANONICAL_USER) {
+                value = "id=\"" + grantee.id() + "\"";
+            } else if (grantee.type() == Type.GROUP) {
+                value = "uri=\"" + grantee.uri() + "\"";
+            } else if (grantee.type() == Type.AMAZON_CUSTOMER_BY_EMAIL) {
+                value = "emailAddress=\"" + grantee.emailAddress() + "\"";
+            } else {
+                continue;
+            }
+            headers.merge(grant.permission(), value, (a, b) -> a + ", " + b);
+        }
+        return headers;
+    }
+
+    /**
+     * Streams the body of the download into the upload, once the headers of the download arrive, and with the tags
+     * fetched only if the object has any.
+     */
+    private CompletableFuture<?> copyX(S3Object object) {
+        return sourceS3.getObject(GetObjectRequest.builder()
+                                .bucket(request.getSource().getName())
+                                .key(object.getKey())
+                                .build(),
+                        AsyncResponseTransformer.toPublisher())
+                .thenCompose(publisher -> tags(object, publisher.response())
+                        .thenCompose(tags -> put(object, publisher, tags)));
+    }
+
+    private CompletableFuture<List<Tag>> tags(S3Object object, GetObjectResponse response) {
+        if (response.tagCount() == null || response.tagCount() == 0) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return sourceS3.getObjectTagging(GetObjectTaggingRequest.builder()
+                        .bucket(request.getSource().getName())
+                        .key(object.getKey())
+                        .build())
+                .thenApply(tagging -> tagging.tagSet());
+    }
+
+    private CompletableFuture<?> put(S3Object object, ResponsePublisher<GetObjectResponse> publisher,
+                                     List<Tag> tags) {
+        final var source = publisher.response();
+        final var put = PutObjectRequest.builder()
+                .bucket(request.getTarget().getName())
+                .key(object.getKey())
+                .contentLength(source.contentLength())
+                .contentType(source.contentType())
+                .contentEncoding(source.contentEncoding())
+                .contentDisposition(source.contentDisposition())
+                .contentLanguage(source.contentLanguage())
+                .cacheControl(source.cacheControl())
+                .websiteRedirectLocation(source.websiteRedirectLocation())
+                .metadata(source.metadata())
+                .storageClass(source.storageClassAsString())
+                .checksumAlgorithm(ChecksumAlgorithm.CRC32_C);
+        if (source.serverSideEncryption() == ServerSideEncryption.AES256) {
+            put.serverSideEncryption(ServerSideEncryption.AES256);
+        }
+        if (!tags.isEmpty()) {
+            put.tagging(Tagging.builder().tagSet(tags).build());
+        }
+        return targetS3.putObject(put.build(), AsyncRequestBody.fromPublisher(publisher));
+    }
+
+    private Status fail(S3Object object, Throwable e) {
+        log.warn(String.format("Unable to copy file [%s/%s] (%d) from [%s] to [%s] via crt.",
+                request.getSource().getName(), object.getKey(), object.getSize(),
+                request.getSource().getRegion(), request.getTarget().getRegion()), e);
+        failedObjects.increment();
+        deadLetters.add(object, "crt", classify(e).name(), e.toString());
+        return Status.FAILED;
+    }
+
+    /**
+     * @return the class of an error of the SDK v2, as {@link RetryPolicy#classify} for the SDK v1. The SDK v2 has
+     * retried the error already.
+     */
+    private static RetryPolicy.ErrorClass classify(Throwable e) {
+        if (e instanceof AwsServiceException) {
+            final var service = (AwsServiceException) e;
+            if (service.isThrottlingException()) {
+                return RetryPolicy.ErrorClass.THROTTLING;
+            }
+            return service.statusCode() >= 500
+                    ? RetryPolicy.ErrorClass.TRANSIENT
+                    : RetryPolicy.ErrorClass.PERMANENT;
+        } else if (e instanceof SdkClientException) {
+            return RetryPolicy.ErrorClass.TRANSIENT;
+        }
+        return RetryPolicy.classify(e);
+    }
+}
@@ -0,0 +1,212 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects the objects that still fail after their retries, keyed by object key, with the class of the error and the
+ * number of attempts. They are saved to the state store as JSON lines, for the retry pass at the end of the run and
+ * for the operators to inspect.
+ */
+class DeadLetters implements TaskState {
+    private static final long SAVE_INTERVAL_MINUTES = 1;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final StateStore store;
+    private final ObjectMapper mapper;
+    private final String name;
+    private final Map<String, Letter> letters = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "dead-letters");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    DeadLetters(StateStore store, ObjectMapper mapper, String name) {
+        this.store = store;
+        this.mapper = mapper;
+        this.name = name;
+        load();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (dirty.get()) {
+                    save();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to save dead letters [" + name + "]", e);
+            }
+        }, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param errorClass the class of the error by {@link RetryPolicy#classify}, or {@code MISMATCH}.
+     */
+    void add(S3Object object, String via, String errorClass, String error) {
+        letters.compute(object.getKey(), (key, previous) -> {
+            final var letter = new Letter();
+            letter.setObject(object);
+            letter.setVia(via);
+            letter.setErrorClass(errorClass);
+            letter.setError(error);
+            letter.setAttempts(previous == null ? 1 : previous.getAttempts() + 1);
+            letter.setFailedAt(System.currentTimeMillis());
+            return letter;
+        });
+        dirty.set(true);
+    }
+
+    /**
+     * Forgets the object, once copied.
+     */
+    void remove(String key) {
+        if (letters.remove(key) != null) {
+            dirty.set(true);
+        }
+    }
+
+    List<Letter> list() {
+        return List.copyOf(letters.values());
+    }
+
+    int size() {
+        return letters.size();
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Takes in the letters of another task, those of this task winning on the same key.
+     */
+    @Override
+    public void absorb(String name) {
+        final var other = new DeadLetters(store, mapper, name);
+        other.close();
+        other.letters.values().forEach(letter -> {
+            if (letters.putIfAbsent(letter.getObject().getKey(), letter) == null) {
+                dirty.set(true);
+            }
+        });
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        store.delete(name);
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        dirty.set(false);
+        final var bytes = new ByteArrayOutputStream();
+        for (var letter : List.copyOf(letters.values())) {
+            bytes.write(mapper.writeValueAsBytes(letter));
+            bytes.write('\n');
+        }
+
+        store.save(name, new ByteArrayInputStream(bytes.toByteArray()), bytes.size());
+        log.info("Saved {} dead letters [{}]", letters.size(), name);
+    }
+
+    private void load() {
+        try (var stream = store.load(name)) {
+            if (stream == null) {
+                return;
+            }
+
+            final var reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            for (var line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isBlank()) {
+                    final var letter = mapper.readValue(line, Letter.class);
+                    letters.put(letter.getObject().getKey(), letter);
+                }
+            }
+            log.info("Loaded {} dead letters [{}]", letters.size(), name);
+        } catch (IOException e) {
+            log.warn("Unable to load dead letters [" + name + "], start from empty", e);
+        }
+    }
+
+    static class Letter {
+        private S3Object object;
+        private String via;
+        private String errorClass;
+        private String error;
+        private int attempts;
+        private long failedAt;
+
+        public S3Object getObject() {
+            return object;
+        }
+
+        public void setObject(S3Object object) {
+            this.object = object;
+        }
+
+        public String getVia() {
+            return via;
+        }
+
+        public void setVia(String via) {
+            this.via = via;
+        }
+
+        public String getErrorClass() {
+            return errorClass;
+        }
+
+        public void setErrorClass(String errorClass) {
+            this.errorClass = errorClass;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public void setError(String error) {
+            this.error = error;
+        }
+
+        /**
+         * @return the number of times the object failed, each after its own retries.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public void setAttempts(int attempts) {
+            this.attempts = attempts;
+        }
+
+        /**
+         * @return the epoch millis of the last failure.
+         */
+        public long getFailedAt() {
+            return failedAt;
+        }
+
+        public void setFailedAt(long failedAt) {
+            this.failedAt = failedAt;
+        }
+    }
+}
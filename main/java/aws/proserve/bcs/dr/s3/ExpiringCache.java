@@ -0,0 +1,173 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the values loaded by key for a time to live. Once a value is older than the refresh time, it is still
+ * returned while a new value is loaded in the background, so that a warm caller never waits for the loader. A value
+ * past its time to live is loaded again before being returned, once for all the callers of the same key.
+ * <p>
+ * A value replaced by a newer one, expired or invalidated is handed to the removal listener, to release what it holds.
+ * Once the cache holds its maximum size, a new key first evicts the values expired, then the oldest.
+ */
+class ExpiringCache<K, V> {
+    private static final ExecutorService REFRESHER = Executors.newCachedThreadPool(runnable -> {
+        final var thread = new Thread(runnable, "cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final long ttlNanos;
+    private final long refreshNanos;
+    private final Function<K, V> loader;
+    private final Consumer<V> onRemoval;
+    private final int maximumSize;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param refreshAfter shorter than the time to live, to refresh ahead of the expiry.
+     */
+    ExpiringCache(Duration ttl, Duration refreshAfter, Function<K, V> loader) {
+        this(ttl, refreshAfter, loader, value -> {
+        });
+    }
+
+    ExpiringCache(Duration ttl, Duration refreshAfter, Function<K, V> loader, Consumer<V> onRemoval) {
+        this(ttl, refreshAfter, Integer.MAX_VALUE, loader, onRemoval);
+    }
+
+    ExpiringCache(Duration ttl, Duration refreshAfter, int maximumSize, Function<K, V> loader) {
+        this(ttl, refreshAfter, maximumSize, loader, value -> {
+        });
+    }
+
+    /**
+     * @param onRemoval called once with every value no longer cached, outside the lock of its key.
+     */
+    ExpiringCache(Duration ttl, Duration refreshAfter, int maximumSize, Function<K, V> loader,
+                  Consumer<V> onRemoval) {
+        this.ttlNanos = ttl.toNanos();
+        this.refreshNanos = refreshAfter.toNanos();
+        this.maximumSize = maximumSize;
+        this.loader = loader;
+        this.onRemoval = onRemoval;
+    }
+
+    V get(K key) {
+        final var entry = entries.get(key);
+        final var now = System.nanoTime();
+        if (entry == null || now - entry.loadedNanos >= ttlNanos) {
+            if (entry == null && entries.size() >= maximumSize) {
+                evict();
+            }
+
+            final var expired = new AtomicReference<Entry<V>>();
+            final var loaded = entries.compute(key, (k, e) -> {
+                if (e != null && System.nanoTime() - e.loadedNanos < ttlNanos) {
+                    return e;
+                }
+                expired.set(e);
+                return new Entry<>(loader.apply(k));
+            });
+            removed(expired.get());
+            return loaded.value;
+        }
+
+        if (now - entry.loadedNanos >= refreshNanos && entry.refreshing.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    final var refreshed = new Entry<>(loader.apply(key));
+                    removed(entries.replace(key, entry, refreshed) ? entry : refreshed);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to refresh [" + key + "], keep the current value until it expires", e);
+                    entry.refreshing.set(false);
+                }
+            }, REFRESHER);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Removes the value of the key only if it is still the given one, so that a value loaded meanwhile is kept.
+     */
+    void invalidate(K key, V value) {
+        final var invalidated = new AtomicReference<Entry<V>>();
+        entries.computeIfPresent(key, (k, e) -> {
+            if (e.value != value) {
+                return e;
+            }
+            invalidated.set(e);
+            return null;
+        });
+        removed(invalidated.get());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the values expired, then the oldest values until below the maximum size.
+     */
+    private void evict() {
+        final var now = System.nanoTime();
+        entries.forEach((key, entry) -> {
+            if (now - entry.loadedNanos >= ttlNanos && entries.remove(key, entry)) {
+                removed(entry);
+            }
+        });
+
+        final var excess = entries.size() - maximumSize + 1;
+        if (excess > 0) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(e -> e.getValue().loadedNanos))
+                    .limit(excess)
+                    .collect(Collectors.toList())
+                    .forEach(e -> {
+                        if (entries.remove(e.getKey(), e.getValue())) {
+                            removed(e.getValue());
+                        }
+                    });
+        }
+    }
+
+    private void removed(Entry<V> entry) {
+        if (entry == null) {
+            return;
+        }
+
+        try {
+            onRemoval.accept(entry.value);
+        } catch (RuntimeException e) {
+            log.warn("Unable to release a value removed from the cache", e);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long loadedNanos = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Decides whether a run fails by the objects still failing after the retry pass. A run tolerates at most
+ * {@code max_failed_objects} objects, or {@code max_failed_percent} percent of the objects, by the environment
+ * variables of the same name, none by default.
+ */
+@Singleton
+class FailurePolicy {
+    private final long maxObjects;
+    private final double maxPercent;
+
+    @Inject
+    FailurePolicy() {
+        this(Long.parseLong(env("max_failed_objects", "0")), Double.parseDouble(env("max_failed_percent", "0")));
+    }
+
+    FailurePolicy(long maxObjects, double maxPercent) {
+        this.maxObjects = maxObjects;
+        this.maxPercent = maxPercent;
+    }
+
+    private static String env(String key, String defaultValue) {
+        final var value = System.getenv(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @param total the number of objects in the run.
+     */
+    boolean accepts(long failed, long total) {
+        return failed <= maxObjects || failed * 100.0 <= maxPercent * total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("at most %d objects or %s%% of objects failed", maxObjects, maxPercent);
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the state as local files, replaced atomically on save.
+ */
+class FileStateStore implements StateStore {
+    private final Path directory;
+
+    FileStateStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public InputStream load(String name) throws IOException {
+        try {
+            return Files.newInputStream(directory.resolve(name));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String name, InputStream content, long length) throws IOException {
+        final var path = directory.resolve(name);
+        Files.createDirectories(path.getParent());
+        final var temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(directory.resolve(name));
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        final var parent = directory.resolve(prefix).getParent();
+        if (parent == null || !Files.isDirectory(parent)) {
+            return List.of();
+        }
+
+        try (var paths = Files.walk(parent)) {
+            return paths.filter(path -> Files.isRegularFile(path) && !path.toString().endsWith(".tmp"))
+                    .map(path -> directory.relativize(path).toString().replace('\\', '/'))
+                    .filter(name -> name.startsWith(prefix))
+                    .collect(Collectors.toList());
+        }
+    }
+}
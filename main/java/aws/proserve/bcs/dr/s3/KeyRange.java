@@ -0,0 +1,63 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+/**
+ * A range of keys owned by one task, after {@link #getStartAfter} and up to {@link #getEndAt} inclusive, in the binary
+ * order of UTF-8 as S3 lists. The split keys are real keys, so the end is inclusive to leave no key between ranges.
+ */
+class KeyRange {
+    private int index;
+    private String startAfter;
+    private String endAt;
+
+    public KeyRange() {
+    }
+
+    KeyRange(int index, String startAfter, String endAt) {
+        this.index = index;
+        this.startAfter = startAfter;
+        this.endAt = endAt;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the key after which the range starts exclusively, or {@code null} from the first key.
+     */
+    public String getStartAfter() {
+        return startAfter;
+    }
+
+    public void setStartAfter(String startAfter) {
+        this.startAfter = startAfter;
+    }
+
+    /**
+     * @return the key at which the range ends inclusively, or {@code null} up to the last key.
+     */
+    public String getEndAt() {
+        return endAt;
+    }
+
+    public void setEndAt(String endAt) {
+        this.endAt = endAt;
+    }
+
+    boolean contains(String key) {
+        return (startAfter == null || BucketScanner.compare(key, startAfter) > 0)
+                && (endAt == null || BucketScanner.compare(key, endAt) <= 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d (%s, %s]", index, startAfter == null ? "" : startAfter, endAt == null ? "" : endAt);
+    }
+}
@@ -0,0 +1,412 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Samples the keys of a bucket across its key space without listing it in full, for {@link SplitBucket}.
+ * <p>
+ * A probe lists one page of the keys after a point of the key space. The probe points cut the key space into intervals,
+ * each counted exactly if the page of its probe reaches the next point, or else estimated at the density of its page.
+ * The intervals of the most objects are probed again beyond their page, until every interval is counted or the probes
+ * run out.
+ * <p>
+ * A point is a number whose digits are the characters of the keys after the prefix common to every key. The density of
+ * an interval is measured in the characters of its own page, so the sequential keys of a flat bucket are sampled as
+ * evenly as keys spread by hashes, and one kind of keys does not skew the estimates of another.
+ */
+class KeySampler {
+    static final int PAGE_SIZE = 1000;
+    static final int MAX_PROBES = 1000;
+    private static final int FIRST_PROBES = 64;
+    private static final int MIN_ROUNDS = 8;
+    private static final int KEYS_PER_PROBE = 64;
+    private static final int GALLOP_FACTOR = 4;
+    private static final int GALLOP_STEPS = 6;
+    private static final int DIGITS = 32;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final long deadline;
+    private final int pageSize;
+    private final int maxProbes;
+
+    /**
+     * The intervals by their probe point, the first one from the empty point.
+     */
+    private final TreeMap<String, Interval> intervals = new TreeMap<>(BucketScanner::compare);
+    private String prefix = "";
+    private int probes;
+
+    KeySampler(AmazonS3 s3, String bucket, long deadline) {
+        this(s3, bucket, deadline, PAGE_SIZE, MAX_PROBES);
+    }
+
+    KeySampler(AmazonS3 s3, String bucket, long deadline, int pageSize, int maxProbes) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.deadline = deadline;
+        this.pageSize = pageSize;
+        this.maxProbes = maxProbes;
+    }
+
+    /**
+     * @return the keys sampled in order, each weighted by the number of objects it stands for.
+     */
+    List<Sample> sample() {
+        final var executor = Executors.newFixedThreadPool(BucketScanner.PARALLELISM);
+        try {
+            probe(executor, List.of(""));
+            final var head = intervals.get("");
+            if (!head.isExact()) {
+                prefix = commonPrefix(head.last);
+                final var alphabet = head.alphabet();
+                final var first = alphabet.position(head.last);
+                final var span = alphabet.top.subtract(first);
+                final var points = new ArrayList<String>(FIRST_PROBES);
+                for (int i = 1; i < FIRST_PROBES; i++) {
+                    points.add(alphabet.point(first.add(span
+                            .multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(FIRST_PROBES)))));
+                }
+                probe(executor, points);
+            }
+
+            while (probes < maxProbes && System.currentTimeMillis() < deadline) {
+                final var unknown = intervals.values().stream()
+                        .filter(i -> !i.isExact())
+                        .sorted(Comparator.comparingDouble(Interval::estimate).reversed())
+                        .collect(Collectors.toList());
+                final var budget = Math.min(Math.max(BucketScanner.PARALLELISM, maxProbes / MIN_ROUNDS),
+                        maxProbes - probes);
+                final var points = new ArrayList<String>();
+                for (var i = unknown.iterator(); i.hasNext() && points.size() < budget; ) {
+                    points.addAll(i.next().refine());
+                }
+                if (probe(executor, points.subList(0, Math.min(budget, points.size()))) == 0) {
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final var samples = new ArrayList<Sample>();
+        intervals.values().forEach(interval -> interval.sample(samples));
+        log.info("Sampled about {} objects of bucket [{}] by {} probes, {} intervals of {} counted exactly",
+                Math.round(samples.stream().mapToDouble(Sample::getWeight).sum()), bucket, probes,
+                intervals.values().stream().filter(Interval::isExact).count(), intervals.size());
+        return samples;
+    }
+
+    /**
+     * Lists one page after each point concurrently. The new points are all known before the pages arrive, so each page
+     * is cut at its next point once. A point within the keys already listed is dropped, not to cut a page twice.
+     *
+     * @return the number of points probed.
+     */
+    private int probe(ExecutorService executor, List<String> points) {
+        final var fresh = points.stream()
+                .filter(p -> !intervals.containsKey(p))
+                .filter(p -> {
+                    final var lower = intervals.lowerEntry(p);
+                    return lower == null || lower.getValue().last == null
+                            || BucketScanner.compare(p, lower.getValue().last) >= 0;
+                })
+                .distinct()
+                .collect(Collectors.toList());
+        fresh.forEach(p -> intervals.put(p, null));
+
+        final var futures = new ArrayList<Future<ListObjectsV2Result>>(fresh.size());
+        for (var point : fresh) {
+            futures.add(executor.submit(() -> list(point, pageSize)));
+        }
+
+        try {
+            for (int i = 0; i < fresh.size(); i++) {
+                final var point = fresh.get(i);
+                intervals.put(point, new Interval(point, futures.get(i).get(), intervals.higherKey(point)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sampling bucket [" + bucket + "]", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to sample bucket [" + bucket + "]", e.getCause());
+        }
+        probes += fresh.size();
+        return fresh.size();
+    }
+
+    private ListObjectsV2Result list(String after, int maxKeys) {
+        return s3.listObjectsV2(new ListObjectsV2Request()
+                .withBucketName(bucket)
+                .withStartAfter(after.isEmpty() ? null : after)
+                .withMaxKeys(maxKeys));
+    }
+
+    /**
+     * @return the longest prefix of the key shared by every key, found by probing for keys after the prefix.
+     */
+    private String commonPrefix(String key) {
+        var shared = 0;
+        var length = key.codePointCount(0, key.length());
+        while (shared < length) {
+            final var middle = (shared + length + 1) / 2;
+            final var candidate = key.substring(0, key.offsetByCodePoints(0, middle));
+            probes++;
+            if (list(candidate + BucketScanner.MAX_CODE_POINT, 1).getObjectSummaries().isEmpty()) {
+                shared = middle;
+            } else {
+                length = middle - 1;
+            }
+        }
+        return key.substring(0, key.offsetByCodePoints(0, shared));
+    }
+
+    private static int commonLength(String a, String b) {
+        var i = 0;
+        while (i < a.length() && i < b.length() && a.codePointAt(i) == b.codePointAt(i)) {
+            i += Character.charCount(a.codePointAt(i));
+        }
+        return i;
+    }
+
+    /**
+     * The keys from a probe point up to the next point inclusive, thinned to a few evenly spread keys.
+     */
+    private final class Interval {
+        private final String point;
+        private final List<String> keys;
+        private final String first;
+        private final String last;
+        private final long listed;
+        private final boolean counted;
+
+        /**
+         * The characters in which the keys of the page differ.
+         */
+        private final TreeSet<Integer> codePoints = new TreeSet<>();
+
+        private Interval(String point, ListObjectsV2Result result, String next) {
+            final var page = result.getObjectSummaries().stream()
+                    .map(S3ObjectSummary::getKey)
+                    .filter(key -> next == null || BucketScanner.compare(key, next) <= 0)
+                    .collect(Collectors.toList());
+
+            this.point = point;
+            this.listed = page.size();
+            this.first = page.isEmpty() ? null : page.get(0);
+            this.last = page.isEmpty() ? null : page.get(page.size() - 1);
+            this.counted = !result.isTruncated() || page.size() < result.getObjectSummaries().size();
+
+            final var thinned = Math.min(page.size(), KEYS_PER_PROBE);
+            this.keys = new ArrayList<>(thinned);
+            for (int i = 1; i <= thinned; i++) {
+                keys.add(page.get((int) ((long) i * page.size() / thinned) - 1));
+            }
+
+            if (!page.isEmpty()) {
+                final var shared = commonLength(first, last);
+                page.forEach(key -> key.substring(Math.min(shared, key.length())).codePoints().forEach(codePoints::add));
+            }
+        }
+
+        /**
+         * @return {@code true} if the page reaches the next point, which may be probed after the page.
+         */
+        private boolean isExact() {
+            return counted || last != null && last.equals(intervals.higherKey(point));
+        }
+
+        /**
+         * @return the alphabet of the keys after the prefix they share with the next point, of the characters in which
+         * the keys of the page differ, and of the characters the page shares up to them.
+         */
+        private Alphabet alphabet() {
+            final var next = intervals.higherKey(point);
+            final var shared = next == null ? prefix : first.substring(0, commonLength(first, next));
+            final var local = new TreeSet<>(codePoints);
+            first.substring(shared.length(), commonLength(first, last)).codePoints().forEach(local::add);
+            return new Alphabet(shared, local);
+        }
+
+        private double estimate() {
+            return listed + unlisted(alphabet());
+        }
+
+        /**
+         * @return the objects estimated after the page of an interval not counted exactly, at the density of the page up
+         * to the bound of the keys.
+         */
+        private double unlisted(Alphabet alphabet) {
+            final var from = alphabet.position(last);
+            final var covered = from.subtract(alphabet.position(first)).doubleValue();
+            final var rest = bound(alphabet).subtract(from).doubleValue();
+            return covered <= 0 ? listed : listed * rest / covered;
+        }
+
+        /**
+         * @return the position up to which the keys after the page are assumed: the next point, or half way to it if
+         * nothing follows, as the keys then end anywhere before it.
+         */
+        private BigInteger bound(Alphabet alphabet) {
+            final var next = intervals.higherEntry(point);
+            final var from = alphabet.position(last);
+            final var to = next == null ? alphabet.top : alphabet.position(next.getKey());
+            return next == null || next.getValue().listed == 0 && next.getValue().isExact()
+                    ? from.add(to.subtract(from).shiftRight(1))
+                    : to;
+        }
+
+        /**
+         * @return the points to probe after the page: at its last key, then at steps growing by
+         * {@value KeySampler#GALLOP_FACTOR} times the span of the page, then half way to the next point. The first point beyond
+         * the keys bounds them within a few times the span of the page, whichever way the keys are spread.
+         */
+        private List<String> refine() {
+            final var alphabet = alphabet();
+            final var next = intervals.higherKey(point);
+            final var from = alphabet.position(last);
+            final var to = next == null ? alphabet.top : alphabet.position(next);
+
+            final var points = new ArrayList<String>();
+            points.add(last);
+            final var factor = BigInteger.valueOf(GALLOP_FACTOR);
+            var step = from.subtract(alphabet.position(first)).max(BigInteger.ONE).multiply(factor);
+            for (int i = 0; i < GALLOP_STEPS && from.add(step).compareTo(to) < 0; i++, step = step.multiply(factor)) {
+                points.add(alphabet.point(from.add(step)));
+            }
+            points.add(alphabet.point(from.add(to.subtract(from).shiftRight(1))));
+
+            return points.stream()
+                    .filter(p -> BucketScanner.compare(p, last) >= 0)
+                    .filter(p -> next == null || BucketScanner.compare(p, next) < 0)
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Adds the keys listed, and the points spread evenly after the page up to the bound of the keys, each weighted
+         * by its share of the objects estimated there.
+         */
+        private void sample(List<Sample> samples) {
+            final var weight = (double) listed / Math.max(1, keys.size());
+            keys.forEach(key -> samples.add(new Sample(key, weight)));
+
+            if (isExact()) {
+                return;
+            }
+
+            final var alphabet = alphabet();
+            final var unlisted = unlisted(alphabet);
+
+            final var from = alphabet.position(last);
+            final var step = bound(alphabet).subtract(from).divide(BigInteger.valueOf(KEYS_PER_PROBE));
+            var previous = last;
+            for (int i = 1; i <= KEYS_PER_PROBE; i++) {
+                final var point = alphabet.point(from.add(step.multiply(BigInteger.valueOf(i))));
+                if (BucketScanner.compare(point, previous) > 0) {
+                    samples.add(new Sample(point, unlisted / KEYS_PER_PROBE));
+                    previous = point;
+                } else {
+                    samples.get(samples.size() - 1).weight += unlisted / KEYS_PER_PROBE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the keys after the common prefix to numbers of {@value KeySampler#DIGITS} digits, each digit a character of the
+     * alphabet, or {@code 0} past the end of the key. A character out of the alphabet counts as the nearest one below.
+     */
+    private final class Alphabet {
+        private final String prefix;
+        private final List<Integer> codePoints;
+        private final BigInteger base;
+        private final BigInteger top;
+
+        private Alphabet(String prefix, Collection<Integer> codePoints) {
+            this.prefix = prefix;
+            this.codePoints = new ArrayList<>(codePoints);
+            this.base = BigInteger.valueOf(codePoints.size() + 1L);
+            this.top = base.pow(DIGITS);
+        }
+
+        private BigInteger position(String key) {
+            if (!key.startsWith(prefix)) {
+                return BucketScanner.compare(key, prefix) < 0 ? BigInteger.ZERO : top.subtract(BigInteger.ONE);
+            }
+
+            var position = BigInteger.ZERO;
+            var i = prefix.length();
+            for (int digit = 0; digit < DIGITS; digit++) {
+                var value = 0;
+                if (i < key.length()) {
+                    final var codePoint = key.codePointAt(i);
+                    i += Character.charCount(codePoint);
+                    final var index = Collections.binarySearch(codePoints, codePoint);
+                    value = index >= 0 ? index + 1 : Math.max(1, -index - 1);
+                }
+                position = position.multiply(base).add(BigInteger.valueOf(value));
+            }
+            return position;
+        }
+
+        /**
+         * @return the shortest point at the position.
+         */
+        private String point(BigInteger position) {
+            final var digits = new int[DIGITS];
+            var rest = position;
+            for (int digit = DIGITS - 1; digit >= 0; digit--) {
+                final var division = rest.divideAndRemainder(base);
+                digits[digit] = division[1].intValue();
+                rest = division[0];
+            }
+
+            final var point = new StringBuilder(prefix);
+            for (int digit = 0; digit < DIGITS && digits[digit] > 0; digit++) {
+                point.appendCodePoint(codePoints.get(digits[digit] - 1));
+            }
+            return point.toString();
+        }
+    }
+
+    static final class Sample {
+        private final String key;
+        private double weight;
+
+        Sample(String key, double weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        double getWeight() {
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in microseconds, in the log-linear buckets of HdrHistogram: every power of two is
+ * split into {@value #SUB_BUCKETS} linear buckets, which keeps the relative error within 4% from one microsecond up to
+ * centuries in under 1000 counters.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    void record(long micros) {
+        final var value = Math.max(0, micros);
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+
+        final var exponent = 63 - Long.numberOfLeadingZeros(value);
+        final var shift = exponent - SUB_BUCKET_BITS;
+        return LINEAR + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the middle of the values in the bucket.
+     */
+    static long value(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+
+        final var exponent = (index - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final var shift = exponent - SUB_BUCKET_BITS;
+        final var lower = (long) ((index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lower + (1L << shift) / 2;
+    }
+
+    /**
+     * Takes the values recorded since the last snapshot. A value recorded concurrently lands in this snapshot or the
+     * next, never in both.
+     *
+     * @param maxValues the number of distinct values to keep at most, merging the neighbouring buckets beyond.
+     */
+    Snapshot snapshot(int maxValues) {
+        final var values = new ArrayList<Long>();
+        final var frequencies = new ArrayList<Long>();
+        for (int i = 0; i < BUCKETS; i++) {
+            final var count = counts.getAndSet(i, 0);
+            if (count > 0) {
+                values.add(value(i));
+                frequencies.add(count);
+            }
+        }
+
+        while (values.size() > maxValues) {
+            for (int i = 0; i + 1 < values.size(); i++) {
+                final var count = frequencies.get(i) + frequencies.get(i + 1);
+                final var total = values.get(i) * frequencies.get(i) + values.get(i + 1) * frequencies.get(i + 1);
+                values.set(i, total / count);
+                frequencies.set(i, count);
+                values.remove(i + 1);
+                frequencies.remove(i + 1);
+            }
+        }
+
+        return new Snapshot(values, frequencies, min.getThenReset(), max.getThenReset(), sum.sumThenReset());
+    }
+
+    static final class Snapshot {
+        private final List<Long> values;
+        private final List<Long> counts;
+        private final long min;
+        private final long max;
+        private final long sum;
+
+        private Snapshot(List<Long> values, List<Long> counts, long min, long max, long sum) {
+            this.values = values;
+            this.counts = counts;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+
+        List<Long> getValues() {
+            return values;
+        }
+
+        List<Long> getCounts() {
+            return counts;
+        }
+
+        long getMin() {
+            return min;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        long getSum() {
+            return sum;
+        }
+
+        long getCount() {
+            return counts.stream().mapToLong(Long::longValue).sum();
+        }
+
+        boolean isEmpty() {
+            return values.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Source;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.amazonaws.services.s3.AmazonS3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replicates a bucket, or one range of its keys, within one task, without Kinesis, KCL or DynamoDB. The scan feeds a
+ * bounded queue which the copy workers take from directly, so the scan waits whenever the copies fall behind. On a
+ * non-blocking engine, a single worker starts the copies and bounds those in flight by {@value #IN_FLIGHT} permits.
+ * <p>
+ * The progress is the {@link ReplicationLedger}, saved to the workspace bucket or to local files. A restarted task
+ * scans again and skips the objects already copied.
+ */
+@Singleton
+class LocalReplication {
+    static final int QUEUE_CAPACITY = 10_000;
+    static final int WORKERS = 64;
+    static final int IN_FLIGHT = 1024;
+
+    private static final S3Object POISON = ImmutableS3Object.builder()
+            .key(S3Object.COMPLETED_KEY)
+            .size(S3Object.COMPLETED_SIZE)
+            .build();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonS3 sourceS3;
+    private final TransferEngine engine;
+    private final ReplicationLedger ledger;
+    private final ReplicateBucket.Request request;
+    private final BlockingQueue<S3Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Inject
+    LocalReplication(@Source AmazonS3 sourceS3,
+                     TransferEngine engine,
+                     ReplicationLedger ledger,
+                     @Nullable ReplicateBucket.Request request,
+                     ReplicationMetrics metrics) {
+        this.sourceS3 = sourceS3;
+        this.engine = engine;
+        this.ledger = ledger;
+        this.request = request;
+        metrics.gauge("QueueDepth/local", queue::size);
+    }
+
+    /**
+     * @return the number of objects failed to copy, or copied with a checksum mismatch.
+     */
+    long run() {
+        final var count = engine.isNonBlocking() ? 1 : WORKERS;
+        final var executor = Executors.newFixedThreadPool(count, runnable -> {
+            final var thread = new Thread(runnable, "local-copy");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final var workers = new ArrayList<Future<?>>(count);
+        for (int i = 0; i < count; i++) {
+            workers.add(executor.submit(engine.isNonBlocking() ? this::workAsync : this::work));
+        }
+
+        try {
+            final var state = request.getRange() == null ? new ScanState() : ScanState.of(request.getRange());
+            new BucketScanner(sourceS3).scan(request.getSource().getName(), state, Long.MAX_VALUE, page -> {
+                for (var o : page) {
+                    put(ImmutableS3Object.builder().key(o.getKey()).size(o.getSize()).etag(o.getETag()).build());
+                }
+            });
+            log.info("Scanned {} objects{}, wait for the copies to finish", state.getCount(),
+                    request.getRange() == null ? "" : " of range " + request.getRange());
+        } finally {
+            for (int i = 0; i < count; i++) {
+                put(POISON);
+            }
+        }
+
+        try {
+            for (var worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while copying", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to copy", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info("Replicated [{}] to [{}], {} skipped as copied, {} failed",
+                request.getSource().getName(), request.getTarget().getName(), skipped.sum(), failed.sum());
+        return failed.sum();
+    }
+
+    private void put(S3Object object) {
+        if (object != POISON && !ledger.isCopied(object)) {
+            engine.prefetch(object);
+        }
+        try {
+            queue.put(object);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing [" + object.getKey() + "]", e);
+        }
+    }
+
+    private void work() {
+        try {
+            for (var object = queue.take(); object != POISON; object = queue.take()) {
+                copy(object);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void workAsync() {
+        final var permits = new Semaphore(IN_FLIGHT);
+        try {
+            for (var object = queue.take(); object != POISON; object = queue.take()) {
+                if (ledger.isCopied(object)) {
+                    skipped.increment();
+                    engine.forget(object);
+                    continue;
+                }
+
+                permits.acquire();
+                final var key = object;
+                engine.copyAsync(object).whenComplete((status, e) -> {
+                    if (e == null) {
+                        record(key, status);
+                    } else {
+                        log.error("Unable to copy [" + key.getKey() + "]", e);
+                        record(key, ReplicationLedger.Status.FAILED);
+                    }
+                    permits.release();
+                });
+            }
+            permits.acquire(IN_FLIGHT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void copy(S3Object object) {
+        if (ledger.isCopied(object)) {
+            skipped.increment();
+            engine.forget(object);
+            return;
+        }
+
+        record(object, engine.copy(object));
+    }
+
+    private void record(S3Object object, ReplicationLedger.Status status) {
+        ledger.record(object, status);
+        if (status == ReplicationLedger.Status.FAILED || status == ReplicationLedger.Status.MISMATCH) {
+            failed.increment();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.BoolHandler;
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import com.amazonaws.services.lambda.runtime.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Merges the ledgers of the key ranges, once every range task has finished, into the ledger of the bucket. The next
+ * replication of the bucket, ranged or not, then skips every object copied by any range.
+ */
+public class MergeRanges implements BoolHandler<MergeRanges.Request> {
+
+    /**
+     * @return {@code true} if the objects failed to copy, by any range, are within the {@link FailurePolicy}. An object
+     * skipped on purpose, such as one beyond the maximum size, is not a failure.
+     */
+    @Override
+    public boolean handleRequest(Request request, Context context) {
+        final var replicate = new ReplicateBucket.Request();
+        replicate.setSource(request.getSource());
+        replicate.setTarget(request.getTarget());
+        replicate.setWorkspace(request.getWorkspace());
+        return S3Component.build(request.getProjectId(),
+                request.getSource().getRegion(),
+                request.getTarget().getRegion(),
+                null,
+                replicate)
+                .mergeRanges()
+                .merge(request.getRanges());
+    }
+
+    static class Request {
+        private Resource source;
+        private Resource target;
+        private Resource workspace;
+        private String projectId;
+        private List<KeyRange> ranges;
+
+        public Resource getSource() {
+            return source;
+        }
+
+        public void setSource(Resource source) {
+            this.source = source;
+        }
+
+        public Resource getTarget() {
+            return target;
+        }
+
+        public void setTarget(Resource target) {
+            this.target = target;
+        }
+
+        public Resource getWorkspace() {
+            return workspace;
+        }
+
+        public void setWorkspace(Resource workspace) {
+            this.workspace = workspace;
+        }
+
+        public String getProjectId() {
+            return projectId;
+        }
+
+        public void setProjectId(String projectId) {
+            this.projectId = projectId;
+        }
+
+        /**
+         * @return the ranges as split by {@link SplitBucket}.
+         */
+        public List<KeyRange> getRanges() {
+            return ranges;
+        }
+
+        public void setRanges(List<KeyRange> ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    @Singleton
+    static class Worker {
+        private final Logger log = LoggerFactory.getLogger(getClass());
+        private final ReplicateBucket.Request request;
+        private final ReplicationLedger ledger;
+        private final StateStore store;
+        private final FailurePolicy policy;
+
+        @Inject
+        Worker(@Nullable ReplicateBucket.Request request,
+               ReplicationLedger ledger,
+               StateStore store,
+               FailurePolicy policy) {
+            this.request = request;
+            this.ledger = ledger;
+            this.store = store;
+            this.policy = policy;
+        }
+
+        boolean merge(List<KeyRange> ranges) {
+            final var counts = new EnumMap<ReplicationLedger.Status, Long>(ReplicationLedger.Status.class);
+            for (var range : ranges) {
+                final var name = S3Module.ledgerName(request, range);
+                final var part = new ReplicationLedger(store, name);
+                part.count().forEach((status, count) -> counts.merge(status, count, Long::sum));
+                ledger.merge(part);
+                part.close();
+            }
+
+            try {
+                ledger.save();
+                for (var range : ranges) {
+                    ledger.delete(S3Module.ledgerName(request, range));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to save the merged ledger", e);
+            }
+
+            log.info("Merged {} ranges of [{}] to [{}]: {}",
+                    ranges.size(), request.getSource().getName(), request.getTarget().getName(), counts);
+
+            final var total = counts.values().stream().mapToLong(Long::longValue).sum();
+            final var failed = counts.getOrDefault(ReplicationLedger.Status.FAILED, 0L)
+                    + counts.getOrDefault(ReplicationLedger.Status.MISMATCH, 0L);
+            if (!policy.accepts(failed, total)) {
+                log.error("{} of {} objects failed to copy, beyond {}", failed, total, policy);
+                return false;
+            }
+            if (failed > 0) {
+                log.warn("Tolerate {} of {} objects failed, by {}", failed, total, policy);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Source;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fetches the metadata, tags and ACL of the source objects concurrently and ahead of their data, so that a faithful
+ * copy adds no round trip to the critical path. The attributes are kept until the copy of the object is done.
+ * <p>
+ * The tags are fetched only if the metadata counts some, as most objects have none; the listing does not tell. Without
+ * {@code HEAD}, they are fetched once the response of {@code GET} counts them, while its data is read.
+ * <p>
+ * Prefetching is a hint bounded by {@value #MAX_AHEAD} objects; an object beyond it has its attributes fetched when
+ * copied, still concurrently with one another.
+ */
+@Singleton
+class MetadataPrefetcher {
+    private static final int MAX_AHEAD = 1024;
+    private static final int THREADS = 32;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonS3 sourceS3;
+    private final ReplicateBucket.Request request;
+    private final RetryPolicy retry;
+    private final Map<String, CompletableFuture<Attributes>> attributes = new ConcurrentHashMap<>();
+    private final AtomicBoolean tagsDenied = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+        final var thread = new Thread(runnable, "metadata-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    MetadataPrefetcher(@Source AmazonS3 sourceS3,
+                       @Nullable ReplicateBucket.Request request,
+                       RetryPolicy retry) {
+        this.sourceS3 = sourceS3;
+        this.request = request;
+        this.retry = retry;
+    }
+
+    /**
+     * @param head to fetch the metadata by {@code HEAD}, if not returned with the data.
+     * @param acl  to fetch the ACL, only meaningful within the same partition.
+     */
+    void prefetch(S3Object object, boolean head, boolean acl) {
+        if ((head || acl) && attributes.size() < MAX_AHEAD) {
+            attributes.computeIfAbsent(object.getKey(), key -> fetch(key, head, acl));
+        }
+    }
+
+    /**
+     * @return the attributes prefetched, or fetched now if not; the tags are known only with the metadata.
+     */
+    Attributes get(S3Object object, boolean head, boolean acl) {
+        try {
+            return join(attributes.computeIfAbsent(object.getKey(), key -> fetch(key, head, acl)));
+        } catch (RuntimeException e) {
+            evict(object);
+            throw e;
+        }
+    }
+
+    void evict(S3Object object) {
+        attributes.remove(object.getKey());
+    }
+
+    /**
+     * @param metadata returned with the data of the object, which counts its tags.
+     * @return the tags of the object, fetched in the background if it has any, to {@link #join} once its data is read.
+     */
+    CompletableFuture<List<Tag>> tags(S3Object object, ObjectMetadata metadata) {
+        return !hasTags(metadata) ? CompletableFuture.completedFuture(List.of())
+                : CompletableFuture.supplyAsync(() -> tags(request.getSource().getName(), object.getKey()), executor);
+    }
+
+    /**
+     * @return the result of the future, throwing the exception it failed with as is if unchecked.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private CompletableFuture<Attributes> fetch(String key, boolean head, boolean acl) {
+        final var bucket = request.getSource().getName();
+        final var metadata = !head ? CompletableFuture.<ObjectMetadata>completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> retry.call("head " + key, () ->
+                sourceS3.getObjectMetadata(bucket, key)), executor);
+        final var tags = metadata.thenApplyAsync(m -> m == null ? null : tags(m, bucket, key), executor);
+        final var grants = !acl ? CompletableFuture.<AccessControlList>completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> retry.call("acl " + key, () ->
+                sourceS3.getObjectAcl(bucket, key)), executor);
+        return CompletableFuture.allOf(metadata, tags, grants)
+                .thenApply(v -> new Attributes(metadata.join(), tags.join(), grants.join()));
+    }
+
+    private List<Tag> tags(ObjectMetadata metadata, String bucket, String key) {
+        return hasTags(metadata) ? tags(bucket, key) : List.of();
+    }
+
+    /**
+     * @return whether the object has tags, as counted by S3 in the metadata of {@code HEAD} and {@code GET}.
+     */
+    private static boolean hasTags(ObjectMetadata metadata) {
+        final var count = metadata.getRawMetadataValue(Headers.S3_TAGGING_COUNT);
+        return count != null && !"0".equals(count.toString().trim());
+    }
+
+    /**
+     * @return the tags, or none if not allowed to read them, which is warned once rather than failing every copy.
+     */
+    private List<Tag> tags(String bucket, String key) {
+        if (tagsDenied.get()) {
+            return List.of();
+        }
+
+        try {
+            return retry.call("tags " + key, () ->
+                    sourceS3.getObjectTagging(new GetObjectTaggingRequest(bucket, key)).getTagSet());
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 403) {
+                throw e;
+            }
+            if (tagsDenied.compareAndSet(false, true)) {
+                log.warn("Copy objects without tags, as not allowed to read the tags of bucket [" + bucket + "]", e);
+            }
+            return List.of();
+        }
+    }
+
+    static final class Attributes {
+        private final ObjectMetadata metadata;
+        private final List<Tag> tags;
+        private final AccessControlList acl;
+
+        private Attributes(ObjectMetadata metadata, List<Tag> tags, AccessControlList acl) {
+            this.metadata = metadata;
+            this.tags = tags;
+            this.acl = acl;
+        }
+
+        /**
+         * @return the metadata by {@code HEAD}, or {@code null} if not fetched.
+         */
+        ObjectMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return the tags, or {@code null} if not fetched, as they are counted by the metadata.
+         */
+        List<Tag> getTags() {
+            return tags;
+        }
+
+        /**
+         * @return the ACL, or {@code null} if not fetched.
+         */
+        AccessControlList getAcl() {
+            return acl;
+        }
+    }
+}
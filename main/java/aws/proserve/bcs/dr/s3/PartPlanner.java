@@ -0,0 +1,115 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans the part size and parallelism of a multipart copy.
+ * <p>
+ * A part should take a few seconds at the throughput measured recently, which means larger parts for fast paths and
+ * fewer requests overall. A mid-size object is still split into enough parts to keep every stream busy, and a huge
+ * object into few enough parts for the limit of 10,000 parts, up to the maximum of 5 TB.
+ * <p>
+ * A part never takes more than the memory of the object, as it is buffered whole; a part size above the memory is only
+ * taken if the limit of parts requires it, in which case the object cannot be copied and the plan fails.
+ */
+class PartPlanner {
+    static final long ONE_MB = 1024 * 1024;
+    static final long MIN_PART_SIZE = 8 * ONE_MB;
+    static final long MIN_UPLOAD_PART_SIZE = 5 * ONE_MB;
+    static final long MAX_PART_SIZE = 1024 * ONE_MB;
+    static final long MAX_OBJECT_SIZE = 5L * 1024 * 1024 * ONE_MB;
+    static final int MAX_PARTS = 10_000;
+
+    private static final long DEFAULT_PART_SIZE = 16 * ONE_MB;
+    private static final double TARGET_PART_SECONDS = 4;
+    private static final double SMOOTHING = 0.2;
+
+    private final long memory;
+    private final int maxParallelism;
+    private volatile double throughput;
+
+    /**
+     * @param memory the bytes of buffers one object may hold in flight.
+     */
+    PartPlanner(long memory, int maxParallelism) {
+        this.memory = memory;
+        this.maxParallelism = maxParallelism;
+    }
+
+    /**
+     * Records the time taken by one part, into an exponentially weighted average of the throughput per part.
+     */
+    void record(long bytes, long nanos) {
+        final var sample = bytes / Math.max(1e-3, nanos / (double) TimeUnit.SECONDS.toNanos(1));
+        final var current = throughput;
+        throughput = current == 0 ? sample : current + SMOOTHING * (sample - current);
+    }
+
+    Plan plan(long length) {
+        return plan(length, 0);
+    }
+
+    /**
+     * @param sourcePartSize the part size of the source object, kept if valid so that the ETag of the copy is the same
+     *                       as the source, or {@code 0} to plan freely.
+     * @throws IllegalStateException if the parts of the fewest bytes for the limit of parts exceed the memory.
+     */
+    Plan plan(long length, long sourcePartSize) {
+        final var limit = Math.min(MAX_PART_SIZE, memory);
+        if (sourcePartSize >= MIN_UPLOAD_PART_SIZE && sourcePartSize <= limit
+                && (length + sourcePartSize - 1) / sourcePartSize <= MAX_PARTS) {
+            return of(sourcePartSize, (int) ((length + sourcePartSize - 1) / sourcePartSize));
+        }
+
+        final var least = Math.max(MIN_UPLOAD_PART_SIZE, (length + MAX_PARTS - 1) / MAX_PARTS);
+        if (least > limit) {
+            throw new IllegalStateException(String.format("Unable to copy %d bytes in parts of at most %d bytes",
+                    length, limit));
+        }
+
+        var size = throughput == 0 ? DEFAULT_PART_SIZE : (long) (throughput * TARGET_PART_SECONDS);
+        size = Math.min(size, length / maxParallelism);
+        size = Math.max(size, MIN_PART_SIZE);
+        size = Math.max(size, least);
+        size = Math.max(least, Math.min(limit, (size + ONE_MB - 1) / ONE_MB * ONE_MB));
+
+        return of(size, (int) ((length + size - 1) / size));
+    }
+
+    private Plan of(long size, int parts) {
+        final var parallelism = (int) Math.max(1, Math.min(Math.min(maxParallelism, memory / size), parts));
+        return new Plan(size, parts, parallelism);
+    }
+
+    static final class Plan {
+        private final long partSize;
+        private final int parts;
+        private final int parallelism;
+
+        private Plan(long partSize, int parts, int parallelism) {
+            this.partSize = partSize;
+            this.parts = parts;
+            this.parallelism = parallelism;
+        }
+
+        long getPartSize() {
+            return partSize;
+        }
+
+        int getParts() {
+            return parts;
+        }
+
+        int getParallelism() {
+            return parallelism;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d parts of %d MB, %d in parallel", parts, partSize / ONE_MB, parallelism);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs many objects into one Kinesis record, in a versioned binary format: the magic byte, the version, the number of
+ * objects, then for each object the key, the size plus one (so that the completion marker is zero) and the ETag.
+ * <p>
+ * A record of JSON from earlier versions is still accepted, it always starts with {@code '{'}.
+ */
+final class RecordCodec {
+    static final byte MAGIC = (byte) 0xD5;
+    static final byte VERSION = 1;
+
+    /**
+     * Just under one PUT payload unit of Kinesis.
+     */
+    static final int MAX_RECORD_BYTES = 24 * 1024;
+
+    private RecordCodec() {
+    }
+
+    static List<ByteBuffer> encode(List<S3Object> objects) {
+        final var records = new ArrayList<ByteBuffer>();
+        var buffer = ByteBuffer.allocate(MAX_RECORD_BYTES);
+        var count = 0;
+        var countPosition = begin(buffer);
+
+        for (var object : objects) {
+            final var key = object.getKey().getBytes(StandardCharsets.UTF_8);
+            // keys take at most 1024 bytes, so one object always fits in an empty record.
+            final var size = key.length + BinaryCodec.etagSize(object.getEtag()) + 20;
+            if (count > 0 && buffer.remaining() < size) {
+                records.add(finish(buffer, countPosition, count));
+                buffer = ByteBuffer.allocate(MAX_RECORD_BYTES);
+                count = 0;
+                countPosition = begin(buffer);
+            }
+
+            BinaryCodec.putVarint(buffer, key.length);
+            buffer.put(key);
+            BinaryCodec.putVarint(buffer, object.getSize() + 1);
+            BinaryCodec.putEtag(buffer, object.getEtag());
+            count++;
+        }
+
+        if (count > 0) {
+            records.add(finish(buffer, countPosition, count));
+        }
+        return records;
+    }
+
+    /**
+     * Reads the objects from the record in place, without a string of the whole record.
+     */
+    static List<S3Object> decode(ByteBuffer data, ObjectMapper mapper) throws IOException {
+        final var buffer = data.duplicate();
+        if (!buffer.hasRemaining() || buffer.get(buffer.position()) != MAGIC) {
+            return List.of(decodeJson(buffer, mapper));
+        }
+
+        buffer.get();
+        final var version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported record version " + version);
+        }
+
+        final var count = buffer.getInt();
+        final var objects = new ArrayList<S3Object>(count);
+        for (int i = 0; i < count; i++) {
+            final var key = BinaryCodec.getString(buffer, (int) BinaryCodec.getVarint(buffer));
+            final var size = BinaryCodec.getVarint(buffer) - 1;
+            objects.add(ImmutableS3Object.builder()
+                    .key(key)
+                    .size(size)
+                    .etag(BinaryCodec.getEtag(buffer))
+                    .build());
+        }
+        return objects;
+    }
+
+    private static S3Object decodeJson(ByteBuffer buffer, ObjectMapper mapper) throws IOException {
+        if (buffer.hasArray()) {
+            return mapper.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                    S3Object.class);
+        }
+
+        final var bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return mapper.readValue(bytes, S3Object.class);
+    }
+
+    private static int begin(ByteBuffer buffer) {
+        buffer.put(MAGIC).put(VERSION);
+        final var position = buffer.position();
+        buffer.putInt(0);
+        return position;
+    }
+
+    private static ByteBuffer finish(ByteBuffer buffer, int countPosition, int count) {
+        buffer.putInt(countPosition, count);
+        return buffer.flip();
+    }
+}
@@ -3,7 +3,6 @@
 
 package aws.proserve.bcs.dr.s3;
 
-import aws.proserve.bcs.dr.lambda.util.Assure;
 import aws.proserve.bcs.dr.s3.dto.S3Object;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.InvalidStateException;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
@@ -23,46 +22,68 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.charset.CharsetDecoder;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Do not declare singleton here as one separate record processor for one shard. Manage the lifecycle of record
  * processor separately.
+ * <p>
+ * Records are copied concurrently in the lanes of their size, so one big object does not hold up the small objects
+ * behind it. The checkpoint only advances to the last record below which every record has finished, which keeps
+ * at-least-once semantics after a fail over. On a non-blocking engine, the copies in flight are bounded by the permits
+ * of the lanes rather than their threads.
+ * <p>
+ * A record packs many objects, so the objects taken from the records, prefetched and queued in the lanes, rather than
+ * the records, are bounded by {@value #MAX_IN_FLIGHT}.
  */
 class RecordProcessor implements IRecordProcessor {
     private static final int RETRY = 10;
-    private static final int BACKOFF_TIME_SECONDS = 3;
     private static final long CHECKPOINT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final int MAX_IN_FLIGHT = 1024;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
     private final ObjectMapper mapper = new ObjectMapper();
 
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final SequenceWatermark<Record> watermark = new SequenceWatermark<>();
+
     private String shardId;
     private long nextCheckpointTimeInMillis;
+    private Record checkpointed;
 
     private final AmazonS3 sourceS3;
     private final AmazonS3 targetS3;
-    private final ReplicateFile replicateFile;
+    private final TransferEngine engine;
+    private final TransferLanes lanes;
+    private final ReplicationLedger ledger;
     private final AWSStepFunctions stepFunctions;
     private final String taskToken;
     private final Runnable shutdown;
+    private final ReplicationMetrics metrics;
 
     RecordProcessor(
             AmazonS3 sourceS3,
             AmazonS3 targetS3,
-            ReplicateFile replicateFile,
+            TransferEngine engine,
+            TransferLanes lanes,
+            ReplicationLedger ledger,
             AWSStepFunctions stepFunctions,
             String taskToken,
+            ReplicationMetrics metrics,
             Runnable shutdown) {
         this.sourceS3 = sourceS3;
         this.targetS3 = targetS3;
-        this.replicateFile = replicateFile;
+        this.engine = engine;
+        this.lanes = lanes;
+        this.ledger = ledger;
         this.stepFunctions = stepFunctions;
         this.taskToken = taskToken;
         this.shutdown = shutdown;
+        this.metrics = metrics;
     }
 
     @Override
@@ -74,54 +95,124 @@ class RecordProcessor implements IRecordProcessor {
     @Override
     public void processRecords(ProcessRecordsInput input) {
         final var records = input.getRecords();
+        if (input.getMillisBehindLatest() != null) {
+            metrics.lag(shardId, input.getMillisBehindLatest());
+        }
 
-        log.info("Shard [{}]: processes {} records", shardId, records.size());
+        log.info("Shard [{}]: processes {} records, {} in flight", shardId, records.size(), watermark.size());
         for (var record : records) {
-            Assure.assure(() -> process(record), RETRY, BACKOFF_TIME_SECONDS);
+            final var ticket = watermark.track(record);
+            process(record).whenComplete((v, e) -> {
+                if (e != null) {
+                    log.error(String.format("Shard [%s]: unable to process record [%s]",
+                            shardId, record.getSequenceNumber()), e);
+                }
+                watermark.complete(ticket);
+            });
         }
 
         if (System.currentTimeMillis() > nextCheckpointTimeInMillis) {
-            checkpoint(input.getCheckpointer());
+            final var record = watermark.get();
+            if (record != null && record != checkpointed) {
+                checkpoint(input.getCheckpointer(), record);
+                checkpointed = record;
+            }
             nextCheckpointTimeInMillis = System.currentTimeMillis() + CHECKPOINT_INTERVAL_MILLIS;
         }
     }
 
-    private void process(Record record) {
-        final S3Object s3Object;
-        String content = null;
+    /**
+     * Takes a permit for every object before it is prefetched and queued, released once the object is copied.
+     *
+     * @return completes when every object in the record is copied.
+     */
+    private CompletableFuture<Void> process(Record record) {
+        final List<S3Object> s3Objects;
         try {
-            content = decoder.decode(record.getData()).toString();
-            s3Object = mapper.readValue(content, S3Object.class);
+            s3Objects = RecordCodec.decode(record.getData(), mapper);
         } catch (Exception e) {
-            log.error(String.format("Shard [%s]: malformed data: [%s] with content: [%s]", shardId, record, content), e);
-            return;
+            log.error(String.format("Shard [%s]: malformed data: [%s]", shardId, record), e);
+            return CompletableFuture.completedFuture(null);
         }
 
-        if (s3Object.isCompleted()) {
-            log.info("Shard [{}]: shutdown gracefully", shardId);
-            shutdown.run();
+        final var futures = new ArrayList<CompletableFuture<Void>>(s3Objects.size());
+        for (var s3Object : s3Objects) {
+            if (s3Object.isCompleted()) {
+                log.info("Shard [{}]: shutdown gracefully", shardId);
+                shutdown.run();
+            } else {
+                inFlight.acquireUninterruptibly();
+                if (!ledger.isCopied(s3Object)) {
+                    engine.prefetch(s3Object);
+                }
+                final var future = engine.isNonBlocking()
+                        ? lanes.submitAsync(s3Object, () -> copyAsync(s3Object))
+                        : lanes.submit(s3Object, () -> copy(s3Object));
+                futures.add(future.whenComplete((v, e) -> inFlight.release()));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new));
+    }
+
+    private void copy(S3Object object) {
+        if (ledger.isCopied(object)) {
+            log.debug("Shard [{}]: skip {} as copied", shardId, object.getKey());
+            engine.forget(object);
             return;
         }
 
-        replicateFile.copy(s3Object);
+        ledger.record(object, engine.copy(object));
+    }
+
+    /**
+     * Copies on a non-blocking engine, which holds a permit of the lane but no thread while the copy is in flight.
+     */
+    private CompletableFuture<?> copyAsync(S3Object object) {
+        if (ledger.isCopied(object)) {
+            log.debug("Shard [{}]: skip {} as copied", shardId, object.getKey());
+            engine.forget(object);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return engine.copyAsync(object).thenAccept(status -> ledger.record(object, status));
     }
 
     @Override
     public void shutdown(ShutdownInput input) {
-        log.info("Shard [{}]: shutdown", shardId);
+        log.info("Shard [{}]: shutdown with {} records in flight", shardId, watermark.size());
+        metrics.removeShard(shardId);
+
+        // for copying very big files
+        try {
+            if (inFlight.tryAcquire(MAX_IN_FLIGHT, 1, TimeUnit.DAYS)) {
+                inFlight.release(MAX_IN_FLIGHT);
+            }
+        } catch (InterruptedException e) {
+            log.warn("Shard [{}]: interrupted while waiting for records in flight", shardId);
+            Thread.currentThread().interrupt();
+        }
 
         // Important to checkpoint after reaching end of shard, so we can start processing data from child shards.
         if (input.getShutdownReason() == ShutdownReason.TERMINATE) {
-            checkpoint(input.getCheckpointer());
+            checkpoint(input.getCheckpointer(), null);
+        } else if (input.getShutdownReason() == ShutdownReason.REQUESTED && watermark.get() != null) {
+            checkpoint(input.getCheckpointer(), watermark.get());
         }
     }
 
-    private void checkpoint(IRecordProcessorCheckpointer checkpointer) {
-        log.info("Shard [{}]: checkpoint", shardId);
+    /**
+     * @param record the last record to checkpoint at, or {@code null} to checkpoint at the last record received.
+     */
+    private void checkpoint(IRecordProcessorCheckpointer checkpointer, Record record) {
+        log.info("Shard [{}]: checkpoint at {}", shardId, record == null ? "end" : record.getSequenceNumber());
 
         for (int i = 0; i < RETRY; i++) {
             try {
-                checkpointer.checkpoint();
+                if (record == null) {
+                    checkpointer.checkpoint();
+                } else {
+                    checkpointer.checkpoint(record);
+                }
 
                 if (taskToken != null) {
                     stepFunctions.sendTaskHeartbeat(new SendTaskHeartbeatRequest()
@@ -153,9 +244,11 @@ class RecordProcessor implements IRecordProcessor {
             }
 
             try {
-                Thread.sleep(BACKOFF_TIME_SECONDS);
+                Thread.sleep(RetryPolicy.backoffMillis(RetryPolicy.ErrorClass.THROTTLING, i + 1));
             } catch (InterruptedException e) {
                 log.debug("Interrupted sleep", e);
+                Thread.currentThread().interrupt();
+                break;
             }
         }
     }
@@ -28,9 +28,12 @@ class RecordProcessorFactory implements IRecordProcessorFactory {
 
     private final AmazonS3 sourceS3;
     private final AmazonS3 targetS3;
-    private final ReplicateFile replicateFile;
+    private final TransferEngine engine;
+    private final TransferLanes lanes;
+    private final ReplicationLedger ledger;
     private final AWSStepFunctions stepFunctions;
     private final String taskToken;
+    private final ReplicationMetrics metrics;
 
     private Worker worker;
 
@@ -38,14 +41,20 @@ class RecordProcessorFactory implements IRecordProcessorFactory {
     RecordProcessorFactory(
             @Source AmazonS3 sourceS3,
             @Target AmazonS3 targetS3,
-            @Nullable ReplicateFile replicateFile,
+            TransferEngine engine,
+            TransferLanes lanes,
+            ReplicationLedger ledger,
             @Default AWSStepFunctions stepFunctions,
-            @Nullable @TaskToken String taskToken) {
+            @Nullable @TaskToken String taskToken,
+            ReplicationMetrics metrics) {
         this.sourceS3 = sourceS3;
         this.targetS3 = targetS3;
-        this.replicateFile = replicateFile;
+        this.engine = engine;
+        this.lanes = lanes;
+        this.ledger = ledger;
         this.stepFunctions = stepFunctions;
         this.taskToken = taskToken;
+        this.metrics = metrics;
     }
 
     void setWorker(Worker worker) {
@@ -54,7 +63,8 @@ class RecordProcessorFactory implements IRecordProcessorFactory {
 
     @Override
     public IRecordProcessor createProcessor() {
-        return new RecordProcessor(sourceS3, targetS3, replicateFile, stepFunctions, taskToken, shutdown());
+        return new RecordProcessor(sourceS3, targetS3, engine, lanes, ledger, stepFunctions, taskToken,
+                metrics, shutdown());
     }
 
     /**
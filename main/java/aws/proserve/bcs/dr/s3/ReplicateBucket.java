@@ -6,12 +6,17 @@ package aws.proserve.bcs.dr.s3;
 import aws.proserve.bcs.dr.lambda.VoidHandler;
 import aws.proserve.bcs.dr.lambda.dto.Resource;
 import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.stepfunctions.model.SendTaskFailureRequest;
 import com.amazonaws.services.stepfunctions.model.SendTaskSuccessRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.security.Security;
 import java.util.Objects;
 
 public class ReplicateBucket implements VoidHandler<ReplicateBucket.Request> {
+    private static final Logger log = LoggerFactory.getLogger(ReplicateBucket.class);
 
     /**
      * @apiNote entry point for fargate.
@@ -26,18 +31,33 @@ public class ReplicateBucket implements VoidHandler<ReplicateBucket.Request> {
         final var source = new Resource();
         final var target = new Resource();
         final var stream = new Resource();
+        final var range = System.getenv("range_index") == null ? null
+                : new KeyRange(Integer.parseInt(System.getenv("range_index")),
+                System.getenv("start_after"), System.getenv("end_at"));
+        final var local = range != null || Boolean.parseBoolean(System.getenv("local_queue"));
 
         source.setName(env("source_bucket"));
         source.setRegion(env("source_region"));
         target.setName(env("target_bucket"));
         target.setRegion(env("target_region"));
-        stream.setName(env("stream_name"));
-        stream.setRegion(env("stream_region"));
-        request.setTaskToken(env("task_token"));
+        request.setTaskToken(local ? System.getenv("task_token") : env("task_token"));
+        request.setLocal(local);
+        request.setRange(range);
+        if (!local) {
+            stream.setName(env("stream_name"));
+            stream.setRegion(env("stream_region"));
+            request.setStream(stream);
+        }
+
+        if (System.getenv("workspace_bucket") != null) {
+            final var workspace = new Resource();
+            workspace.setName(System.getenv("workspace_bucket"));
+            workspace.setRegion(env("target_region"));
+            request.setWorkspace(workspace);
+        }
 
         request.setSource(source);
         request.setTarget(target);
-        request.setStream(stream);
         request.setProjectId(System.getenv("project_id"));
         return request;
     }
@@ -51,24 +71,67 @@ public class ReplicateBucket implements VoidHandler<ReplicateBucket.Request> {
         // Ensure the JVM will refresh the cached IP values of AWS resources (e.g. service endpoints).
         Security.setProperty("networkaddress.cache.ttl", "60");
 
+        final var local = request.isLocal() || request.getRange() != null;
         final var component = S3Component.build(
                 request.getProjectId(),
                 request.getSource().getRegion(),
                 request.getTarget().getRegion(),
-                request.getStream().getName(),
+                local ? null : request.getStream().getName(),
                 request);
-        component.replicateWorker().run();
-        component.stepFunctions().sendTaskSuccess(new SendTaskSuccessRequest()
+        component.uploadSweeper().start();
+        if (local) {
+            component.localReplication().run();
+        } else {
+            component.streamScaler().start();
+            component.replicateWorker().run();
+            component.streamScaler().stop();
+        }
+        component.uploadSweeper().stop();
+        final var failed = component.retryPass().run();
+        try {
+            component.ledger().save();
+            component.uploadJournal().save();
+            component.deadLetters().save();
+        } catch (IOException e) {
+            log.warn("Unable to save the state of replication", e);
+        }
+        component.metrics().flush();
+
+        final var total = component.ledger().countThisRun().values().stream().mapToLong(Long::longValue).sum();
+        final var policy = component.failurePolicy();
+        if (policy.accepts(failed, total)) {
+            if (failed > 0) {
+                log.warn("Tolerate {} of {} objects failed, by {}", failed, total, policy);
+            }
+            if (request.getTaskToken() != null) {
+                component.stepFunctions().sendTaskSuccess(new SendTaskSuccessRequest()
+                        .withTaskToken(request.getTaskToken())
+                        .withOutput("{}"));
+            }
+            return;
+        }
+
+        final var cause = String.format("%d of %d objects failed to copy from [%s] to [%s], beyond %s.",
+                failed, total, request.getSource().getName(), request.getTarget().getName(), policy);
+        if (request.getTaskToken() == null) {
+            throw new IllegalStateException(cause);
+        }
+        log.error(cause);
+        component.stepFunctions().sendTaskFailure(new SendTaskFailureRequest()
                 .withTaskToken(request.getTaskToken())
-                .withOutput("{}"));
+                .withError("FailedObjects")
+                .withCause(cause));
     }
 
     static class Request {
         private Resource source;
         private Resource target;
         private Resource stream;
+        private Resource workspace;
         private String projectId;
         private String taskToken;
+        private boolean local;
+        private KeyRange range;
 
         public Resource getSource() {
             return source;
@@ -94,6 +157,17 @@ public class ReplicateBucket implements VoidHandler<ReplicateBucket.Request> {
             this.stream = stream;
         }
 
+        /**
+         * @return the bucket to keep the state of replication, in the target region, or {@code null} if absent.
+         */
+        public Resource getWorkspace() {
+            return workspace;
+        }
+
+        public void setWorkspace(Resource workspace) {
+            this.workspace = workspace;
+        }
+
         public String getProjectId() {
             return projectId;
         }
@@ -109,5 +183,28 @@ public class ReplicateBucket implements VoidHandler<ReplicateBucket.Request> {
         public void setTaskToken(String taskToken) {
             this.taskToken = taskToken;
         }
+
+        /**
+         * @return {@code true} to scan and copy within this task through an in-memory queue, without the stream.
+         */
+        public boolean isLocal() {
+            return local;
+        }
+
+        public void setLocal(boolean local) {
+            this.local = local;
+        }
+
+        /**
+         * @return the range of keys owned by this task, always copied within the task, or {@code null} for the
+         * whole bucket.
+         */
+        public KeyRange getRange() {
+            return range;
+        }
+
+        public void setRange(KeyRange range) {
+            this.range = range;
+        }
     }
 }
@@ -3,183 +3,698 @@
 
 package aws.proserve.bcs.dr.s3;
 
-import aws.proserve.bcs.dr.lambda.annotation.Default;
 import aws.proserve.bcs.dr.lambda.annotation.Source;
 import aws.proserve.bcs.dr.lambda.annotation.Target;
-import aws.proserve.bcs.dr.lambda.annotation.TaskToken;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
 import aws.proserve.bcs.dr.s3.dto.S3Object;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
-import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.ObjectTagging;
 import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.UploadPartRequest;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.stepfunctions.AWSStepFunctions;
-import com.amazonaws.services.stepfunctions.model.SendTaskFailureRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.io.File;
+import javax.inject.Singleton;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
-class ReplicateFile {
+@Singleton
+class ReplicateFile implements TransferEngine {
     private static final long ONE_KB = 1024;
     private static final long ONE_MB = 1024 * ONE_KB;
-    private static final long TEN_MB = 10 * ONE_MB;
     private static final long _100_MB = 100 * ONE_MB;
     private static final long ONE_GB = 1024 * ONE_MB;
-    private static final long ONE_TB = 1024 * ONE_GB;
+    private static final long COPY_PART_SIZE = 512 * ONE_MB;
+    private static final int MAX_PARTS = 10_000;
+    private static final int PART_PARALLELISM = 16;
+    /**
+     * As many as the transfers the limiter allows at most, so that the limiter rather than the pool sets the parts in
+     * flight, while each object has at most its window of parts submitted.
+     */
+    private static final int PART_THREADS = ConcurrencyLimiter.MAX_LIMIT;
+    private static final int READ_CHUNK = 256 * (int) ONE_KB;
+    private static final String CHECKSUM_CRC32C = "x-amz-checksum-crc32c";
+    private static final List<String> COPIED_HEADERS = List.of(Headers.CONTENT_TYPE, Headers.CONTENT_ENCODING,
+            Headers.CONTENT_DISPOSITION, Headers.CONTENT_LANGUAGE, Headers.CACHE_CONTROL, Headers.REDIRECT_LOCATION);
 
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private final String token;
     private final AmazonS3 sourceS3;
     private final AmazonS3 targetS3;
-    private final TransferManager sourceManager;
-    private final TransferManager targetManager;
-    private final AWSStepFunctions targetSteps;
     private final ReplicateBucket.Request request;
+    private final BandwidthGovernor governor;
+    private final RetryPolicy retry;
+    private final ConcurrencyLimiter limiter;
+    private final UploadJournal journal;
+    private final DeadLetters deadLetters;
+    private final MetadataPrefetcher prefetcher;
+    private final boolean copyAcl = Boolean.parseBoolean(System.getenv("copy_acl"));
+    private final ExecutorService partExecutor = Executors.newFixedThreadPool(PART_THREADS, runnable -> {
+        final var thread = new Thread(runnable, "part-copy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final BufferPool buffers;
+    private final PartPlanner planner;
+    private final ReplicationMetrics.Rate copiedObjects;
+    private final ReplicationMetrics.Rate copiedBytes;
+    private final LongAdder failedObjects;
+    private final LongAdder mismatchedObjects;
+    private final LatencyHistogram objectLatency;
+    private final LatencyHistogram partLatency;
 
     @Inject
-    ReplicateFile(@Nullable @TaskToken String token,
-                  @Source AmazonS3 sourceS3,
+    ReplicateFile(@Source AmazonS3 sourceS3,
                   @Target AmazonS3 targetS3,
-                  @Source TransferManager sourceManager,
-                  @Target TransferManager targetManager,
-                  @Default AWSStepFunctions targetSteps,
-                  @Nullable ReplicateBucket.Request request) {
-        this.token = token;
+                  @Nullable ReplicateBucket.Request request,
+                  ReplicationMetrics metrics,
+                  BandwidthGovernor governor,
+                  RetryPolicy retry,
+                  ConcurrencyLimiter limiter,
+                  BufferPool buffers,
+                  UploadJournal journal,
+                  DeadLetters deadLetters,
+                  MetadataPrefetcher prefetcher) {
         this.sourceS3 = sourceS3;
         this.targetS3 = targetS3;
-        this.sourceManager = sourceManager;
-        this.targetManager = targetManager;
-        this.targetSteps = targetSteps;
         this.request = request;
+        this.governor = governor;
+        this.retry = retry;
+        this.limiter = limiter;
+        this.buffers = buffers;
+        this.planner = new PartPlanner(buffers.getCapacity() / 2, PART_PARALLELISM);
+        this.journal = journal;
+        this.deadLetters = deadLetters;
+        this.prefetcher = prefetcher;
+        this.copiedObjects = metrics.rate("CopiedObjects", ReplicationMetrics.COUNT_PER_SECOND);
+        this.copiedBytes = metrics.rate("CopiedBytes", ReplicationMetrics.BYTES_PER_SECOND);
+        this.failedObjects = metrics.counter("FailedObjects");
+        this.mismatchedObjects = metrics.counter("MismatchedObjects");
+        this.objectLatency = metrics.histogram("ObjectLatency");
+        this.partLatency = metrics.histogram("PartLatency");
     }
 
-    void copy(S3Object object) {
-        copyX(object);
+    @Override
+    public Status copy(S3Object object) {
+        final var start = System.nanoTime();
+        Status status;
+        try {
+            prefetch(object);
+            status = isSamePartition() ? copyIn(object) : copyX(object);
+        } catch (RuntimeException e) {
+            status = fail(object, "copy", e);
+        } finally {
+            prefetcher.evict(object);
+        }
+        objectLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        if (status == Status.COPIED) {
+            deadLetters.remove(object.getKey());
+            copiedObjects.add(1);
+            copiedBytes.add(object.getSize());
+        } else if (status == Status.FAILED) {
+            failedObjects.increment();
+        } else if (status == Status.MISMATCH) {
+            mismatchedObjects.increment();
+        }
+        return status;
     }
 
     /**
-     * @apiNote In-partition copy could be done by {@code TransferManager::copy} directly.
+     * Starts fetching the attributes the copy of the object needs: the metadata unless returned with the data, as S3
+     * copies all but the storage class, the tags, and the ACL if asked by {@code copy_acl}, within the same partition
+     * only as the grantees of another partition differ.
      */
-    private void copyIn() {
-        throw new IllegalStateException("Use TransferManager instead");
+    @Override
+    public void prefetch(S3Object object) {
+        prefetcher.prefetch(object, needsHead(object), needsAcl());
+    }
+
+    @Override
+    public void forget(S3Object object) {
+        prefetcher.evict(object);
+    }
+
+    private MetadataPrefetcher.Attributes attributes(S3Object object) {
+        return prefetcher.get(object, needsHead(object), needsAcl());
+    }
+
+    private boolean needsHead(S3Object object) {
+        return isSamePartition() || object.getSize() >= _100_MB;
+    }
+
+    private boolean needsAcl() {
+        return copyAcl && isSamePartition();
+    }
+
+    private boolean isSamePartition() {
+        return partition(request.getSource().getRegion()).equals(partition(request.getTarget().getRegion()));
+    }
+
+    static String partition(String region) {
+        if (region == null) {
+            return "aws";
+        } else if (region.startsWith("cn-")) {
+            return "aws-cn";
+        } else if (region.startsWith("us-gov-")) {
+            return "aws-us-gov";
+        } else if (region.startsWith("us-isob-")) {
+            return "aws-iso-b";
+        } else if (region.startsWith("us-iso-")) {
+            return "aws-iso";
+        }
+        return "aws";
+    }
+
+    /**
+     * In-partition copy, done by S3 at server side so that no data flows through this task.
+     */
+    private Status copyIn(S3Object object) {
+        return object.getSize() < ONE_GB ? copyObjectIn(object) : copyByPartsIn(object);
+    }
+
+    private Status copyObjectIn(S3Object object) {
+        try {
+            final var attributes = attributes(object);
+            retry.call("copy " + object.getKey(), () -> limiter.call(object.getSize(), () ->
+                    targetS3.copyObject(new CopyObjectRequest(
+                            request.getSource().getName(), object.getKey(),
+                            request.getTarget().getName(), object.getKey())
+                            .withStorageClass(attributes.getMetadata().getStorageClass())
+                            .withAccessControlList(attributes.getAcl()))));
+            log.info("Transferred {} via copy", object.getKey());
+            return Status.COPIED;
+        } catch (AmazonS3Exception e) {
+            return fail(object, "copy", e);
+        }
+    }
+
+    /**
+     * Copies the ranges of the file concurrently by {@code UploadPartCopy}, at most {@value #PART_PARALLELISM} parts
+     * of the object in flight.
+     */
+    private Status copyByPartsIn(S3Object object) {
+        final var attributes = attributes(object);
+        final var length = attributes.getMetadata().getContentLength();
+        final var upload = initiate(object, attributes.getMetadata(), attributes);
+        final var partSize = Math.max(COPY_PART_SIZE, (length + MAX_PARTS - 1) / MAX_PARTS);
+
+        final var window = new Semaphore(PART_PARALLELISM);
+        final var failed = new AtomicBoolean();
+        final var futures = new ArrayList<Future<PartETag>>();
+        long position = 0;
+        for (int i = 1; position < length && !failed.get(); i++) {
+            final var part = i;
+            final var start = position;
+            final var end = Math.min(length, position + partSize) - 1;
+            window.acquireUninterruptibly();
+            futures.add(CompletableFuture
+                    .supplyAsync(() -> retry.call(describe(object, part), () ->
+                            limiter.call(end - start + 1, () -> targetS3.copyPart(
+                                    new CopyPartRequest()
+                                            .withSourceBucketName(request.getSource().getName())
+                                            .withSourceKey(object.getKey())
+                                            .withDestinationBucketName(request.getTarget().getName())
+                                            .withDestinationKey(object.getKey())
+                                            .withUploadId(upload.getUploadId())
+                                            .withPartNumber(part)
+                                            .withFirstByte(start)
+                                            .withLastByte(end))
+                                    .getPartETag())), partExecutor)
+                    .whenComplete((eTag, e) -> {
+                        failed.compareAndSet(false, e != null);
+                        window.release();
+                    }));
+            position = end + 1;
+        }
+
+        return complete(object, upload.getUploadId(), futures, "copy parts", null, null, 0);
     }
 
     /**
      * Cross-partition copy, by downloading followed by uploading.
      */
-    private void copyX(S3Object object) {
+    private Status copyX(S3Object object) {
         final long size = object.getSize();
         if (size < _100_MB) {
-            copyInMemoryX(object);
-        } else if (size < ONE_TB) {
-            copyByDiskX(object);
+            return copyInMemoryX(object);
+        } else if (size <= PartPlanner.MAX_OBJECT_SIZE) {
+            return copyByPartsX(object);
         } else {
-            log.warn("Skip file {} as it is larger than 1 TB.", object.getKey());
+            log.warn("Skip file {} as it is larger than 5 TB.", object.getKey());
+            return Status.SKIPPED;
         }
     }
 
-    private void copyInMemoryX(S3Object object) {
+    /**
+     * Reads the object into a pooled buffer, computing the checksums on the way, and uploads it with the checksum
+     * headers so that S3 rejects any corruption in transit.
+     * <p>
+     * The buffer is acquired before the slot of the {@link ConcurrencyLimiter}, as by the parts, so that a copy never
+     * holds a slot while waiting for memory held by copies waiting for a slot.
+     */
+    private Status copyInMemoryX(S3Object object) {
+        final byte[] buffer;
         try {
-            final var source = sourceS3.getObject(request.getSource().getName(), object.getKey());
-            targetS3.putObject(request.getTarget().getName(), object.getKey(),
-                    source.getObjectContent(), source.getObjectMetadata());
-            log.info("Transferred {} via memory", object.getKey());
+            buffer = buffers.acquire((int) object.getSize());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fail(object, "memory", e);
+        }
+
+        final Status status;
+        try {
+            status = retry.call("memory " + object.getKey(), () ->
+                    limiter.call(object.getSize(), () -> copyInMemoryOnce(object, buffer)));
         } catch (AmazonS3Exception e) {
-            final var cause = String.format("Unable to copy file [%s/%s] (%d) from [%s] to [%s] via memory.",
-                    request.getSource().getName(), object.getKey(), object.getSize(),
-                    request.getSource().getRegion(), request.getTarget().getRegion());
-            log.warn(cause, e);
-
-            if (token != null) {
-                targetSteps.sendTaskFailure(new SendTaskFailureRequest()
-                        .withTaskToken(token)
-                        .withError(e.getClass().getSimpleName())
-                        .withCause(cause + e.getMessage()));
+            return fail(object, "memory", e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
             }
+            return fail(object, "memory", e.getCause() == null ? e : e.getCause());
+        } finally {
+            buffers.release(buffer);
         }
+
+        if (status != null) {
+            return status;
+        }
+        log.info("Object {} changed in size since listed, copy it by parts instead", object.getKey());
+        prefetcher.evict(object);
+        return copyByPartsX(object);
     }
 
     /**
-     * Downloads file one chunk at a time and uses multi-upload to complete uploading.
+     * @param buffer the pooled buffer of the size listed.
+     * @return the status of the copy, or {@code null} if the object has changed in size since listed, and is no longer
+     * the size of the buffer.
      */
-    private void copyByDiskX(S3Object object) {
-        final var upload = targetS3.initiateMultipartUpload(
-                new InitiateMultipartUploadRequest(request.getTarget().getName(), object.getKey()));
-        final var length = sourceS3.getObjectMetadata(request.getSource().getName(), object.getKey())
-                .getContentLength();
+    @Nullable
+    private Status copyInMemoryOnce(S3Object object, byte[] buffer) throws IOException {
+        try (var source = sourceS3.getObject(request.getSource().getName(), object.getKey())) {
+            final var metadata = source.getObjectMetadata();
+            if (metadata.getContentLength() != object.getSize() || metadata.getContentLength() >= _100_MB) {
+                source.getObjectContent().abort();
+                return null;
+            }
+            final var length = (int) metadata.getContentLength();
+            final var tags = prefetcher.tags(object, metadata);
 
-        final File tmpFile;
-        try {
-            tmpFile = File.createTempFile(object.getKey(), ".tmp");
-        } catch (IOException e) {
-            throw new UncheckedIOException("Unable to create temporary file", e);
+            final var checksum = new TransferChecksum(1);
+            final var part = new TransferChecksum.Part();
+            try (var input = governor.read(source.getObjectContent())) {
+                read(object, 1, input, buffer, length, part);
+            }
+            checksum.complete(1, part);
+
+            final var sourceEtag = metadata.getETag();
+            final var sourceSse = metadata.getSSEAlgorithm();
+            final var target = targetMetadata(metadata);
+            target.setContentLength(length);
+            target.setContentMD5(Base64.getEncoder().encodeToString(checksum.digest(1)));
+            final var put = new PutObjectRequest(request.getTarget().getName(), object.getKey(),
+                    governor.write(new ByteArrayInputStream(buffer, 0, length)), target)
+                    .withStorageClass(metadata.getStorageClass());
+            final var tagSet = MetadataPrefetcher.join(tags);
+            if (!tagSet.isEmpty()) {
+                put.setTagging(new ObjectTagging(tagSet));
+            }
+            put.putCustomRequestHeader(CHECKSUM_CRC32C, checksum.crc32cBase64());
+            final var result = targetS3.putObject(put);
+            log.info("Transferred {} via memory", object.getKey());
+            return verify(object, checksum, sourceEtag, 0, sourceSse, result.getETag(), result.getSSEAlgorithm());
         }
+    }
 
-        final var eTags = new ArrayList<PartETag>();
-        var buffer = Math.max(TEN_MB, length / 1000);
+    /**
+     * Copies the ranges of the file concurrently and uses multi-upload to complete uploading. Every part is streamed
+     * through a pooled buffer, so the download of one part overlaps the upload of the others without the local disk.
+     * The part size and parallelism are planned from the object size and the recent throughput, the size taken by
+     * {@code HEAD} as the object may have changed since listed.
+     */
+    private Status copyByPartsX(S3Object object) {
+        final var attributes = prefetcher.get(object, true, needsAcl());
+        final var metadata = attributes.getMetadata();
+        final var length = metadata.getContentLength();
+        final var sourceEtag = metadata.getETag() == null ? null : TransferChecksum.unquote(metadata.getETag());
+        final var previous = resumable(object, sourceEtag, length);
+        final var sourcePartSize = sourcePartSize(object, metadata);
+        final var plan = planner.plan(length, previous == null ? sourcePartSize : previous.getPartSize());
+        final var checksum = new TransferChecksum(plan.getParts());
+        final var uploaded = previous == null || previous.getPartSize() != plan.getPartSize()
+                ? null
+                : reconcile(object, previous, plan, length, checksum);
+
+        final UploadJournal.Upload upload;
+        if (uploaded == null) {
+            if (previous != null) {
+                abort(object, previous.getUploadId());
+            }
+            final var result = initiate(object, metadata, attributes);
+            upload = journal.begin(object.getKey(), result.getUploadId(), sourceEtag, length, plan.getPartSize(),
+                    result.getSSEAlgorithm());
+        } else {
+            upload = previous;
+            journal.resume(upload);
+        }
+        log.info("Multipart [{}]: {}", object.getKey(), plan);
+
+        final var window = new Semaphore(plan.getParallelism());
+        final var failed = new AtomicBoolean();
+        final var futures = new ArrayList<Future<PartETag>>();
         long position = 0;
-        for (int i = 1; position < length; i++) {
-            try {
-                log.warn("Multipart [{}]: i {}, pos {}, buffer {}", object.getKey(), i, position, buffer);
-                final var download = sourceManager.download(
-                        new GetObjectRequest(request.getSource().getName(), object.getKey())
-                                .withRange(position, Math.min(length, position + buffer)),
-                        tmpFile);
-                download.waitForCompletion();
-
-                buffer = Math.min(buffer, length - position);
-                final var result = targetS3.uploadPart(
-                        new UploadPartRequest()
-                                .withPartNumber(i)
-                                .withUploadId(upload.getUploadId())
-                                .withBucketName(request.getTarget().getName())
-                                .withKey(object.getKey())
-                                .withFileOffset(0)
-                                .withFile(tmpFile)
-                                .withPartSize(buffer));
-
-                eTags.add(result.getPartETag());
-                position += buffer;
-            } catch (AmazonS3Exception | InterruptedException e) {
-                final var cause = String.format("Unable to copy file [%s/%s] (%d) from [%s] to [%s] via disk.",
-                        request.getSource().getName(), object.getKey(), object.getSize(),
-                        request.getSource().getRegion(), request.getTarget().getRegion());
-                log.warn("Multipart [{}]: i {}, pos {}, buffer {}", object.getKey(), i, position, buffer);
-                log.warn(cause, e);
-
-                final var uploads = targetS3.listMultipartUploads(
-                        new ListMultipartUploadsRequest(request.getTarget().getName())).getMultipartUploads();
-                log.warn("Abort {} multipart uploads", uploads.size());
-                for (var u : uploads) {
-                    targetS3.abortMultipartUpload(new AbortMultipartUploadRequest(
-                            request.getTarget().getName(), u.getKey(), u.getUploadId()));
+        for (int i = 1; position < length && !failed.get(); i++) {
+            final var part = i;
+            final var start = position;
+            final var size = (int) Math.min(plan.getPartSize(), length - position);
+            final var done = uploaded == null ? null : uploaded.get(part);
+            if (done != null) {
+                futures.add(CompletableFuture.completedFuture(done));
+            } else {
+                window.acquireUninterruptibly();
+                futures.add(CompletableFuture
+                        .supplyAsync(() -> copyPart(object, upload.getUploadId(), part, start, size, checksum),
+                                partExecutor)
+                        .whenComplete((eTag, e) -> {
+                            if (e == null) {
+                                journal.part(upload, part, eTag.getETag());
+                            }
+                            failed.compareAndSet(false, e != null);
+                            window.release();
+                        }));
+            }
+            position += size;
+        }
+
+        return complete(object, upload.getUploadId(), futures, "parts", checksum, metadata, sourcePartSize);
+    }
+
+    /**
+     * @return the size of the first part of a multipart source object, or {@code 0} if not multipart.
+     */
+    private long sourcePartSize(S3Object object, ObjectMetadata metadata) {
+        final var etag = metadata.getETag();
+        if (etag == null || !etag.contains("-")) {
+            return 0;
+        }
+
+        return retry.call("head part 1 of " + object.getKey(), () -> sourceS3.getObjectMetadata(
+                new GetObjectMetadataRequest(request.getSource().getName(), object.getKey()).withPartNumber(1)))
+                .getContentLength();
+    }
+
+    /**
+     * @return the upload of the same version of the object recorded earlier, or {@code null} if none, in which case a
+     * stale upload is aborted.
+     */
+    @Nullable
+    private UploadJournal.Upload resumable(S3Object object, String sourceEtag, long length) {
+        final var upload = journal.get(object.getKey());
+        if (upload == null || upload.isOf(sourceEtag, length)) {
+            return upload;
+        }
+        abort(object, upload.getUploadId());
+        return null;
+    }
+
+    /**
+     * Lists the parts already uploaded, as the truth rather than the journal, and takes the parts of the planned size.
+     *
+     * @return the parts uploaded by number, or {@code null} if the upload is gone.
+     */
+    @Nullable
+    private Map<Integer, PartETag> reconcile(S3Object object, UploadJournal.Upload upload, PartPlanner.Plan plan,
+                                             long length, TransferChecksum checksum) {
+        final var listRequest = new ListPartsRequest(request.getTarget().getName(), object.getKey(),
+                upload.getUploadId());
+        final var kms = isKms(upload.getSse());
+        final var uploaded = new HashMap<Integer, PartETag>();
+        try {
+            while (true) {
+                final var listing = retry.call("list parts of " + object.getKey(), () ->
+                        targetS3.listParts(listRequest));
+                for (var part : listing.getParts()) {
+                    final var number = part.getPartNumber();
+                    final var size = Math.min(plan.getPartSize(), length - (number - 1) * plan.getPartSize());
+                    if (number <= plan.getParts() && part.getSize() == size) {
+                        checksum.resume(number, kms ? null : part.getETag(), size);
+                        uploaded.put(number, new PartETag(number, part.getETag()));
+                    }
                 }
 
-                if (token != null) {
-                    targetSteps.sendTaskFailure(new SendTaskFailureRequest()
-                            .withTaskToken(token)
-                            .withError(e.getClass().getSimpleName())
-                            .withCause(cause + e.getMessage()));
+                if (!listing.isTruncated()) {
+                    break;
                 }
+                listRequest.setPartNumberMarker(listing.getNextPartNumberMarker());
+            }
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                log.info("Multipart [{}]: upload {} is gone", object.getKey(), upload.getUploadId());
+                return null;
+            }
+            throw e;
+        }
+
+        log.info("Multipart [{}]: resume with {} of {} parts uploaded, {} recorded",
+                object.getKey(), uploaded.size(), plan.getParts(), upload.getParts());
+        return uploaded;
+    }
+
+    /**
+     * Aborts only the upload given, never the uploads of other objects or other tasks.
+     */
+    private void abort(S3Object object, String uploadId) {
+        log.warn("Multipart [{}]: abort upload {}", object.getKey(), uploadId);
+        try {
+            targetS3.abortMultipartUpload(new AbortMultipartUploadRequest(
+                    request.getTarget().getName(), object.getKey(), uploadId));
+        } catch (AmazonS3Exception e) {
+            log.warn("Multipart [" + object.getKey() + "]: unable to abort upload " + uploadId, e);
+        } finally {
+            journal.remove(object.getKey(), uploadId);
+        }
+    }
 
-                tmpFile.delete();
-                return;
+    private InitiateMultipartUploadResult initiate(S3Object object, ObjectMetadata source,
+                                                   MetadataPrefetcher.Attributes attributes) {
+        final var initiate = new InitiateMultipartUploadRequest(
+                request.getTarget().getName(), object.getKey(), targetMetadata(source))
+                .withStorageClass(source.getStorageClass())
+                .withAccessControlList(attributes.getAcl());
+        if (!attributes.getTags().isEmpty()) {
+            initiate.setTagging(new ObjectTagging(attributes.getTags()));
+        }
+        return retry.call("initiate " + object.getKey(), () -> targetS3.initiateMultipartUpload(initiate));
+    }
+
+    /**
+     * @return the metadata to create the copy with: the user metadata and the headers describing the content, but not
+     * the headers of the source copy itself such as its length, ETag, or KMS key of the source region.
+     */
+    private static ObjectMetadata targetMetadata(ObjectMetadata source) {
+        final var metadata = new ObjectMetadata();
+        metadata.setUserMetadata(source.getUserMetadata());
+        for (var header : COPIED_HEADERS) {
+            final var value = source.getRawMetadataValue(header);
+            if (value != null) {
+                metadata.setHeader(header, value);
             }
         }
+        if (ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION.equals(source.getSSEAlgorithm())) {
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+        return metadata;
+    }
+
+    private static String describe(S3Object object, int part) {
+        return "part " + part + " of " + object.getKey();
+    }
+
+    /**
+     * Waits for all parts in order and completes the upload. If any part fails, a journaled upload is kept to resume
+     * unless the error is permanent, otherwise the upload is aborted.
+     *
+     * @param checksum       of the parts streamed through this task, or {@code null} if copied by S3.
+     * @param sourcePartSize the size of the first part of the source, or {@code 0} if not multipart.
+     */
+    private Status complete(S3Object object, String uploadId, List<Future<PartETag>> futures, String via,
+                            @Nullable TransferChecksum checksum, @Nullable ObjectMetadata source,
+                            long sourcePartSize) {
+        final var eTags = new ArrayList<PartETag>();
+        try {
+            for (var future : futures) {
+                eTags.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+
+            final var cause = e instanceof ExecutionException ? e.getCause() : e;
+            log.warn("Multipart [{}]: {} of {} parts", object.getKey(), eTags.size(), futures.size());
+            if (journal.contains(object.getKey(), uploadId) && (e instanceof InterruptedException
+                    || RetryPolicy.classify(cause) != RetryPolicy.ErrorClass.PERMANENT)) {
+                log.warn("Multipart [{}]: keep upload {} to resume", object.getKey(), uploadId);
+                journal.release(uploadId);
+            } else {
+                abort(object, uploadId);
+            }
 
-        targetS3.completeMultipartUpload(new CompleteMultipartUploadRequest(
-                request.getTarget().getName(), object.getKey(), upload.getUploadId(), eTags));
-        tmpFile.delete();
+            return fail(object, via, cause);
+        }
+
+        final CompleteMultipartUploadResult result;
+        try {
+            result = retry.call("complete " + object.getKey(), () -> targetS3.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(request.getTarget().getName(), object.getKey(), uploadId,
+                            eTags)));
+        } finally {
+            journal.release(uploadId);
+        }
+        journal.remove(object.getKey(), uploadId);
+        log.info("Transferred {} via {} {}", object.getKey(), eTags.size(), via);
+        return checksum == null
+                ? Status.COPIED
+                : verify(object, checksum, source.getETag(), sourcePartSize, source.getSSEAlgorithm(),
+                result.getETag(), result.getSSEAlgorithm());
+    }
+
+    /**
+     * Compares the checksum of the bytes read with the ETag of the copy, and with the ETag of the source if it has the
+     * same part boundaries. The ETag is not an MD5 under SSE-KMS, in which case the side is not compared.
+     *
+     * @param sourcePartSize the size of the first part of the source, or {@code 0} if unknown.
+     */
+    private Status verify(S3Object object, TransferChecksum checksum, String sourceEtag, long sourcePartSize,
+                          String sourceSse, String targetEtag, String targetSse) {
+        if (targetEtag != null && !isKms(targetSse) && checksum.isKnown() && !checksum.matches(targetEtag)) {
+            return mismatch(object, "target", targetEtag, checksum);
+        }
+        if (!isKms(sourceSse) && checksum.isComparable(sourceEtag, sourcePartSize) && !checksum.matches(sourceEtag)) {
+            return mismatch(object, "source", sourceEtag, checksum);
+        }
+
+        log.debug("Verified {} with etag {}, crc32c {}", object.getKey(), checksum.etag(), checksum.crc32cBase64());
+        return Status.COPIED;
+    }
+
+    private Status mismatch(S3Object object, String side, String etag, TransferChecksum checksum) {
+        log.warn("Checksum mismatch of [{}]: {} etag {}, copied etag {}, crc32c {}",
+                object.getKey(), side, etag, checksum.etag(), checksum.crc32cBase64());
+        deadLetters.add(object, "checksum", Status.MISMATCH.name(),
+                String.format("%s etag %s, copied etag %s", side, etag, checksum.etag()));
+        return Status.MISMATCH;
+    }
+
+    private static boolean isKms(String sse) {
+        return sse != null && sse.startsWith("aws:kms");
+    }
+
+    private Status fail(S3Object object, String via, Throwable e) {
+        final var cause = String.format("Unable to copy file [%s/%s] (%d) from [%s] to [%s] via %s.",
+                request.getSource().getName(), object.getKey(), object.getSize(),
+                request.getSource().getRegion(), request.getTarget().getRegion(), via);
+        log.warn(cause, e);
+        deadLetters.add(object, via, RetryPolicy.classify(e).name(), e.toString());
+        return Status.FAILED;
+    }
+
+    private PartETag copyPart(S3Object object, String uploadId, int part, long position, int size,
+                              TransferChecksum checksum) {
+        log.debug("Multipart [{}]: part {}, pos {}, size {}", object.getKey(), part, position, size);
+        final byte[] buffer;
+        try {
+            buffer = buffers.acquire(size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+
+        try {
+            return retry.call(describe(object, part), () -> limiter.call(size, () ->
+                    copyPartOnce(object, uploadId, part, position, size, checksum, buffer)));
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Retried alone, so a failed part is copied again without the others.
+     */
+    private PartETag copyPartOnce(S3Object object, String uploadId, int part, long position, int size,
+                                  TransferChecksum checksum, byte[] buffer) throws IOException {
+        final var start = System.nanoTime();
+        final var partChecksum = new TransferChecksum.Part();
+        try (var source = sourceS3.getObject(
+                new GetObjectRequest(request.getSource().getName(), object.getKey())
+                        .withRange(position, position + size - 1));
+             var input = governor.read(source.getObjectContent())) {
+            read(object, part, input, buffer, size, partChecksum);
+        }
+        checksum.complete(part, partChecksum);
+
+        final var eTag = targetS3.uploadPart(
+                new UploadPartRequest()
+                        .withPartNumber(part)
+                        .withUploadId(uploadId)
+                        .withBucketName(request.getTarget().getName())
+                        .withKey(object.getKey())
+                        .withInputStream(governor.write(new ByteArrayInputStream(buffer, 0, size)))
+                        .withPartSize(size)
+                        .withMD5Digest(Base64.getEncoder().encodeToString(checksum.digest(part))))
+                .getPartETag();
+        final var nanos = System.nanoTime() - start;
+        planner.record(size, nanos);
+        partLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        return eTag;
+    }
+
+    /**
+     * Reads exactly the size into the buffer, updating the checksum chunk by chunk while the bytes are still hot.
+     */
+    private static void read(S3Object object, int part, InputStream input, byte[] buffer, int size,
+                             TransferChecksum.Part checksum) throws IOException {
+        int offset = 0;
+        while (offset < size) {
+            final var read = input.read(buffer, offset, Math.min(READ_CHUNK, size - offset));
+            if (read < 0) {
+                throw new IOException(String.format("Read %d bytes of part %d of [%s], expect %d",
+                        offset, part, object.getKey(), size));
+            }
+            checksum.update(buffer, offset, read);
+            offset += read;
+        }
     }
 }
@@ -0,0 +1,761 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Records the state of every object replicated, keyed by object key, so that a fail over or a re-run skips the objects
+ * already copied.
+ * <p>
+ * Recent updates are kept in a small table on heap, which is flushed into sorted runs off heap. The keys of a run are
+ * prefix-compressed against the previous key, with a full key every {@value #RESTART_INTERVAL} entries to binary
+ * search from, so an entry takes about 30 bytes of direct memory. Runs of similar size are merged, the newer entry
+ * winning, to keep the number of runs logarithmic.
+ * <p>
+ * The runs are saved to the state store periodically, each under a name of its own and once only, with a manifest
+ * under the name of the ledger listing the runs in order. A save writes the runs flushed or merged since the last one,
+ * then the manifest, then deletes the runs merged away, so a ledger rewrites an entry only as often as its run is
+ * merged rather than at every save.
+ * <p>
+ * The runs loaded, or merged in from other ledgers, are never merged with the runs flushed since, so that the objects
+ * recorded by this replication run can be counted apart from the history of the bucket.
+ */
+class ReplicationLedger implements TaskState {
+    enum Status {
+        COPIED, FAILED, SKIPPED,
+        /**
+         * Copied, but the checksum of the bytes differs from the source, thus to copy again.
+         */
+        MISMATCH
+    }
+
+    private static final int MAGIC = 0x44524C32;
+    private static final String RUNS = "runs/";
+    private static final int MEMTABLE_LIMIT = 1 << 16;
+    private static final int RESTART_INTERVAL = 16;
+    private static final int CHUNK_SIZE = 16 << 20;
+    private static final long SAVE_INTERVAL_MINUTES = 5;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final StateStore store;
+    private final String name;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final AtomicInteger memtableSize = new AtomicInteger();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "ledger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile ConcurrentSkipListMap<byte[], Entry> memtable = newTable();
+    private volatile ConcurrentSkipListMap<byte[], Entry> frozen = newTable();
+    private volatile List<Run> runs = List.of();
+    private volatile Run base;
+    private int earlierRuns;
+    private final Map<Run, Long> saved = new IdentityHashMap<>();
+    private long nextRun;
+
+    ReplicationLedger(StateStore store, String name) {
+        this.store = store;
+        this.name = name;
+        load();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to save ledger [" + name + "]", e);
+            }
+        }, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    private static ConcurrentSkipListMap<byte[], Entry> newTable() {
+        return new ConcurrentSkipListMap<>(Arrays::compareUnsigned);
+    }
+
+    Entry get(String key) {
+        final var bytes = key.getBytes(StandardCharsets.UTF_8);
+        var entry = memtable.get(bytes);
+        if (entry == null) {
+            entry = frozen.get(bytes);
+        }
+
+        final var snapshot = runs;
+        for (int i = snapshot.size() - 1; i >= 0 && entry == null; i--) {
+            entry = snapshot.get(i).get(bytes);
+        }
+
+        final var inherited = base;
+        return entry == null && inherited != null ? inherited.get(bytes) : entry;
+    }
+
+    /**
+     * @return {@code true} if the same version of the object has been copied.
+     */
+    boolean isCopied(S3Object object) {
+        final var entry = get(object.getKey());
+        return entry != null
+                && entry.getStatus() == Status.COPIED
+                && entry.getBytes() == object.getSize()
+                && (object.getEtag() == null || unquote(object.getEtag()).equalsIgnoreCase(entry.getEtag()));
+    }
+
+    void record(S3Object object, Status status) {
+        final var previous = get(object.getKey());
+        final var entry = new Entry(status, object.getEtag() == null ? null : unquote(object.getEtag()),
+                object.getSize(), previous == null ? 1 : previous.getAttempts() + 1);
+
+        swapLock.readLock().lock();
+        try {
+            memtable.put(object.getKey().getBytes(StandardCharsets.UTF_8), entry);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+
+        if (memtableSize.incrementAndGet() >= MEMTABLE_LIMIT && flushPending.compareAndSet(false, true)) {
+            scheduler.execute(this::flush);
+        }
+    }
+
+    /**
+     * Moves the table on heap into a new run, and merges the runs of similar size.
+     */
+    synchronized void flush() {
+        flushPending.set(false);
+        swapLock.writeLock().lock();
+        try {
+            if (memtable.isEmpty()) {
+                return;
+            }
+            frozen = memtable;
+            memtable = newTable();
+            memtableSize.set(0);
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+
+        final var next = new ArrayList<>(runs);
+        next.add(build(frozen.entrySet().iterator()));
+        compact(next, earlierRuns);
+
+        runs = List.copyOf(next);
+        frozen = newTable();
+        log.debug("Ledger [{}]: {} runs, {} entries",
+                name, next.size(), next.stream().mapToLong(r -> r.count).sum());
+    }
+
+    /**
+     * Merges the runs of similar size from the end, down to the run at {@code from}.
+     */
+    private static void compact(List<Run> runs, int from) {
+        while (runs.size() - from > 1 && runs.get(runs.size() - 2).count <= 2 * runs.get(runs.size() - 1).count) {
+            final var newer = runs.remove(runs.size() - 1);
+            final var older = runs.remove(runs.size() - 1);
+            runs.add(build(merge(older.iterator(), newer.iterator())));
+        }
+    }
+
+    /**
+     * Takes in the entries of another ledger, such as the ledger of one key range, its entries winning on the same key.
+     * All the entries then count as those of earlier runs.
+     */
+    synchronized void merge(ReplicationLedger other) {
+        flush();
+        other.flush();
+
+        final var next = new ArrayList<>(runs);
+        for (var run : other.runs) {
+            next.add(run);
+            compact(next, 0);
+        }
+        runs = List.copyOf(next);
+        earlierRuns = next.size();
+    }
+
+    /**
+     * Looks up the entries of another ledger within the range, such as the ledger of the bucket for the ledger of one
+     * key range, after those of this ledger. The entries inherited are read only: they are neither counted, saved nor
+     * merged, so this ledger keeps the objects of its own run only.
+     */
+    void inherit(String name, KeyRange range) {
+        final var other = new ReplicationLedger(store, name);
+        other.close();
+
+        Iterator<Map.Entry<byte[], Entry>> entries = Collections.emptyIterator();
+        for (var run : other.runs) {
+            entries = merge(entries, run.iterator());
+        }
+        final var builder = new RunBuilder();
+        entries.forEachRemaining(e -> {
+            if (range.contains(new String(e.getKey(), StandardCharsets.UTF_8))) {
+                builder.add(e.getKey(), e.getValue());
+            }
+        });
+        final var run = builder.build();
+        base = run.count == 0 ? null : run;
+        log.info("Ledger [{}] inherits {} entries of [{}] in range {}", this.name, run.count, name, range);
+    }
+
+    @Override
+    public void absorb(String name) {
+        final var other = new ReplicationLedger(store, name);
+        merge(other);
+        other.close();
+    }
+
+    /**
+     * @return the number of objects by their latest status.
+     */
+    synchronized Map<Status, Long> count() {
+        flush();
+        return count(runs);
+    }
+
+    /**
+     * @return the number of objects recorded since the ledger was loaded, that is attempted by this replication run,
+     * by their latest status.
+     */
+    synchronized Map<Status, Long> countThisRun() {
+        flush();
+        return count(runs.subList(earlierRuns, runs.size()));
+    }
+
+    private static Map<Status, Long> count(List<Run> runs) {
+        final var counts = new EnumMap<Status, Long>(Status.class);
+        Iterator<Map.Entry<byte[], Entry>> entries = Collections.emptyIterator();
+        for (var run : runs) {
+            entries = merge(entries, run.iterator());
+        }
+        entries.forEachRemaining(e -> counts.merge(e.getValue().getStatus(), 1L, Long::sum));
+        return counts;
+    }
+
+    /**
+     * Stops saving periodically, without saving.
+     */
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Deletes the runs and the manifest of another ledger, once taken in and saved.
+     */
+    @Override
+    public void delete(String name) throws IOException {
+        final var prefix = runPrefix(name);
+        for (var run : store.list(prefix)) {
+            if (run.indexOf('/', prefix.length()) < 0) {
+                store.delete(run);
+            }
+        }
+        store.delete(name);
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        flush();
+        final var snapshot = runs;
+
+        long length = 0;
+        var written = 0;
+        for (var run : snapshot) {
+            if (!saved.containsKey(run)) {
+                final var id = nextRun++;
+                length += write(runPrefix(name) + id, run);
+                saved.put(run, id);
+                written++;
+            }
+        }
+
+        final var obsolete = new ArrayList<Long>();
+        saved.entrySet().removeIf(e -> !snapshot.contains(e.getKey()) && obsolete.add(e.getValue()));
+        if (written == 0 && obsolete.isEmpty()) {
+            return;
+        }
+
+        final var bytes = new ByteArrayOutputStream();
+        final var output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeLong(nextRun);
+        output.writeInt(snapshot.size());
+        for (var run : snapshot) {
+            output.writeLong(saved.get(run));
+        }
+        store.save(name, new ByteArrayInputStream(bytes.toByteArray()), bytes.size());
+
+        for (var id : obsolete) {
+            try {
+                store.delete(runPrefix(name) + id);
+            } catch (IOException e) {
+                log.warn("Unable to delete run [" + id + "] of ledger [" + name + "]", e);
+            }
+        }
+        log.info("Saved ledger [{}]: {} of {} runs in {} bytes, {} runs deleted",
+                name, written, snapshot.size(), length, obsolete.size());
+    }
+
+    /**
+     * @return the bytes written.
+     */
+    private long write(String runName, Run run) throws IOException {
+        final var streams = new ArrayList<InputStream>();
+        final var header = new ByteArrayOutputStream();
+        final var output = new DataOutputStream(header);
+        long length = 0;
+
+        output.writeInt(MAGIC);
+        output.writeInt(run.chunks.size());
+        for (var chunk : run.chunks) {
+            output.writeInt(chunk.count);
+            output.writeInt(chunk.data.limit());
+
+            streams.add(new ByteArrayInputStream(header.toByteArray()));
+            streams.add(new BufferInputStream(chunk.data));
+            length += header.size() + chunk.data.limit();
+            header.reset();
+        }
+        streams.add(new ByteArrayInputStream(header.toByteArray()));
+        length += header.size();
+
+        store.save(runName, new SequenceInputStream(Collections.enumeration(streams)), length);
+        return length;
+    }
+
+    private void load() {
+        try (var stream = store.load(name)) {
+            if (stream == null) {
+                return;
+            }
+
+            final var input = new DataInputStream(stream);
+            if (input.readInt() != MAGIC) {
+                log.warn("Ignore ledger [{}] of unknown format", name);
+                return;
+            }
+
+            nextRun = input.readLong();
+            final var loaded = new ArrayList<Run>();
+            final var ids = new IdentityHashMap<Run, Long>();
+            for (int runCount = input.readInt(); runCount > 0; runCount--) {
+                final var id = input.readLong();
+                final var run = read(runPrefix(name) + id);
+                if (run == null) {
+                    log.warn("Ignore ledger [{}] missing run [{}]", name, id);
+                    return;
+                }
+                loaded.add(run);
+                ids.put(run, id);
+            }
+
+            runs = List.copyOf(loaded);
+            earlierRuns = loaded.size();
+            saved.putAll(ids);
+            log.info("Loaded ledger [{}] with {} entries", name, loaded.stream().mapToLong(r -> r.count).sum());
+        } catch (IOException e) {
+            log.warn("Unable to load ledger [" + name + "], start from empty", e);
+        }
+    }
+
+    /**
+     * @return the run, or {@code null} if absent or of unknown format.
+     */
+    private Run read(String runName) throws IOException {
+        try (var stream = store.load(runName)) {
+            if (stream == null) {
+                return null;
+            }
+
+            final var input = new DataInputStream(new BufferedInputStream(stream));
+            if (input.readInt() != MAGIC) {
+                return null;
+            }
+
+            final var chunks = new ArrayList<Chunk>();
+            final var buffer = new byte[64 * 1024];
+            for (int chunkCount = input.readInt(); chunkCount > 0; chunkCount--) {
+                final var count = input.readInt();
+                final var data = ByteBuffer.allocateDirect(input.readInt());
+                while (data.hasRemaining()) {
+                    final var read = Math.min(buffer.length, data.remaining());
+                    input.readFully(buffer, 0, read);
+                    data.put(buffer, 0, read);
+                }
+                chunks.add(Chunk.of(data.flip(), count));
+            }
+            return new Run(chunks);
+        }
+    }
+
+    /**
+     * @apiNote the runs are kept apart from the states, so that they are not listed as the ledgers of other tasks.
+     */
+    private static String runPrefix(String name) {
+        return RUNS + name + "/";
+    }
+
+    private static String unquote(String etag) {
+        return etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")
+                ? etag.substring(1, etag.length() - 1) : etag;
+    }
+
+    private static Run build(Iterator<Map.Entry<byte[], Entry>> entries) {
+        final var builder = new RunBuilder();
+        entries.forEachRemaining(e -> builder.add(e.getKey(), e.getValue()));
+        return builder.build();
+    }
+
+    /**
+     * Merges two sorted iterators, the newer entry winning on the same key.
+     */
+    private static Iterator<Map.Entry<byte[], Entry>> merge(
+            Iterator<Map.Entry<byte[], Entry>> older,
+            Iterator<Map.Entry<byte[], Entry>> newer) {
+        return new Iterator<>() {
+            private Map.Entry<byte[], Entry> a = older.hasNext() ? older.next() : null;
+            private Map.Entry<byte[], Entry> b = newer.hasNext() ? newer.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return a != null || b != null;
+            }
+
+            @Override
+            public Map.Entry<byte[], Entry> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final var compare = a == null ? 1 : b == null ? -1 : Arrays.compareUnsigned(a.getKey(), b.getKey());
+                final Map.Entry<byte[], Entry> next;
+                if (compare < 0) {
+                    next = a;
+                    a = older.hasNext() ? older.next() : null;
+                } else {
+                    next = b;
+                    b = newer.hasNext() ? newer.next() : null;
+                    if (compare == 0) {
+                        a = older.hasNext() ? older.next() : null;
+                    }
+                }
+                return next;
+            }
+        };
+    }
+
+    static final class Entry {
+        private final Status status;
+        private final String etag;
+        private final long bytes;
+        private final int attempts;
+
+        Entry(Status status, String etag, long bytes, int attempts) {
+            this.status = status;
+            this.etag = etag;
+            this.bytes = bytes;
+            this.attempts = attempts;
+        }
+
+        Status getStatus() {
+            return status;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        int getAttempts() {
+            return attempts;
+        }
+    }
+
+    /**
+     * A sorted run of entries, split into chunks of direct memory.
+     */
+    private static final class Run {
+        private final List<Chunk> chunks;
+        private final long count;
+
+        private Run(List<Chunk> chunks) {
+            this.chunks = List.copyOf(chunks);
+            this.count = chunks.stream().mapToLong(c -> c.count).sum();
+        }
+
+        private Entry get(byte[] key) {
+            int low = 0;
+            int high = chunks.size() - 1;
+            while (low <= high) {
+                final var middle = (low + high) >>> 1;
+                if (Arrays.compareUnsigned(chunks.get(middle).firstKey, key) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high < 0 ? null : chunks.get(high).get(key);
+        }
+
+        private Iterator<Map.Entry<byte[], Entry>> iterator() {
+            return new Iterator<>() {
+                private int index;
+                private Cursor cursor;
+
+                @Override
+                public boolean hasNext() {
+                    while ((cursor == null || !cursor.hasNext()) && index < chunks.size()) {
+                        cursor = new Cursor(chunks.get(index++).data, 0);
+                    }
+                    return cursor != null && cursor.hasNext();
+                }
+
+                @Override
+                public Map.Entry<byte[], Entry> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final var key = cursor.nextKey();
+                    return new AbstractMap.SimpleImmutableEntry<>(key, cursor.nextEntry());
+                }
+            };
+        }
+    }
+
+    private static final class Chunk {
+        private final ByteBuffer data;
+        private final int[] restarts;
+        private final int count;
+        private final byte[] firstKey;
+
+        private Chunk(ByteBuffer data, int[] restarts, int count) {
+            this.data = data;
+            this.restarts = restarts;
+            this.count = count;
+            this.firstKey = new Cursor(data, 0).nextKey();
+        }
+
+        /**
+         * Rebuilds the restart points of a chunk loaded from the store.
+         */
+        private static Chunk of(ByteBuffer data, int count) {
+            final var restarts = new int[(count + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+            final var cursor = new Cursor(data, 0);
+            for (int i = 0; i < count; i++) {
+                if (i % RESTART_INTERVAL == 0) {
+                    restarts[i / RESTART_INTERVAL] = cursor.position();
+                }
+                cursor.nextKey();
+                cursor.nextEntry();
+            }
+            return new Chunk(data, restarts, count);
+        }
+
+        private Entry get(byte[] key) {
+            int low = 0;
+            int high = restarts.length - 1;
+            while (low <= high) {
+                final var middle = (low + high) >>> 1;
+                if (Arrays.compareUnsigned(new Cursor(data, restarts[middle]).nextKey(), key) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (high < 0) {
+                return null;
+            }
+
+            final var cursor = new Cursor(data, restarts[high]);
+            for (int i = 0; i < RESTART_INTERVAL && cursor.hasNext(); i++) {
+                final var compare = Arrays.compareUnsigned(cursor.nextKey(), key);
+                final var entry = cursor.nextEntry();
+                if (compare == 0) {
+                    return entry;
+                } else if (compare > 0) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the entries of a run: the length shared with the previous key, the rest of the key, the status, the
+     * ETag (16 bytes if it is an MD5 digest), the bytes and the attempts, integers as var-ints.
+     */
+    private static final class RunBuilder {
+        private final List<Chunk> chunks = new ArrayList<>();
+        private ByteBuffer staging = ByteBuffer.allocate(64 * 1024);
+        private int[] restarts = new int[64];
+        private int count;
+        private byte[] previous = EMPTY;
+
+        private void add(byte[] key, Entry entry) {
+            if (staging.position() >= CHUNK_SIZE) {
+                seal();
+            }
+
+            ensure(key.length + BinaryCodec.etagSize(entry.getEtag()) + 32);
+
+            var shared = 0;
+            if (count % RESTART_INTERVAL == 0) {
+                if (count / RESTART_INTERVAL == restarts.length) {
+                    restarts = Arrays.copyOf(restarts, restarts.length * 2);
+                }
+                restarts[count / RESTART_INTERVAL] = staging.position();
+            } else {
+                final var limit = Math.min(previous.length, key.length);
+                while (shared < limit && previous[shared] == key[shared]) {
+                    shared++;
+                }
+            }
+
+            putVarint(shared);
+            putVarint(key.length - shared);
+            staging.put(key, shared, key.length - shared);
+            staging.put((byte) entry.getStatus().ordinal());
+            BinaryCodec.putEtag(staging, entry.getEtag());
+            putVarint(entry.getBytes());
+            putVarint(entry.getAttempts());
+
+            previous = key;
+            count++;
+        }
+
+        private void putVarint(long value) {
+            BinaryCodec.putVarint(staging, value);
+        }
+
+        private void ensure(int size) {
+            if (staging.remaining() < size) {
+                final var larger = ByteBuffer.allocate(Math.max(staging.capacity() * 2, staging.position() + size));
+                staging.flip();
+                larger.put(staging);
+                staging = larger;
+            }
+        }
+
+        private void seal() {
+            if (count == 0) {
+                return;
+            }
+
+            final var data = ByteBuffer.allocateDirect(staging.position());
+            data.put(staging.flip());
+            data.flip();
+            staging.clear();
+
+            chunks.add(new Chunk(data, Arrays.copyOf(restarts, (count + RESTART_INTERVAL - 1) / RESTART_INTERVAL),
+                    count));
+            count = 0;
+            previous = EMPTY;
+        }
+
+        private Run build() {
+            seal();
+            return new Run(chunks);
+        }
+    }
+
+    /**
+     * Decodes the entries of a chunk in order, from a restart point.
+     */
+    private static final class Cursor {
+        private static final Status[] STATUSES = Status.values();
+
+        private final ByteBuffer data;
+        private byte[] key = EMPTY;
+
+        private Cursor(ByteBuffer data, int position) {
+            this.data = data.duplicate();
+            this.data.position(position);
+        }
+
+        private boolean hasNext() {
+            return data.hasRemaining();
+        }
+
+        private int position() {
+            return data.position();
+        }
+
+        private byte[] nextKey() {
+            final var shared = (int) getVarint();
+            final var next = new byte[shared + (int) getVarint()];
+            System.arraycopy(key, 0, next, 0, shared);
+            data.get(next, shared, next.length - shared);
+            key = next;
+            return next;
+        }
+
+        private Entry nextEntry() {
+            final var status = STATUSES[data.get()];
+            final var etag = BinaryCodec.getEtag(data);
+            return new Entry(status, etag, getVarint(), (int) getVarint());
+        }
+
+        private long getVarint() {
+            return BinaryCodec.getVarint(data);
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer data;
+
+        private BufferInputStream(ByteBuffer data) {
+            this.data = data.duplicate();
+            this.data.position(0);
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? data.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            final var read = Math.min(length, data.remaining());
+            data.get(buffer, offset, read);
+            return read;
+        }
+    }
+}
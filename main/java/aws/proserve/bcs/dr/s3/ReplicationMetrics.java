@@ -0,0 +1,191 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.Stream;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the throughput and latency of the replication, and prints them periodically to stdout in the embedded
+ * metric format of CloudWatch. Lambda and the awslogs driver of Fargate turn the lines into metrics without any agent,
+ * and the lines are readable as they are when running locally.
+ * <p>
+ * Rates are emitted per second over the interval, latencies as histograms in milliseconds, and gauges as sampled at
+ * the time of emitting. The lag of every shard is emitted in its own document with the shard as a dimension.
+ */
+@Singleton
+class ReplicationMetrics {
+    static final String NAMESPACE = "DRFactory/S3";
+    static final String COUNT_PER_SECOND = "Count/Second";
+    static final String BYTES_PER_SECOND = "Bytes/Second";
+
+    private static final long INTERVAL_SECONDS = TimeUnit.MINUTES.toSeconds(1);
+    private static final int MAX_HISTOGRAM_VALUES = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ObjectMapper mapper;
+    private final String stream;
+    private final PrintStream out;
+
+    private final Map<String, Rate> rates = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> shardLags = new ConcurrentHashMap<>();
+    private long flushedNanos = System.nanoTime();
+
+    /**
+     * Flushes periodically until the component is closed.
+     */
+    @Inject
+    ReplicationMetrics(ObjectMapper mapper, @Nullable @Stream String stream, ComponentResources resources) {
+        this(mapper, stream, System.out);
+        final var scheduler = resources.register(Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        }), ExecutorService::shutdownNow);
+        scheduler.scheduleAtFixedRate(this::flush, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Without the periodic flush, for the caller to flush.
+     */
+    ReplicationMetrics(ObjectMapper mapper, @Nullable String stream, PrintStream out) {
+        this.mapper = mapper;
+        this.stream = stream == null ? "none" : stream;
+        this.out = out;
+    }
+
+    /**
+     * @param unit either {@link #COUNT_PER_SECOND} or {@link #BYTES_PER_SECOND}.
+     */
+    Rate rate(String name, String unit) {
+        return rates.computeIfAbsent(name, n -> new Rate(unit));
+    }
+
+    LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    void lag(String shard, long millis) {
+        shardLags.computeIfAbsent(shard, s -> new AtomicLong()).set(millis);
+    }
+
+    void removeShard(String shard) {
+        shardLags.remove(shard);
+    }
+
+    /**
+     * @return the lag of the shard furthest behind, or {@code 0} if none.
+     */
+    long maxShardLag() {
+        return shardLags.values().stream().mapToLong(AtomicLong::get).max().orElse(0);
+    }
+
+    synchronized void flush() {
+        try {
+            final var now = System.nanoTime();
+            final var seconds = Math.max(1, now - flushedNanos) / 1e9;
+            flushedNanos = now;
+
+            final var document = document("Stream");
+            final var metrics = (ArrayNode) document.at("/_aws/CloudWatchMetrics/0/Metrics");
+            rates.forEach((name, rate) -> {
+                metrics.addObject().put("Name", name).put("Unit", rate.unit);
+                document.put(name, rate.adder.sumThenReset() / seconds);
+            });
+            counters.forEach((name, counter) -> {
+                metrics.addObject().put("Name", name).put("Unit", "Count");
+                document.put(name, counter.sumThenReset());
+            });
+            gauges.forEach((name, gauge) -> {
+                metrics.addObject().put("Name", name).put("Unit", "Count");
+                document.put(name, gauge.getAsLong());
+            });
+            histograms.forEach((name, histogram) -> {
+                final var snapshot = histogram.snapshot(MAX_HISTOGRAM_VALUES);
+                if (!snapshot.isEmpty()) {
+                    metrics.addObject().put("Name", name).put("Unit", "Milliseconds");
+                    final var node = document.putObject(name);
+                    final var values = node.putArray("Values");
+                    snapshot.getValues().forEach(v -> values.add(v / 1000.0));
+                    final var counts = node.putArray("Counts");
+                    snapshot.getCounts().forEach(counts::add);
+                    node.put("Min", snapshot.getMin() / 1000.0)
+                            .put("Max", snapshot.getMax() / 1000.0)
+                            .put("Sum", snapshot.getSum() / 1000.0)
+                            .put("Count", snapshot.getCount());
+                }
+            });
+            out.println(mapper.writeValueAsString(document));
+
+            for (var entry : shardLags.entrySet()) {
+                final var shard = document("Stream", "Shard").put("Shard", entry.getKey());
+                ((ArrayNode) shard.at("/_aws/CloudWatchMetrics/0/Metrics"))
+                        .addObject().put("Name", "MillisBehindLatest").put("Unit", "Milliseconds");
+                shard.put("MillisBehindLatest", entry.getValue().get());
+                out.println(mapper.writeValueAsString(shard));
+            }
+            out.flush();
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Unable to emit metrics", e);
+        }
+    }
+
+    private ObjectNode document(String... dimensions) {
+        final var document = mapper.createObjectNode();
+        final var directive = document.putObject("_aws")
+                .put("Timestamp", System.currentTimeMillis())
+                .putArray("CloudWatchMetrics")
+                .addObject()
+                .put("Namespace", NAMESPACE);
+        final var set = directive.putArray("Dimensions").addArray();
+        for (var dimension : dimensions) {
+            set.add(dimension);
+        }
+        directive.putArray("Metrics");
+        document.put("Stream", stream);
+        return document;
+    }
+
+    static final class Rate {
+        private final String unit;
+        private final LongAdder adder = new LongAdder();
+
+        private Rate(String unit) {
+            this.unit = unit;
+        }
+
+        void add(long amount) {
+            adder.add(amount);
+        }
+    }
+}
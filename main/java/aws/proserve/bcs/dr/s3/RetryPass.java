@@ -0,0 +1,105 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Source;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+/**
+ * Copies the dead letters again once the main run drains, concurrently, so that the objects failed by a passing
+ * outage no longer fail the whole run. The objects copied leave the dead letters, the others stay with one more
+ * attempt. As the dead letters are kept across runs, an object deleted from the source since it failed is dropped
+ * rather than failing every later run.
+ */
+@Singleton
+class RetryPass {
+    private static final int CONCURRENCY = 16;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonS3 sourceS3;
+    private final ReplicateBucket.Request request;
+    private final TransferEngine engine;
+    private final DeadLetters deadLetters;
+    private final ReplicationLedger ledger;
+    private final RetryPolicy retry;
+
+    @Inject
+    RetryPass(@Source AmazonS3 sourceS3,
+              @Nullable ReplicateBucket.Request request,
+              TransferEngine engine,
+              DeadLetters deadLetters,
+              ReplicationLedger ledger,
+              RetryPolicy retry) {
+        this.sourceS3 = sourceS3;
+        this.request = request;
+        this.engine = engine;
+        this.deadLetters = deadLetters;
+        this.ledger = ledger;
+        this.retry = retry;
+    }
+
+    /**
+     * @return the number of objects still failing.
+     */
+    int run() {
+        final var letters = deadLetters.list();
+        if (letters.isEmpty()) {
+            return 0;
+        }
+
+        log.info("Retry {} failed objects", letters.size());
+        final var executor = Executors.newFixedThreadPool(CONCURRENCY, runnable -> {
+            final var thread = new Thread(runnable, "retry-pass");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture.allOf(letters.stream()
+                    .map(letter -> CompletableFuture.runAsync(() -> {
+                        final var object = letter.getObject();
+                        if (ledger.isCopied(object)) {
+                            deadLetters.remove(object.getKey());
+                        } else if (isDeleted(object)) {
+                            log.info("Drop the dead letter of {}, deleted from the source", object.getKey());
+                            deadLetters.remove(object.getKey());
+                            ledger.record(object, ReplicationLedger.Status.SKIPPED);
+                        } else {
+                            ledger.record(object, engine.copy(object));
+                        }
+                    }, executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final var remaining = deadLetters.size();
+        log.info("Retry pass copied {} of {} failed objects", letters.size() - remaining, letters.size());
+        return remaining;
+    }
+
+    /**
+     * @return {@code true} only if the source answers that the object is gone; any other error is left to the copy.
+     */
+    private boolean isDeleted(S3Object object) {
+        try {
+            retry.call("head " + object.getKey(), () ->
+                    sourceS3.getObjectMetadata(request.getSource().getName(), object.getKey()));
+            return false;
+        } catch (AmazonS3Exception e) {
+            return e.getStatusCode() == 404;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
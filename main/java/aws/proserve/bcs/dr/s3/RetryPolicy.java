@@ -0,0 +1,158 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries by the class of the error, each class with its own budget of attempts and backoff. The backoff is
+ * exponential with full jitter, so the retries of many threads spread out rather than arrive together.
+ * <p>
+ * A throttling error also closes a gate shared by every caller for the backoff, so the whole task slows down together
+ * when S3 asks to, instead of the other threads adding to the storm.
+ */
+@Singleton
+class RetryPolicy {
+    enum ErrorClass {
+        THROTTLING(10, 1000, 60_000),
+        TRANSIENT(6, 500, 20_000),
+        UNKNOWN(3, 1000, 10_000),
+        PERMANENT(1, 0, 0);
+
+        private final int attempts;
+        private final long baseMillis;
+        private final long capMillis;
+
+        ErrorClass(int attempts, long baseMillis, long capMillis) {
+            this.attempts = attempts;
+            this.baseMillis = baseMillis;
+            this.capMillis = capMillis;
+        }
+
+        int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private static final Set<String> THROTTLING_CODES = Set.of("SlowDown", "Throttling", "ThrottlingException",
+            "ThrottledException", "RequestLimitExceeded", "TooManyRequestsException",
+            "ProvisionedThroughputExceededException", "RequestThrottled", "LimitExceededException");
+    private static final Set<String> TRANSIENT_CODES = Set.of("InternalError", "RequestTimeout", "ServiceUnavailable",
+            "RequestTimeTooSkewed", "ExpiredToken", "IDPCommunicationError");
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ReplicationMetrics metrics;
+    private final AtomicLong gateMillis = new AtomicLong();
+
+    @Inject
+    RetryPolicy(ReplicationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    static ErrorClass classify(Throwable e) {
+        final var cause = unwrap(e);
+        if (cause instanceof AmazonServiceException) {
+            final var service = (AmazonServiceException) cause;
+            final var status = service.getStatusCode();
+            if (status == 429 || status == 503 || THROTTLING_CODES.contains(service.getErrorCode())) {
+                return ErrorClass.THROTTLING;
+            } else if (status >= 500 || TRANSIENT_CODES.contains(service.getErrorCode())) {
+                return ErrorClass.TRANSIENT;
+            } else if (status >= 400) {
+                return ErrorClass.PERMANENT;
+            }
+            return ErrorClass.UNKNOWN;
+        } else if (cause instanceof SdkClientException || cause instanceof IOException) {
+            return ErrorClass.TRANSIENT;
+        } else if (cause instanceof InterruptedException || cause instanceof Error) {
+            return ErrorClass.PERMANENT;
+        }
+        return ErrorClass.UNKNOWN;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        var cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException
+                || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * @param attempt the number of attempts failed so far, from 1.
+     * @return a random backoff between zero and the exponential backoff of the attempt.
+     */
+    static long backoffMillis(ErrorClass errorClass, int attempt) {
+        final var exponential = errorClass.baseMillis << Math.min(attempt - 1, 20);
+        return ThreadLocalRandom.current().nextLong(Math.min(errorClass.capMillis, exponential) + 1);
+    }
+
+    void run(String what, Runnable runnable) {
+        call(what, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * @throws RuntimeException the last error once its class runs out of attempts, wrapped if checked.
+     */
+    <T> T call(String what, Callable<T> callable) {
+        for (int attempt = 1; ; attempt++) {
+            awaitGate();
+            try {
+                return callable.call();
+            } catch (Exception e) {
+                final var errorClass = classify(e);
+                if (attempt >= errorClass.attempts) {
+                    if (e instanceof RuntimeException) {
+                        throw (RuntimeException) e;
+                    }
+                    throw new CompletionException(e);
+                }
+
+                final var backoff = backoffMillis(errorClass, attempt);
+                metrics.counter("Retries/" + errorClass).increment();
+                log.debug("Retry {} in {} ms after attempt {} failed by {}: {}",
+                        what, backoff, attempt, errorClass, e.toString());
+                if (errorClass == ErrorClass.THROTTLING) {
+                    gateMillis.accumulateAndGet(System.currentTimeMillis() + backoff, Math::max);
+                }
+                sleep(backoff);
+            }
+        }
+    }
+
+    private void awaitGate() {
+        final var wait = gateMillis.get() - System.currentTimeMillis();
+        if (wait > 0) {
+            sleep(wait);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+}
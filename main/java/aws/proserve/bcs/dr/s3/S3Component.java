@@ -23,48 +23,53 @@ import javax.inject.Singleton;
 @Component(modules = S3Module.class)
 interface S3Component {
 
+    /**
+     * @return the component kept across warm invocations, see {@link ComponentCache}.
+     */
     static S3Component build(Resource resource) {
-        return DaggerS3Component.builder()
-                .stream(resource.getName())
-                .targetRegion(resource.getRegion())
-                .build();
+        return ComponentCache.component(resource);
     }
 
+    /**
+     * @return the component kept across warm invocations, see {@link ComponentCache}.
+     */
     static S3Component build(String projectId, String region) {
-        return DaggerS3Component.builder()
-                .region(region)
-                .credential(projectId == null ? null :
-                        DaggerS3Component.builder()
-                                .build()
-                                .secretManager()
-                                .getCredentialByProject(projectId))
-                .build();
+        return ComponentCache.component(projectId, region);
     }
 
+    /**
+     * @return the component kept across warm invocations if without a replication request, otherwise a new one as
+     * the replication keeps state in its component.
+     */
     static S3Component build(String projectId, String source, String target, String stream,
                              ReplicateBucket.Request request) {
+        if (request == null) {
+            return ComponentCache.component(projectId, source, target, stream);
+        }
         return DaggerS3Component.builder()
                 .sourceRegion(source)
                 .targetRegion(target)
                 .stream(stream)
-                .credential(projectId == null ? null :
-                        DaggerS3Component.builder()
-                                .build()
-                                .secretManager()
-                                .getCredentialByProject(projectId))
+                .credential(ComponentCache.credential(projectId))
                 .replicateRequest(request)
                 .build();
     }
 
     SecretManager secretManager();
 
+    ComponentResources resources();
+
     @Default
     AWSStepFunctions stepFunctions();
 
     CheckBucketValid.Worker checkBucketValid();
 
+    CheckBucketsValid.Worker checkBucketsValid();
+
     CreateStream.Worker createStream();
 
+    CreateStream.Estimator bucketEstimator();
+
     DeleteStream.Worker deleteStream();
 
     DeleteDynamo.Worker deleteDynamo();
@@ -75,6 +80,28 @@ interface S3Component {
 
     Worker replicateWorker();
 
+    ReplicationLedger ledger();
+
+    UploadJournal uploadJournal();
+
+    UploadSweeper uploadSweeper();
+
+    DeadLetters deadLetters();
+
+    RetryPass retryPass();
+
+    FailurePolicy failurePolicy();
+
+    ReplicationMetrics metrics();
+
+    StreamScaler streamScaler();
+
+    LocalReplication localReplication();
+
+    SplitBucket.Worker splitBucket();
+
+    MergeRanges.Worker mergeRanges();
+
     @Component.Builder
     interface Builder {
         @BindsInstance
@@ -8,8 +8,12 @@ import aws.proserve.bcs.dr.lambda.annotation.Source;
 import aws.proserve.bcs.dr.lambda.annotation.Target;
 import aws.proserve.bcs.dr.s3.dto.Stream;
 import aws.proserve.bcs.dr.secret.Credential;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.jmespath.ObjectMapperSingleton;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.kinesis.AmazonKinesis;
@@ -30,28 +34,54 @@ import com.amazonaws.services.stepfunctions.AWSStepFunctionsClientBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dagger.Module;
 import dagger.Provides;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 
 import javax.annotation.Nullable;
+import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Function;
 
 @Singleton
 @Module
 class S3Module {
     static final String KINESIS_APP = "DRPS3-KinesisApp-";
 
+    /**
+     * Identifies this task among the tasks replicating from the same stream.
+     */
+    static final String TASK_ID = UUID.randomUUID().toString();
+
+    private static final Logger log = LoggerFactory.getLogger(S3Module.class);
+    private static final String TASK = ".task-";
+
+    private static final long ONE_MB = 1024 * 1024;
+    private static final double CRT_THROUGHPUT_GBPS = 10;
+    private static final long CRT_PART_SIZE = 16 * ONE_MB;
+
     @Default
     @Singleton
     @Provides
     static AmazonS3 defaultS3(
             @Nullable @Default String region,
-            @Nullable Credential credential) {
-        return AmazonS3ClientBuilder.standard()
+            @Nullable Credential credential,
+            ComponentResources resources) {
+        return resources.register(AmazonS3ClientBuilder.standard()
                 .withRegion(region)
                 .withCredentials(Credential.toProvider(credential))
-                .build();
+                .build(), AmazonS3::shutdown);
     }
 
     @Source
@@ -59,11 +89,12 @@ class S3Module {
     @Provides
     static AmazonS3 sourceS3(
             @Nullable @Source String region,
-            @Nullable Credential credential) {
-        return AmazonS3ClientBuilder.standard()
+            @Nullable Credential credential,
+            ComponentResources resources) {
+        return resources.register(AmazonS3ClientBuilder.standard()
                 .withRegion(region)
                 .withCredentials(Credential.toProvider(credential))
-                .build();
+                .build(), AmazonS3::shutdown);
     }
 
     @Target
@@ -71,25 +102,220 @@ class S3Module {
     @Singleton
     static AmazonS3 targetS3(
             @Nullable @Target String region,
-            @Nullable Credential credential) {
-        return AmazonS3ClientBuilder.standard()
+            @Nullable Credential credential,
+            ComponentResources resources) {
+        return resources.register(AmazonS3ClientBuilder.standard()
                 .withRegion(region)
                 .withCredentials(Credential.toProvider(credential))
+                .build(), AmazonS3::shutdown);
+    }
+
+    @Source
+    @Singleton
+    @Provides
+    static S3AsyncClient sourceAsyncS3(
+            @Nullable @Source String region,
+            @Nullable Credential credential,
+            ComponentResources resources) {
+        return resources.register(crtS3(region, credential), S3AsyncClient::close);
+    }
+
+    @Target
+    @Singleton
+    @Provides
+    static S3AsyncClient targetAsyncS3(
+            @Nullable @Target String region,
+            @Nullable Credential credential,
+            ComponentResources resources) {
+        return resources.register(crtS3(region, credential), S3AsyncClient::close);
+    }
+
+    private static S3AsyncClient crtS3(String region, Credential credential) {
+        return S3AsyncClient.crtBuilder()
+                .region(Region.of(region))
+                .credentialsProvider(toV2(Credential.toProvider(credential)))
+                .targetThroughputInGbps(CRT_THROUGHPUT_GBPS)
+                .minimumPartSizeInBytes(CRT_PART_SIZE)
                 .build();
     }
 
+    /**
+     * @return the credentials of the SDK v1 for the clients of the SDK v2, resolved on every request to follow the
+     * refresh of the provider.
+     */
+    static AwsCredentialsProvider toV2(AWSCredentialsProvider provider) {
+        return () -> {
+            final var credentials = provider.getCredentials();
+            return credentials instanceof AWSSessionCredentials
+                    ? AwsSessionCredentials.create(credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey(),
+                    ((AWSSessionCredentials) credentials).getSessionToken())
+                    : AwsBasicCredentials.create(credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey());
+        };
+    }
+
+    /**
+     * @apiNote the non-blocking engine on the CRT is selected by {@code transfer_engine=crt}, and only then are its
+     * clients built.
+     */
+    @Provides
+    @Singleton
+    static TransferEngine transferEngine(Provider<ReplicateFile> blocking, Provider<CrtTransferEngine> crt) {
+        return selectEngine(System.getenv("transfer_engine"), BandwidthGovernor.isLimited(), blocking, crt);
+    }
+
+    /**
+     * @throws IllegalStateException if the CRT is selected with a bandwidth limit, as the CRT transfers the bytes on
+     *                               its own event loop, out of the reach of the {@link BandwidthGovernor}.
+     */
+    static TransferEngine selectEngine(@Nullable String engine, boolean limited,
+                                       Provider<ReplicateFile> blocking, Provider<CrtTransferEngine> crt) {
+        if (!"crt".equalsIgnoreCase(engine)) {
+            return blocking.get();
+        }
+        if (limited) {
+            throw new IllegalStateException(String.format("The transfer engine crt cannot limit the bandwidth, "
+                            + "unset %s, %s and %s or use the default engine", BandwidthGovernor.READ_LIMIT,
+                    BandwidthGovernor.WRITE_LIMIT, BandwidthGovernor.CONTROL_FILE));
+        }
+        return crt.get();
+    }
+
+    @Default
+    @Singleton
+    @Provides
+    static AmazonCloudWatch defaultCloudWatch(
+            @Nullable @Default String region,
+            @Nullable Credential credential,
+            ComponentResources resources) {
+        return resources.register(AmazonCloudWatchClientBuilder.standard()
+                .withRegion(region)
+                .withCredentials(Credential.toProvider(credential))
+                .build(), AmazonCloudWatch::shutdown);
+    }
+
     @Source
     @Singleton
     @Provides
-    static TransferManager sourceTransfer(@Nullable @Source AmazonS3 s3) {
-        return TransferManagerBuilder.standard().withS3Client(s3).build();
+    static TransferManager sourceTransfer(@Nullable @Source AmazonS3 s3, ComponentResources resources) {
+        return resources.register(TransferManagerBuilder.standard().withS3Client(s3).build(),
+                transfer -> transfer.shutdownNow(false));
     }
 
     @Target
     @Provides
     @Singleton
-    static TransferManager targetTransfer(@Nullable @Target AmazonS3 s3) {
-        return TransferManagerBuilder.standard().withS3Client(s3).build();
+    static TransferManager targetTransfer(@Nullable @Target AmazonS3 s3, ComponentResources resources) {
+        return resources.register(TransferManagerBuilder.standard().withS3Client(s3).build(),
+                transfer -> transfer.shutdownNow(false));
+    }
+
+    /**
+     * @apiNote the workspace bucket must be in the target region, otherwise the state is kept in local files, which
+     * are lost with the task on Fargate.
+     */
+    @Provides
+    @Singleton
+    static StateStore stateStore(
+            @Nullable ReplicateBucket.Request request,
+            @Target TransferManager transfer) {
+        if (request != null && request.getWorkspace() != null) {
+            return new S3StateStore(transfer, request.getWorkspace().getName());
+        }
+
+        final var directory = Path.of(System.getProperty("java.io.tmpdir"), "drps3");
+        if (request != null) {
+            log.warn("No workspace bucket for [{}] to [{}], keep the state in {}, lost once the task stops",
+                    request.getSource().getName(), request.getTarget().getName(), directory);
+        }
+        return new FileStateStore(directory);
+    }
+
+    @Provides
+    @Singleton
+    static ReplicationLedger ledger(@Nullable ReplicateBucket.Request request,
+                                    @Nullable @Stream String stream,
+                                    StateStore store) {
+        final var replicate = required(request);
+        final var ledger = taskState(store, stream, ledgerName(replicate, replicate.getRange()), "",
+                name -> new ReplicationLedger(store, name));
+        if (replicate.getRange() != null) {
+            ledger.inherit(ledgerName(replicate, null), replicate.getRange());
+        }
+        return ledger;
+    }
+
+    @Provides
+    @Singleton
+    static UploadJournal uploadJournal(@Nullable ReplicateBucket.Request request,
+                                       @Nullable @Stream String stream,
+                                       StateStore store) {
+        final var replicate = required(request);
+        return taskState(store, stream, stateName("uploads", replicate, replicate.getRange()), "",
+                name -> new UploadJournal(store, name));
+    }
+
+    @Provides
+    @Singleton
+    static DeadLetters deadLetters(@Nullable ReplicateBucket.Request request,
+                                   @Nullable @Stream String stream,
+                                   StateStore store,
+                                   ObjectMapper mapper) {
+        final var replicate = required(request);
+        return taskState(store, stream, stateName("dead-letters", replicate, replicate.getRange()), ".jsonl",
+                name -> new DeadLetters(store, mapper, name));
+    }
+
+    private static ReplicateBucket.Request required(@Nullable ReplicateBucket.Request request) {
+        return Objects.requireNonNull(request, "The state of a replication requires its request");
+    }
+
+    /**
+     * The tasks replicating from a stream keep their states under names of their own, as they save them concurrently.
+     * A task starting takes in the state of the bucket and those left by the other tasks, saves its own, then deletes
+     * theirs, as {@link MergeRanges} does for the ranges. Another task still running saves its state again as it goes.
+     *
+     * @param stream the stream replicated from, or {@code null} if the task is the only one of its range.
+     */
+    private static <T extends TaskState> T taskState(StateStore store, @Nullable String stream, String name,
+                                                     String suffix, Function<String, T> open) {
+        if (stream == null) {
+            return open.apply(name + suffix);
+        }
+
+        final var own = name + TASK + TASK_ID + suffix;
+        final var state = open.apply(own);
+        try {
+            final var others = new ArrayList<String>();
+            for (var other : store.list(name + TASK)) {
+                if (!other.equals(own) && other.endsWith(suffix)) {
+                    others.add(other);
+                }
+            }
+
+            state.absorb(name + suffix);
+            others.forEach(state::absorb);
+            state.save();
+            for (var other : others) {
+                state.delete(other);
+            }
+            log.info("Took in the state [{}] of {} other tasks into [{}]", name + suffix, others.size(), own);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to take in the states of other tasks into [" + own + "]", e);
+        }
+        return state;
+    }
+
+    /**
+     * @apiNote every key range has a ledger of its own, as the tasks of the ranges save their ledgers concurrently. The
+     * ledger of a range inherits the entries of the bucket within the range, as merged by {@link MergeRanges}.
+     */
+    static String ledgerName(ReplicateBucket.Request request, @Nullable KeyRange range) {
+        return stateName("ledger", request, range);
+    }
+
+    private static String stateName(String kind, ReplicateBucket.Request request, @Nullable KeyRange range) {
+        final var name = kind + "/" + request.getSource().getName() + "/" + request.getTarget().getName();
+        return range == null ? name : name + "/range-" + range.getIndex();
     }
 
     @Provides
@@ -100,8 +326,8 @@ class S3Module {
 
     @Provides
     @Singleton
-    AWSSecretsManager secretsManager() {
-        return AWSSecretsManagerClientBuilder.defaultClient();
+    AWSSecretsManager secretsManager(ComponentResources resources) {
+        return resources.register(AWSSecretsManagerClientBuilder.defaultClient(), AWSSecretsManager::shutdown);
     }
 
     /**
@@ -110,8 +336,8 @@ class S3Module {
     @Provides
     @Singleton
     @Default
-    static AWSStepFunctions stepFunctions() {
-        return AWSStepFunctionsClientBuilder.defaultClient();
+    static AWSStepFunctions stepFunctions(ComponentResources resources) {
+        return resources.register(AWSStepFunctionsClientBuilder.defaultClient(), AWSStepFunctions::shutdown);
     }
 
     /**
@@ -119,8 +345,9 @@ class S3Module {
      */
     @Singleton
     @Provides
-    static DynamoDB dynamoDB(@Nullable @Target String region) {
-        return new DynamoDB(AmazonDynamoDBClientBuilder.standard().withRegion(region).build());
+    static DynamoDB dynamoDB(@Nullable @Target String region, ComponentResources resources) {
+        return resources.register(new DynamoDB(AmazonDynamoDBClientBuilder.standard().withRegion(region).build()),
+                DynamoDB::shutdown);
     }
 
     @Provides
@@ -133,7 +360,7 @@ class S3Module {
         try {
             workerId = "DRPS3-KinesisWorker"
                     + "-" + InetAddress.getLocalHost().getCanonicalHostName()
-                    + "-" + UUID.randomUUID();
+                    + "-" + TASK_ID;
         } catch (UnknownHostException e) {
             throw new IllegalStateException(e);
         }
@@ -159,8 +386,9 @@ class S3Module {
      */
     @Singleton
     @Provides
-    static AmazonKinesis kinesis(@Nullable @Target String region) {
-        return AmazonKinesisClientBuilder.standard().withRegion(region).build();
+    static AmazonKinesis kinesis(@Nullable @Target String region, ComponentResources resources) {
+        return resources.register(AmazonKinesisClientBuilder.standard().withRegion(region).build(),
+                AmazonKinesis::shutdown);
     }
 
     /**
@@ -168,7 +396,8 @@ class S3Module {
      */
     @Singleton
     @Provides
-    static KinesisProducer producer(@Nullable @Target String region) {
-        return new KinesisProducer(new KinesisProducerConfiguration().setRegion(region));
+    static KinesisProducer producer(@Nullable @Target String region, ComponentResources resources) {
+        return resources.register(new KinesisProducer(new KinesisProducerConfiguration().setRegion(region)),
+                KinesisProducer::destroy);
     }
 }
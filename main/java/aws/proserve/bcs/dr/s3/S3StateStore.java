@@ -0,0 +1,74 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.transfer.TransferManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the state as objects under a prefix of a workspace bucket. The transfer manager uploads large states in parts.
+ */
+class S3StateStore implements StateStore {
+    static final String PREFIX = "DRPS3/";
+
+    private final TransferManager transfer;
+    private final String bucket;
+
+    S3StateStore(TransferManager transfer, String bucket) {
+        this.transfer = transfer;
+        this.bucket = bucket;
+    }
+
+    @Override
+    public InputStream load(String name) {
+        try {
+            return transfer.getAmazonS3Client().getObject(bucket, PREFIX + name).getObjectContent();
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void save(String name, InputStream content, long length) throws IOException {
+        final var metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        try {
+            transfer.upload(new PutObjectRequest(bucket, PREFIX + name, content, metadata)).waitForCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving state [" + name + "]");
+        }
+    }
+
+    @Override
+    public void delete(String name) {
+        transfer.getAmazonS3Client().deleteObject(bucket, PREFIX + name);
+    }
+
+    @Override
+    public List<String> list(String prefix) {
+        final var names = new ArrayList<String>();
+        final var request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(PREFIX + prefix);
+        while (true) {
+            final var result = transfer.getAmazonS3Client().listObjectsV2(request);
+            result.getObjectSummaries().forEach(o -> names.add(o.getKey().substring(PREFIX.length())));
+            if (!result.isTruncated()) {
+                return names;
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        }
+    }
+}
@@ -3,39 +3,54 @@
 
 package aws.proserve.bcs.dr.s3;
 
-import aws.proserve.bcs.dr.lambda.VoidHandler;
+import aws.proserve.bcs.dr.lambda.BoolHandler;
 import aws.proserve.bcs.dr.lambda.annotation.Source;
+import aws.proserve.bcs.dr.lambda.annotation.Target;
 import aws.proserve.bcs.dr.lambda.dto.Resource;
 import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
 import aws.proserve.bcs.dr.s3.dto.S3Object;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.s3.AmazonS3;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.amazonaws.services.s3.transfer.TransferManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.nio.ByteBuffer;
-
-public class ScanBucket implements VoidHandler<ScanBucket.Request> {
-
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ScanBucket implements BoolHandler<ScanBucket.Request> {
+    private static final long SAFETY_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * @return {@code true} if there is more to scan, for the state machine to invoke again.
+     */
     @Override
-    public void handleRequest(Request request, Context context) {
-        S3Component.build(request.getProjectId(),
+    public boolean handleRequest(Request request, Context context) {
+        final var deadline = context == null ? Long.MAX_VALUE
+                : System.currentTimeMillis() + context.getRemainingTimeInMillis() - SAFETY_MILLIS;
+        return S3Component.build(request.getProjectId(),
                 request.getBucket().getRegion(),
                 request.getStream().getRegion(),
-                null,
+                request.getStream().getName(),
                 null)
-                .scanBucket().scan(request);
+                .scanBucket().scan(request, deadline);
     }
 
     static class Request {
         private Resource bucket;
+        private Resource target;
         private Resource stream;
+        private Resource workspace;
         private String projectId;
+        private boolean delta;
 
         public Resource getBucket() {
             return bucket;
@@ -45,6 +60,17 @@ public class ScanBucket implements VoidHandler<ScanBucket.Request> {
             this.bucket = bucket;
         }
 
+        /**
+         * @apiNote the target bucket is only required by a delta scan, which must be in the region of the stream.
+         */
+        public Resource getTarget() {
+            return target;
+        }
+
+        public void setTarget(Resource target) {
+            this.target = target;
+        }
+
         public Resource getStream() {
             return stream;
         }
@@ -53,6 +79,18 @@ public class ScanBucket implements VoidHandler<ScanBucket.Request> {
             this.stream = stream;
         }
 
+        /**
+         * @return the bucket to keep the progress of scan, in the region of the stream, or {@code null} to scan in
+         * one invocation.
+         */
+        public Resource getWorkspace() {
+            return workspace;
+        }
+
+        public void setWorkspace(Resource workspace) {
+            this.workspace = workspace;
+        }
+
         public String getProjectId() {
             return projectId;
         }
@@ -60,6 +98,17 @@ public class ScanBucket implements VoidHandler<ScanBucket.Request> {
         public void setProjectId(String projectId) {
             this.projectId = projectId;
         }
+
+        /**
+         * @return {@code true} to enqueue only the objects missing or changed in the target bucket.
+         */
+        public boolean isDelta() {
+            return delta;
+        }
+
+        public void setDelta(boolean delta) {
+            this.delta = delta;
+        }
     }
 
     @Singleton
@@ -67,36 +116,115 @@ public class ScanBucket implements VoidHandler<ScanBucket.Request> {
         private final Logger log = LoggerFactory.getLogger(getClass());
         private final ObjectMapper mapper;
         private final AmazonS3 s3;
+        private final AmazonS3 targetS3;
+        private final TransferManager transfer;
         private final KinesisProducer kinesis;
+        private final ReplicationMetrics metrics;
 
         @Inject
-        Worker(ObjectMapper mapper, @Source AmazonS3 s3, KinesisProducer kinesis) {
+        Worker(ObjectMapper mapper,
+               @Source AmazonS3 s3,
+               @Target AmazonS3 targetS3,
+               @Target TransferManager transfer,
+               KinesisProducer kinesis,
+               ReplicationMetrics metrics) {
             this.mapper = mapper;
             this.s3 = s3;
+            this.targetS3 = targetS3;
+            this.transfer = transfer;
             this.kinesis = kinesis;
+            this.metrics = metrics;
         }
 
-        void scan(Request request) {
-            final var objectSummaries = s3.listObjectsV2(request.getBucket().getName()).getObjectSummaries();
-            var count = 0;
-            for (var object : objectSummaries) {
-                kinesis.addUserRecord(request.getStream().getName(),
-                        object.getKey(), wrap(object.getKey(), object.getSize()));
-                count++;
+        /**
+         * Without a workspace, scans the whole bucket regardless of the deadline.
+         *
+         * @return {@code true} if the deadline passes before the scan is done.
+         */
+        boolean scan(Request request, long deadline) {
+            try {
+                return doScan(request, deadline);
+            } finally {
+                metrics.flush();
             }
-            kinesis.addUserRecord(request.getStream().getName(),
-                    S3Object.COMPLETED_KEY, wrap(S3Object.COMPLETED_KEY, S3Object.COMPLETED_SIZE));
+        }
+
+        private boolean doScan(Request request, long deadline) {
+            final var store = request.getWorkspace() == null ? null
+                    : new S3StateStore(transfer, request.getWorkspace().getName());
+            final var name = "scan/" + request.getStream().getName();
+            final var state = store == null ? new ScanState() : load(store, name);
+
+            final var scanner = request.isDelta()
+                    ? new BucketScanner(s3, targetS3, request.getTarget().getName(), BucketScanner.PARALLELISM)
+                    : new BucketScanner(s3);
+            final var scanned = metrics.rate("ScannedObjects", ReplicationMetrics.COUNT_PER_SECOND);
+            final var done = scanner.scan(request.getBucket().getName(), state,
+                    store == null ? Long.MAX_VALUE : deadline, page -> {
+                        send(request, page.stream()
+                                .map(o -> ImmutableS3Object.builder()
+                                        .key(o.getKey())
+                                        .size(o.getSize())
+                                        .etag(o.getETag())
+                                        .build())
+                                .collect(Collectors.toList()));
+                        scanned.add(page.size());
+                    });
+
+            // the records must be in the stream before the state moves on.
+            kinesis.flushSync();
+            if (!done) {
+                save(store, name, state);
+                log.info("Scanned {} objects so far, continue in next invocation", state.getCount());
+                return true;
+            }
+
+            send(request, List.of(ImmutableS3Object.builder()
+                    .key(S3Object.COMPLETED_KEY)
+                    .size(S3Object.COMPLETED_SIZE)
+                    .build()));
             kinesis.flushSync();
-            log.info("Scanned {} objects", count);
+            if (store != null) {
+                delete(store, name);
+            }
+            log.info("Scanned {} objects{}", state.getCount(), request.isDelta() ? " missing or changed" : "");
+            return false;
+        }
+
+        private ScanState load(StateStore store, String name) {
+            try (var input = store.load(name)) {
+                return input == null ? new ScanState() : mapper.readValue(input, ScanState.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to load scan state [" + name + "]", e);
+            }
         }
 
-        private ByteBuffer wrap(String key, long size) {
+        private void save(StateStore store, String name, ScanState state) {
             try {
-                return ByteBuffer.wrap(mapper.writeValueAsBytes(
-                        ImmutableS3Object.builder().key(key).size(size).build()));
-            } catch (JsonProcessingException e) {
-                log.warn("Unable to wrap object", e);
-                return null;
+                final var bytes = mapper.writeValueAsBytes(state);
+                store.save(name, new ByteArrayInputStream(bytes), bytes.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to save scan state [" + name + "]", e);
+            }
+        }
+
+        private void delete(StateStore store, String name) {
+            try {
+                store.delete(name);
+            } catch (IOException e) {
+                log.warn("Unable to delete scan state [" + name + "]", e);
+            }
+        }
+
+        /**
+         * Packs the objects into as few records as possible. The partition key is hashed, as a key may be longer than
+         * a partition key allows.
+         */
+        private void send(Request request, List<S3Object> objects) {
+            final var records = RecordCodec.encode(objects);
+            for (int i = 0; i < records.size(); i++) {
+                kinesis.addUserRecord(request.getStream().getName(),
+                        String.format("%08x-%d", objects.get(0).getKey().hashCode(), i), records.get(i));
             }
         }
     }
@@ -0,0 +1,184 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The progress of a bucket scan, to be saved and resumed from where it stopped.
+ * <p>
+ * The scan goes level by level through the common prefixes to discover, then lists the prefixes found in depth. The
+ * units of the current level keep their continuation tokens, so no key is sent twice or skipped on resume.
+ */
+class ScanState {
+    private List<Unit> units = new ArrayList<>(List.of(new Unit("", true)));
+    private int depth;
+    private boolean deep;
+    private boolean done;
+    private long count;
+
+    /**
+     * @return the state to list the range in depth from its start, as the range is already a share of the bucket.
+     */
+    static ScanState of(KeyRange range) {
+        final var unit = new Unit("", false);
+        unit.setLastKey(range.getStartAfter());
+        unit.setEndAt(range.getEndAt());
+
+        final var state = new ScanState();
+        state.setUnits(new ArrayList<>(List.of(unit)));
+        state.setDeep(true);
+        return state;
+    }
+
+    public List<Unit> getUnits() {
+        return units;
+    }
+
+    public void setUnits(List<Unit> units) {
+        this.units = units;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @return {@code true} if the units list everything under their prefixes, otherwise only one level.
+     */
+    public boolean isDeep() {
+        return deep;
+    }
+
+    public void setDeep(boolean deep) {
+        this.deep = deep;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized void setCount(long count) {
+        this.count = count;
+    }
+
+    synchronized void add(long count) {
+        this.count += count;
+    }
+
+    /**
+     * A listing of one prefix.
+     */
+    static class Unit {
+        private String prefix;
+        private boolean shallow;
+        private String token;
+        private String lastKey;
+        private String endAt;
+        private boolean finished;
+        private boolean capped;
+        private List<String> commonPrefixes = new ArrayList<>();
+
+        public Unit() {
+        }
+
+        Unit(String prefix, boolean shallow) {
+            this.prefix = prefix;
+            this.shallow = shallow;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * @return {@code true} to list the objects directly under the prefix, and collect the common prefixes below.
+         */
+        public boolean isShallow() {
+            return shallow;
+        }
+
+        public void setShallow(boolean shallow) {
+            this.shallow = shallow;
+        }
+
+        /**
+         * @return the continuation token of the next page, or {@code null} for the first page.
+         */
+        public String getToken() {
+            return token;
+        }
+
+        public void setToken(String token) {
+            this.token = token;
+        }
+
+        /**
+         * @return the last key listed, to resume the listing of the target in a delta scan.
+         */
+        public String getLastKey() {
+            return lastKey;
+        }
+
+        public void setLastKey(String lastKey) {
+            this.lastKey = lastKey;
+        }
+
+        /**
+         * @return the last key to list inclusively, or {@code null} to list to the end; of a capped listing, the key
+         * past its common prefixes.
+         */
+        public String getEndAt() {
+            return endAt;
+        }
+
+        public void setEndAt(String endAt) {
+            this.endAt = endAt;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public void setFinished(boolean finished) {
+            this.finished = finished;
+        }
+
+        /**
+         * @return {@code true} if the listing stopped at the most common prefixes to keep, and its end is past them.
+         */
+        public boolean isCapped() {
+            return capped;
+        }
+
+        public void setCapped(boolean capped) {
+            this.capped = capped;
+        }
+
+        public List<String> getCommonPrefixes() {
+            return commonPrefixes;
+        }
+
+        public void setCommonPrefixes(List<String> commonPrefixes) {
+            this.commonPrefixes = commonPrefixes;
+        }
+    }
+}
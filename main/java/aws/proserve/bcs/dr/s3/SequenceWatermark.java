@@ -0,0 +1,49 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Tracks the items in flight in the order they are received. The watermark is the last item below which every item
+ * has finished, which is the only position safe to checkpoint while the items finish out of order.
+ */
+class SequenceWatermark<T> {
+    private final Deque<Ticket<T>> pending = new ArrayDeque<>();
+    private T watermark;
+
+    synchronized Ticket<T> track(T item) {
+        final var ticket = new Ticket<>(item);
+        pending.add(ticket);
+        return ticket;
+    }
+
+    synchronized void complete(Ticket<T> ticket) {
+        ticket.done = true;
+        while (!pending.isEmpty() && pending.peek().done) {
+            watermark = pending.poll().item;
+        }
+    }
+
+    /**
+     * @return the last item below which every item has finished, or {@code null} if none has finished yet.
+     */
+    synchronized T get() {
+        return watermark;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    static final class Ticket<T> {
+        private final T item;
+        private boolean done;
+
+        private Ticket(T item) {
+            this.item = item;
+        }
+    }
+}
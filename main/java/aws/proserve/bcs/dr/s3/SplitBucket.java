@@ -0,0 +1,113 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Default;
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.s3.AmazonS3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the keys of a bucket into ranges of about the same number of objects, one range for each replication task.
+ * The state machine runs one {@link ReplicateBucket} task per range, and then {@link MergeRanges}.
+ */
+public class SplitBucket implements RequestHandler<SplitBucket.Request, List<KeyRange>> {
+    private static final long SAFETY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    @Override
+    public List<KeyRange> handleRequest(Request request, Context context) {
+        final var deadline = context == null ? Long.MAX_VALUE
+                : System.currentTimeMillis() + context.getRemainingTimeInMillis() - SAFETY_MILLIS;
+        return S3Component.build(request.getProjectId(), request.getBucket().getRegion())
+                .splitBucket()
+                .split(request.getBucket().getName(), request.getTasks(), deadline);
+    }
+
+    static class Request {
+        private Resource bucket;
+        private String projectId;
+        private int tasks;
+
+        public Resource getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(Resource bucket) {
+            this.bucket = bucket;
+        }
+
+        public String getProjectId() {
+            return projectId;
+        }
+
+        public void setProjectId(String projectId) {
+            this.projectId = projectId;
+        }
+
+        public int getTasks() {
+            return tasks;
+        }
+
+        public void setTasks(int tasks) {
+            this.tasks = tasks;
+        }
+    }
+
+    @Singleton
+    static class Worker {
+        private final Logger log = LoggerFactory.getLogger(getClass());
+        private final AmazonS3 s3;
+
+        @Inject
+        Worker(@Default AmazonS3 s3) {
+            this.s3 = s3;
+        }
+
+        /**
+         * Splits at the quantiles of the keys sampled across the key space by {@link KeySampler}, each weighted by the
+         * objects it stands for. A bucket too large to count before the deadline is split by the estimates so far.
+         */
+        List<KeyRange> split(String bucket, int tasks, long deadline) {
+            return split(bucket, tasks, new KeySampler(s3, bucket, deadline).sample());
+        }
+
+        List<KeyRange> split(String bucket, int tasks, List<KeySampler.Sample> samples) {
+            final var total = samples.stream().mapToDouble(KeySampler.Sample::getWeight).sum();
+            final var ranges = new ArrayList<KeyRange>(tasks);
+            String previous = null;
+            var weight = 0.0;
+            var i = 1;
+            for (var sample : samples) {
+                weight += sample.getWeight();
+                if (i >= tasks) {
+                    break;
+                }
+                if (weight < total * i / tasks) {
+                    continue;
+                }
+
+                while (i < tasks && weight >= total * i / tasks) {
+                    i++;
+                }
+                if (previous == null || BucketScanner.compare(sample.getKey(), previous) > 0) {
+                    ranges.add(new KeyRange(ranges.size(), previous, sample.getKey()));
+                    previous = sample.getKey();
+                }
+            }
+            ranges.add(new KeyRange(ranges.size(), previous, null));
+
+            log.info("Split bucket [{}] of about {} objects into {} ranges", bucket, Math.round(total), ranges.size());
+            return ranges;
+        }
+    }
+}
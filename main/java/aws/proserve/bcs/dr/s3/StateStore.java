@@ -0,0 +1,28 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Keeps the state of a replication by name, so that it survives the task, the stream and the lease table.
+ */
+interface StateStore {
+
+    /**
+     * @return the content to be closed by the caller, or {@code null} if absent.
+     */
+    InputStream load(String name) throws IOException;
+
+    void save(String name, InputStream content, long length) throws IOException;
+
+    void delete(String name) throws IOException;
+
+    /**
+     * @return the names of the states starting with the prefix.
+     */
+    List<String> list(String prefix) throws IOException;
+}
@@ -0,0 +1,132 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.Stream;
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.DescribeStreamSummaryRequest;
+import com.amazonaws.services.kinesis.model.ScalingType;
+import com.amazonaws.services.kinesis.model.UpdateShardCountRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Resizes the stream while replicating. When the consumers fall behind the stream while the lanes still have room,
+ * the shards are the bottleneck and are doubled. When the stream stays idle, the shards are halved to save cost.
+ * <p>
+ * Kinesis allows one resize to at most double or half the shards, and a few resizes a day, hence the cool down. The
+ * records already in the stream stay in their shards, so a resize mostly helps the records scanned afterwards.
+ */
+@Singleton
+class StreamScaler {
+    private static final long CHECK_INTERVAL_MINUTES = 5;
+    private static final long COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long BEHIND_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long IDLE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final int IDLE_CHECKS = 6;
+    private static final int LOW_BACKLOG = 64;
+    private static final int MIN_SHARDS = 1;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonKinesis kinesis;
+    private final String stream;
+    private final ReplicationMetrics metrics;
+    private final TransferLanes lanes;
+    private final LongSupplier clock;
+    private final AtomicInteger shards = new AtomicInteger();
+    private ScheduledExecutorService scheduler;
+    private long resizedMillis;
+    private int idleChecks;
+
+    @Inject
+    StreamScaler(AmazonKinesis kinesis,
+                 @Nullable @Stream String stream,
+                 ReplicationMetrics metrics,
+                 TransferLanes lanes) {
+        this(kinesis, stream, metrics, lanes, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock the time in epoch milliseconds, to time the cool down.
+     */
+    StreamScaler(AmazonKinesis kinesis, String stream, ReplicationMetrics metrics, TransferLanes lanes,
+                 LongSupplier clock) {
+        this.kinesis = kinesis;
+        this.stream = stream;
+        this.metrics = metrics;
+        this.lanes = lanes;
+        this.clock = clock;
+        metrics.gauge("OpenShards", shards::get);
+    }
+
+    synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final var thread = new Thread(runnable, "stream-scaler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MINUTES, CHECK_INTERVAL_MINUTES,
+                    TimeUnit.MINUTES);
+        }
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    void check() {
+        try {
+            final var summary = kinesis.describeStreamSummary(new DescribeStreamSummaryRequest()
+                    .withStreamName(stream)).getStreamDescriptionSummary();
+            final int current = summary.getOpenShardCount();
+            shards.set(current);
+            if (!"ACTIVE".equals(summary.getStreamStatus())) {
+                return;
+            }
+
+            final var lag = metrics.maxShardLag();
+            final var backlog = lanes.backlog();
+            final int target;
+            if (lag > BEHIND_MILLIS && backlog < LOW_BACKLOG) {
+                idleChecks = 0;
+                target = Math.min(CreateStream.Worker.MAX_SHARDS, current * 2);
+            } else if (lag < IDLE_MILLIS && backlog == 0 && ++idleChecks >= IDLE_CHECKS) {
+                target = Math.max(MIN_SHARDS, (current + 1) / 2);
+            } else {
+                if (lag >= IDLE_MILLIS || backlog > 0) {
+                    idleChecks = 0;
+                }
+                return;
+            }
+
+            if (target == current || clock.getAsLong() - resizedMillis < COOL_DOWN_MILLIS) {
+                return;
+            }
+
+            log.info("Resize stream [{}] from {} to {} shards, lag {} ms, backlog {}",
+                    stream, current, target, lag, backlog);
+            kinesis.updateShardCount(new UpdateShardCountRequest()
+                    .withStreamName(stream)
+                    .withTargetShardCount(target)
+                    .withScalingType(ScalingType.UNIFORM_SCALING));
+            resizedMillis = clock.getAsLong();
+            idleChecks = 0;
+        } catch (RuntimeException e) {
+            log.warn("Unable to check the size of stream [" + stream + "]", e);
+        }
+    }
+}
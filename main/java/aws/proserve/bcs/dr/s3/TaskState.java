@@ -0,0 +1,26 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.io.IOException;
+
+/**
+ * A state of the replication saved by name in the {@link StateStore}, which a task replicating from the stream keeps
+ * under a name of its own, as the tasks sharing the stream save their states concurrently. A task starting takes in
+ * the states left by the other tasks, see {@link S3Module}.
+ */
+interface TaskState {
+
+    /**
+     * Takes in the state saved under the name, if any, before this state records anything.
+     */
+    void absorb(String name);
+
+    /**
+     * Deletes the state saved under the name, once taken in and saved.
+     */
+    void delete(String name) throws IOException;
+
+    void save() throws IOException;
+}
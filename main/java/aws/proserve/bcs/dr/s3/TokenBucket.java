@@ -0,0 +1,86 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket of bytes, shared by many streams. A caller takes the tokens it needs even if the bucket runs into
+ * debt, and then waits for the debt to be paid off, so a large read is never starved by small ones. The bucket holds
+ * at most one second of tokens, which is the largest burst allowed after an idle period.
+ */
+class TokenBucket {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier clock;
+    private volatile long rate;
+    private double available;
+    private long refilledNanos;
+
+    /**
+     * @param rate in bytes per second, or {@code 0} for unlimited.
+     */
+    TokenBucket(long rate) {
+        this(rate, System::nanoTime);
+    }
+
+    /**
+     * @param clock the time in nanoseconds, to refill by.
+     */
+    TokenBucket(long rate, LongSupplier clock) {
+        this.clock = clock;
+        this.rate = rate;
+        this.available = rate;
+        this.refilledNanos = clock.getAsLong();
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        available = Math.min(available, rate);
+    }
+
+    void acquire(long bytes) throws InterruptedIOException {
+        final var waitNanos = take(bytes);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+
+    /**
+     * Takes the tokens, into debt if short of them.
+     *
+     * @return the nanoseconds to wait for the debt to be paid off.
+     */
+    long take(long bytes) {
+        if (rate <= 0 || bytes <= 0) {
+            return 0;
+        }
+
+        synchronized (this) {
+            refill();
+            available -= bytes;
+            return available >= 0 || rate <= 0 ? 0 : (long) (-available / rate * NANOS_PER_SECOND);
+        }
+    }
+
+    private void refill() {
+        final var now = clock.getAsLong();
+        if (rate > 0) {
+            available = Math.min(rate, available + (now - refilledNanos) / NANOS_PER_SECOND * rate);
+        }
+        refilledNanos = now;
+    }
+}
@@ -0,0 +1,272 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import javax.annotation.Nullable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksums computed while the bytes stream through the copy: the MD5 of every part, from which S3 derives the ETag,
+ * and the CRC32C of the whole object, combined from the parts as they finish in any order.
+ * <p>
+ * S3 checks the CRC32C only of a single {@code PUT}, as the SDK sends no checksums of parts; the parts are checked by
+ * their {@code Content-MD5} instead. The CRC32C is unknown once a part is resumed rather than read.
+ */
+class TransferChecksum {
+    private static final int CRC32C_POLYNOMIAL = 0x82F63B78;
+
+    private final byte[][] digests;
+    private final int[] crcs;
+    private final boolean[] crcKnown;
+    private final long[] lengths;
+
+    TransferChecksum(int parts) {
+        this.digests = new byte[parts][];
+        this.crcs = new int[parts];
+        this.crcKnown = new boolean[parts];
+        this.lengths = new long[parts];
+    }
+
+    /**
+     * @param number starts from 1, as the part number of S3.
+     */
+    synchronized void complete(int number, Part part) {
+        digests[number - 1] = part.md5.digest();
+        crcs[number - 1] = (int) part.crc.getValue();
+        crcKnown[number - 1] = true;
+        lengths[number - 1] = part.length;
+    }
+
+    /**
+     * Takes a part uploaded before from its ETag, the hex of its MD5 unless encrypted by KMS. The CRC32C of such a part
+     * is unknown, so is {@link #crc32c}.
+     *
+     * @param etag of the part, or {@code null} if not an MD5, in which case {@link #etag} is unknown.
+     */
+    synchronized void resume(int number, @Nullable String etag, long length) {
+        digests[number - 1] = etag == null ? null : unhex(unquote(etag));
+        crcs[number - 1] = 0;
+        crcKnown[number - 1] = false;
+        lengths[number - 1] = length;
+    }
+
+    synchronized byte[] digest(int number) {
+        return digests[number - 1];
+    }
+
+    /**
+     * @return {@code false} if the MD5 of any part is unknown, so is {@link #etag}.
+     */
+    synchronized boolean isKnown() {
+        for (var digest : digests) {
+            if (digest == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the ETag that S3 computes from the same bytes and the same part layout, or {@code null} if the MD5 of any
+     * part is unknown.
+     */
+    @Nullable
+    synchronized String etag() {
+        if (!isKnown()) {
+            return null;
+        }
+        return digests.length == 1 ? hex(digests[0]) : multipartEtag();
+    }
+
+    /**
+     * @return the ETag of a multipart upload of the parts, even of a single part.
+     */
+    private String multipartEtag() {
+        final var md5 = md5();
+        for (var digest : digests) {
+            md5.update(digest);
+        }
+        return hex(md5.digest()) + "-" + digests.length;
+    }
+
+    /**
+     * @return {@code false} if any part is resumed, so is {@link #crc32c}.
+     */
+    synchronized boolean isCrc32cKnown() {
+        for (var known : crcKnown) {
+            if (!known) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the CRC32C of the whole object, only meaningful if {@link #isCrc32cKnown}.
+     */
+    synchronized int crc32c() {
+        var crc = crcs[0];
+        for (int i = 1; i < crcs.length; i++) {
+            crc = combine(crc, crcs[i], lengths[i]);
+        }
+        return crc;
+    }
+
+    /**
+     * @return the CRC32C in the format of the checksum header of S3, or {@code null} if unknown.
+     */
+    @Nullable
+    synchronized String crc32cBase64() {
+        if (!isCrc32cKnown()) {
+            return null;
+        }
+
+        final var crc = crc32c();
+        return Base64.getEncoder().encodeToString(new byte[]{
+                (byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc});
+    }
+
+    /**
+     * A single part covers the whole object whatever its size, while many parts are comparable only if split at the
+     * same bytes, that is all of the part size of the source but the last.
+     *
+     * @param sourcePartSize the size of the first part of a multipart source, or {@code 0} if unknown.
+     * @return {@code true} if the source ETag comes from the same part boundaries, thus comparable with {@link #etag}.
+     */
+    synchronized boolean isComparable(String sourceEtag, long sourcePartSize) {
+        if (sourceEtag == null || !isKnown()) {
+            return false;
+        }
+
+        final var dash = sourceEtag.indexOf('-');
+        final var parts = dash < 0 ? "1" : unquote(sourceEtag.substring(dash + 1));
+        if (!parts.equals(String.valueOf(digests.length))) {
+            return false;
+        }
+        for (int i = 0; i < lengths.length - 1; i++) {
+            if (lengths[i] != sourcePartSize) {
+                return false;
+            }
+        }
+        return lengths.length == 1 || lengths[lengths.length - 1] <= sourcePartSize;
+    }
+
+    /**
+     * Compares with a plain ETag, or with the ETag of a multipart upload, which differs for a single part.
+     */
+    synchronized boolean matches(String etag) {
+        if (!isKnown()) {
+            return false;
+        }
+        final var unquoted = unquote(etag);
+        return unquoted.equalsIgnoreCase(unquoted.indexOf('-') < 0 ? etag() : multipartEtag());
+    }
+
+    static String unquote(String etag) {
+        return etag.replace("\"", "");
+    }
+
+    static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is always available", e);
+        }
+    }
+
+    private static byte[] unhex(String hex) {
+        final var bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String hex(byte[] bytes) {
+        final var builder = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the CRC of two blocks concatenated, from the CRC of each block, as {@code crc32_combine} of zlib.
+     */
+    static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        final var even = new long[32];
+        final var odd = new long[32];
+
+        // the operator for one zero bit
+        odd[0] = CRC32C_POLYNOMIAL & 0xFFFFFFFFL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // the operators for two and four zero bits
+        square(even, odd);
+        square(odd, even);
+
+        // apply the zeros of the second block to the first crc, one zero byte first
+        long crc = crc1 & 0xFFFFFFFFL;
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc = times(even, crc);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc = times(odd, crc);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return (int) (crc ^ (crc2 & 0xFFFFFFFFL));
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * The checksums of one part, updated as its bytes are read.
+     */
+    static final class Part {
+        private final MessageDigest md5 = md5();
+        private final CRC32C crc = new CRC32C();
+        private long length;
+
+        void update(byte[] buffer, int offset, int length) {
+            md5.update(buffer, offset, length);
+            crc.update(buffer, offset, length);
+            this.length += length;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Copies one object from the source bucket to the target bucket, either on the blocking {@link ReplicateFile} or on
+ * the non-blocking {@link CrtTransferEngine}, as bound in {@link S3Module}.
+ */
+interface TransferEngine {
+
+    /**
+     * @return the status of the copy, never throwing; a failed object is captured in the dead letters instead.
+     */
+    Status copy(S3Object object);
+
+    /**
+     * @return completes with the status of the copy, never exceptionally; on the caller thread unless the engine is
+     * {@linkplain #isNonBlocking() non-blocking}.
+     */
+    default CompletableFuture<Status> copyAsync(S3Object object) {
+        return CompletableFuture.completedFuture(copy(object));
+    }
+
+    /**
+     * @return whether {@link #copyAsync} returns without waiting for the copy, so that the callers bound the copies in
+     * flight by permits rather than by threads.
+     */
+    default boolean isNonBlocking() {
+        return false;
+    }
+
+    /**
+     * Hints that the object is to be copied soon, so that the engine may fetch what it needs ahead.
+     */
+    default void prefetch(S3Object object) {
+    }
+
+    /**
+     * Drops what was fetched ahead for the object, which is skipped rather than copied.
+     */
+    default void forget(S3Object object) {
+    }
+}
@@ -0,0 +1,195 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Schedules the copies in separate lanes by object size, each with its own concurrency and queue. Thousands of small
+ * objects keep flowing in their lane while a few huge objects use the bandwidth in theirs.
+ * <p>
+ * A blocking copy runs on a thread of its lane, while a non-blocking copy is started once a permit of its lane is free
+ * and holds no thread, which allows many more non-blocking copies in flight than threads.
+ */
+@Singleton
+class TransferLanes {
+    private static final long ONE_MB = 1024 * 1024;
+    private static final long REPORT_INTERVAL_SECONDS = TimeUnit.MINUTES.toSeconds(1);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Lane tiny = new Lane("tiny", 8 * ONE_MB, 64, 1024);
+    private final Lane medium = new Lane("medium", 1024 * ONE_MB, 16, 128);
+    private final Lane huge = new Lane("huge", Long.MAX_VALUE, 4, 16);
+    private final List<Lane> lanes = List.of(tiny, medium, huge);
+
+    @Inject
+    TransferLanes(ReplicationMetrics metrics) {
+        lanes.forEach(lane -> metrics.gauge("QueueDepth/" + lane.name, lane::queueDepth));
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "lane-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::report, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    CompletableFuture<Void> submit(S3Object object, Runnable copy) {
+        return lane(object.getSize()).submit(object, copy);
+    }
+
+    /**
+     * @param copy starts a non-blocking copy, called once a permit of the lane is free.
+     */
+    CompletableFuture<Void> submitAsync(S3Object object, Supplier<CompletableFuture<?>> copy) {
+        return lane(object.getSize()).submitAsync(object, copy);
+    }
+
+    Lane lane(long size) {
+        for (var lane : lanes) {
+            if (size < lane.limit) {
+                return lane;
+            }
+        }
+        return huge;
+    }
+
+    List<Lane> lanes() {
+        return lanes;
+    }
+
+    /**
+     * @return the number of objects waiting in all lanes.
+     */
+    int backlog() {
+        return lanes.stream().mapToInt(Lane::queueDepth).sum();
+    }
+
+    void report() {
+        for (var lane : lanes) {
+            final var elapsed = Math.max(1, System.nanoTime() - lane.reportedNanos) / 1e9;
+            lane.reportedNanos = System.nanoTime();
+            log.info("Lane [{}]: queue {}, active {}, {} objects/s, {} MB/s",
+                    lane.name, lane.queueDepth(), lane.active(),
+                    String.format("%.1f", lane.objects.sumThenReset() / elapsed),
+                    String.format("%.1f", lane.bytes.sumThenReset() / elapsed / ONE_MB));
+        }
+    }
+
+    static final class Lane {
+        private final String name;
+        private final long limit;
+        private final ThreadPoolExecutor executor;
+        private final int asyncConcurrency;
+        private final Semaphore permits;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger drains = new AtomicInteger();
+        private final LongAdder objects = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private volatile long reportedNanos = System.nanoTime();
+
+        /**
+         * @param limit            the exclusive upper bound of object size in this lane.
+         * @param concurrency      the threads of the blocking copies.
+         * @param asyncConcurrency the permits of the non-blocking copies.
+         */
+        private Lane(String name, long limit, int concurrency, int asyncConcurrency) {
+            this.name = name;
+            this.limit = limit;
+            this.asyncConcurrency = asyncConcurrency;
+            this.permits = new Semaphore(asyncConcurrency);
+            this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                final var thread = new Thread(runnable, "lane-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private CompletableFuture<Void> submit(S3Object object, Runnable copy) {
+            return CompletableFuture.runAsync(() -> {
+                copy.run();
+                objects.increment();
+                bytes.add(object.getSize());
+            }, executor);
+        }
+
+        private CompletableFuture<Void> submitAsync(S3Object object, Supplier<CompletableFuture<?>> copy) {
+            final var result = new CompletableFuture<Void>();
+            pending.add(() -> start(copy).whenComplete((v, e) -> {
+                permits.release();
+                drain();
+                if (e == null) {
+                    objects.increment();
+                    bytes.add(object.getSize());
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(e);
+                }
+            }));
+            drain();
+            return result;
+        }
+
+        private static CompletableFuture<?> start(Supplier<CompletableFuture<?>> copy) {
+            try {
+                return copy.get();
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        /**
+         * Starts the pending copies while permits are free. Only one thread drains at a time, and it drains again if
+         * a copy was added or a permit released meanwhile, so that a copy completing at once does not recurse.
+         */
+        private void drain() {
+            if (drains.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                while (!pending.isEmpty() && permits.tryAcquire()) {
+                    final var next = pending.poll();
+                    if (next == null) {
+                        permits.release();
+                    } else {
+                        next.run();
+                    }
+                }
+                missed = drains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int queueDepth() {
+            return executor.getQueue().size() + pending.size();
+        }
+
+        int active() {
+            return executor.getActiveCount() + asyncConcurrency - permits.availablePermits();
+        }
+    }
+}
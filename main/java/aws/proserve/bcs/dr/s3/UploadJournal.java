@@ -0,0 +1,256 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records the multipart uploads in progress by object key, with the ETags of their parts, so that a retry or a re-run
+ * continues an upload from the parts already uploaded rather than from byte 0.
+ * <p>
+ * The parts recorded are a hint only; S3 lists the parts of an upload as the truth before they are reused.
+ */
+class UploadJournal implements TaskState {
+    private static final int MAGIC = 0x44524A31;
+    private static final long SAVE_INTERVAL_MINUTES = 1;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final StateStore store;
+    private final String name;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "upload-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    UploadJournal(StateStore store, String name) {
+        this.store = store;
+        this.name = name;
+        load();
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (dirty.get()) {
+                    save();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to save upload journal [" + name + "]", e);
+            }
+        }, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @return the upload recorded for the key, or {@code null} if absent.
+     */
+    Upload get(String key) {
+        return uploads.get(key);
+    }
+
+    Upload begin(String key, String uploadId, String sourceEtag, long length, long partSize, String sse) {
+        final var upload = new Upload(key, uploadId, sourceEtag, length, partSize, sse, System.currentTimeMillis());
+        uploads.put(key, upload);
+        active.add(uploadId);
+        dirty.set(true);
+        return upload;
+    }
+
+    /**
+     * Marks an upload recorded earlier as in progress again, so that the sweeper leaves it alone.
+     */
+    void resume(Upload upload) {
+        active.add(upload.uploadId);
+    }
+
+    void part(Upload upload, int number, String etag) {
+        upload.parts.put(number, etag);
+        dirty.set(true);
+    }
+
+    /**
+     * Keeps the upload for a later retry, but no longer in progress.
+     */
+    void release(String uploadId) {
+        active.remove(uploadId);
+    }
+
+    /**
+     * Forgets the upload, once completed or aborted.
+     */
+    void remove(String key, String uploadId) {
+        active.remove(uploadId);
+        final var upload = uploads.get(key);
+        if (upload != null && upload.uploadId.equals(uploadId) && uploads.remove(key, upload)) {
+            dirty.set(true);
+        }
+    }
+
+    boolean isActive(String uploadId) {
+        return active.contains(uploadId);
+    }
+
+    boolean contains(String key, String uploadId) {
+        final var upload = uploads.get(key);
+        return upload != null && upload.uploadId.equals(uploadId);
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Takes in the uploads of another journal, those of this journal winning on the same key.
+     */
+    @Override
+    public void absorb(String name) {
+        final var other = new UploadJournal(store, name);
+        other.close();
+        other.uploads.values().forEach(upload -> {
+            if (uploads.putIfAbsent(upload.key, upload) == null) {
+                dirty.set(true);
+            }
+        });
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        store.delete(name);
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        dirty.set(false);
+        final var bytes = new ByteArrayOutputStream();
+        final var output = new DataOutputStream(bytes);
+        final var snapshot = Map.copyOf(uploads);
+
+        output.writeInt(MAGIC);
+        output.writeInt(snapshot.size());
+        for (var upload : snapshot.values()) {
+            output.writeUTF(upload.key);
+            output.writeUTF(upload.uploadId);
+            output.writeUTF(upload.sourceEtag == null ? "" : upload.sourceEtag);
+            output.writeLong(upload.length);
+            output.writeLong(upload.partSize);
+            output.writeUTF(upload.sse == null ? "" : upload.sse);
+            output.writeLong(upload.initiatedMillis);
+
+            final var parts = Map.copyOf(upload.parts);
+            output.writeInt(parts.size());
+            for (var part : parts.entrySet()) {
+                output.writeInt(part.getKey());
+                output.writeUTF(part.getValue());
+            }
+        }
+
+        store.save(name, new ByteArrayInputStream(bytes.toByteArray()), bytes.size());
+        log.info("Saved upload journal [{}] of {} uploads", name, snapshot.size());
+    }
+
+    private void load() {
+        try (var stream = store.load(name)) {
+            if (stream == null) {
+                return;
+            }
+
+            final var input = new DataInputStream(new BufferedInputStream(stream));
+            if (input.readInt() != MAGIC) {
+                log.warn("Ignore upload journal [{}] of unknown format", name);
+                return;
+            }
+
+            for (int count = input.readInt(); count > 0; count--) {
+                final var upload = new Upload(input.readUTF(), input.readUTF(), emptyToNull(input.readUTF()),
+                        input.readLong(), input.readLong(), emptyToNull(input.readUTF()), input.readLong());
+                for (int parts = input.readInt(); parts > 0; parts--) {
+                    upload.parts.put(input.readInt(), input.readUTF());
+                }
+                uploads.put(upload.key, upload);
+            }
+            log.info("Loaded upload journal [{}] with {} uploads", name, uploads.size());
+        } catch (IOException e) {
+            log.warn("Unable to load upload journal [" + name + "], start from empty", e);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    static final class Upload {
+        private final String key;
+        private final String uploadId;
+        private final String sourceEtag;
+        private final long length;
+        private final long partSize;
+        private final String sse;
+        private final long initiatedMillis;
+        private final Map<Integer, String> parts = new ConcurrentSkipListMap<>();
+
+        private Upload(String key, String uploadId, String sourceEtag, long length, long partSize, String sse,
+                       long initiatedMillis) {
+            this.key = key;
+            this.uploadId = uploadId;
+            this.sourceEtag = sourceEtag;
+            this.length = length;
+            this.partSize = partSize;
+            this.sse = sse;
+            this.initiatedMillis = initiatedMillis;
+        }
+
+        /**
+         * @return {@code true} if the upload is of the same version of the source object, thus safe to continue.
+         */
+        boolean isOf(String sourceEtag, long length) {
+            return this.length == length && sourceEtag != null && sourceEtag.equals(this.sourceEtag);
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getUploadId() {
+            return uploadId;
+        }
+
+        long getPartSize() {
+            return partSize;
+        }
+
+        /**
+         * @return the server side encryption of the upload, under which the part ETags are not MD5.
+         */
+        String getSse() {
+            return sse;
+        }
+
+        long getInitiatedMillis() {
+            return initiatedMillis;
+        }
+
+        /**
+         * @return the number of parts recorded as uploaded.
+         */
+        int getParts() {
+            return parts.size();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.annotation.Target;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aborts the multipart uploads in the target bucket left behind longer than a maximum age, set by the environment
+ * variable {@code abort_uploads_after_hours}, 7 days by default. Only the uploads recorded by the journals of this
+ * replication are aborted, unless the environment variable {@code abort_all_uploads} is {@code true}, as the target
+ * bucket may hold the uploads of other writers. The uploads in progress in this task, and the keys outside the range
+ * of this task, are left alone.
+ */
+@Singleton
+class UploadSweeper {
+    private static final long DEFAULT_MAX_AGE_HOURS = TimeUnit.DAYS.toHours(7);
+    private static final long SWEEP_INTERVAL_HOURS = 6;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AmazonS3 targetS3;
+    private final ReplicateBucket.Request request;
+    private final UploadJournal journal;
+    private final long maxAgeMillis;
+    private final boolean all;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    UploadSweeper(@Target AmazonS3 targetS3,
+                  @Nullable ReplicateBucket.Request request,
+                  UploadJournal journal) {
+        this(targetS3, request, journal, maxAgeMillis(System.getenv("abort_uploads_after_hours")),
+                Boolean.parseBoolean(System.getenv("abort_all_uploads")));
+    }
+
+    /**
+     * @param all {@code true} to abort the uploads not recorded by the journals too.
+     */
+    UploadSweeper(AmazonS3 targetS3, ReplicateBucket.Request request, UploadJournal journal, long maxAgeMillis,
+                  boolean all) {
+        this.targetS3 = targetS3;
+        this.request = request;
+        this.journal = journal;
+        this.maxAgeMillis = maxAgeMillis;
+        this.all = all;
+    }
+
+    private static long maxAgeMillis(@Nullable String hours) {
+        return TimeUnit.HOURS.toMillis(hours == null ? DEFAULT_MAX_AGE_HOURS : Long.parseLong(hours));
+    }
+
+    synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final var thread = new Thread(runnable, "upload-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL_HOURS, TimeUnit.HOURS);
+        }
+    }
+
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the number of uploads aborted.
+     */
+    int sweep() {
+        final var bucket = request.getTarget().getName();
+        final var range = request.getRange();
+        final var before = System.currentTimeMillis() - maxAgeMillis;
+        int aborted = 0;
+        try {
+            var listing = targetS3.listMultipartUploads(new ListMultipartUploadsRequest(bucket));
+            while (true) {
+                for (var upload : listing.getMultipartUploads()) {
+                    if (upload.getInitiated().getTime() >= before
+                            || !(all || journal.contains(upload.getKey(), upload.getUploadId()))
+                            || (range != null && !range.contains(upload.getKey()))
+                            || journal.isActive(upload.getUploadId())) {
+                        continue;
+                    }
+
+                    log.info("Abort upload [{}] of {}, initiated at {}",
+                            upload.getUploadId(), upload.getKey(), upload.getInitiated());
+                    targetS3.abortMultipartUpload(
+                            new AbortMultipartUploadRequest(bucket, upload.getKey(), upload.getUploadId()));
+                    journal.remove(upload.getKey(), upload.getUploadId());
+                    aborted++;
+                }
+
+                if (!listing.isTruncated()) {
+                    break;
+                }
+                listing = targetS3.listMultipartUploads(new ListMultipartUploadsRequest(bucket)
+                        .withKeyMarker(listing.getNextKeyMarker())
+                        .withUploadIdMarker(listing.getNextUploadIdMarker()));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to sweep the uploads of bucket [" + bucket + "]", e);
+        }
+        log.info("Aborted {} uploads older than {} hours", aborted, TimeUnit.MILLISECONDS.toHours(maxAgeMillis));
+        return aborted;
+    }
+}
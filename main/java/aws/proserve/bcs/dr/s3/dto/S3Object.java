@@ -8,6 +8,8 @@ import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.immutables.value.Value;
 
+import javax.annotation.Nullable;
+
 @JsonSerialize(as = ImmutableS3Object.class)
 @JsonDeserialize(as = ImmutableS3Object.class)
 @Value.Immutable
@@ -23,4 +25,10 @@ public interface S3Object {
     String getKey();
 
     long getSize();
+
+    /**
+     * @apiNote absent in the records of earlier versions.
+     */
+    @Nullable
+    String getEtag();
 }
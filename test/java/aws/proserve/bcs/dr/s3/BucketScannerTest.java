@@ -0,0 +1,233 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BucketScannerTest {
+    private static final String MD5 = "\"0123456789abcdef0123456789abcdef\"";
+    private static final String OTHER_MD5 = "\"fedcba9876543210fedcba9876543210\"";
+
+    private final Listing source = new Listing("source");
+    private final Listing target = new Listing("target");
+
+    @Test
+    void sendsTheObjectsMissingOrChangedInTheTarget() {
+        source.put("a", 1, MD5, 0);
+        source.put("b", 1, MD5, 0);
+        source.put("c", 2, MD5, 0);
+        source.put("d", 1, MD5, 0);
+        source.put("f", 1, MD5, 0);
+        target.put("a", 1, MD5, 0);
+        target.put("aa", 1, MD5, 0);
+        target.put("c", 1, MD5, 0);
+        target.put("d", 1, OTHER_MD5, 0);
+        target.put("e", 1, MD5, 0);
+        target.put("z", 1, MD5, 0);
+
+        assertEquals(List.of("b", "c", "d", "f"), delta());
+    }
+
+    @Test
+    void comparesMultipartObjectsByTheirModifiedTime() {
+        source.put("same", 1, "\"abc-2\"", 10);
+        source.put("newer", 1, "\"abc-2\"", 20);
+        source.put("older", 1, MD5, 10);
+        target.put("same", 1, "\"def-3\"", 10);
+        target.put("newer", 1, "\"abc-2\"", 10);
+        target.put("older", 1, "\"def-3\"", 20);
+
+        assertEquals(List.of("newer"), delta());
+    }
+
+    @Test
+    void mergesInTheOrderOfCodePoints() {
+        final var bmp = "a\uFFFF";
+        final var supplementary = "a\uD83D\uDE00";
+        source.put(supplementary, 1, MD5, 0);
+        target.put(bmp, 1, MD5, 0);
+        target.put(supplementary, 1, MD5, 0);
+
+        assertTrue(BucketScanner.compare(bmp, supplementary) < 0);
+        assertTrue(bmp.compareTo(supplementary) > 0);
+        assertEquals(List.of(), delta());
+    }
+
+    @Test
+    void sendsEveryObjectAgainstAnEmptyTarget() {
+        final var keys = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            keys.add(String.format("key-%02d", i));
+            source.put(keys.get(i), i, MD5, 0);
+        }
+
+        assertEquals(keys, delta());
+    }
+
+    /**
+     * A level of more common prefixes than kept is capped, and the keys after the prefixes kept are listed in depth,
+     * each key once.
+     */
+    @Test
+    void listsInDepthPastTheCommonPrefixesKept() {
+        final var s3 = new InMemoryS3();
+        final var keys = new ArrayList<String>();
+        for (int i = 0; i < 1500; i++) {
+            keys.add(String.format("folder-%04d/object", i));
+            keys.add(String.format("folder-%04d/sub/object", i));
+            keys.add(String.format("object-%04d", i));
+        }
+        keys.add("folder-0999/" + BucketScanner.MAX_CODE_POINT + "object");
+        keys.forEach(key -> s3.put(source.bucket, key, new byte[0], MD5));
+
+        final var state = new ScanState();
+        final var sent = new CopyOnWriteArrayList<String>();
+        assertTrue(new BucketScanner(s3, null, null, 4, 100).scan(source.bucket, state, Long.MAX_VALUE,
+                page -> page.forEach(o -> sent.add(o.getKey()))));
+
+        keys.sort(BucketScanner::compare);
+        sent.sort(BucketScanner::compare);
+        assertEquals(keys, sent);
+        assertTrue(state.getUnits().size() <= 1001, "units " + state.getUnits().size());
+        assertEquals(keys.size(), state.getCount());
+    }
+
+    /**
+     * A scan stopped at its deadline is saved and loaded as the handler does, and resumed invocation by invocation
+     * until done, each key sent once.
+     */
+    @Test
+    void resumesAScanStoppedAtItsDeadline() throws IOException {
+        final var s3 = new Expiring();
+        final var keys = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 30; j++) {
+                keys.add(String.format("folder-%02d/object-%02d", i, j));
+            }
+            keys.add(String.format("object-%02d", i));
+        }
+        keys.forEach(key -> s3.put(source.bucket, key, new byte[0], MD5));
+
+        final var mapper = new ObjectMapper();
+        final var store = new InMemoryStateStore();
+        final var sent = new CopyOnWriteArrayList<String>();
+        var invocations = 0;
+        var done = false;
+        while (!done) {
+            assertTrue(++invocations < 1000, "invocations " + invocations);
+            final ScanState state;
+            try (var input = store.load("scan")) {
+                state = input == null ? new ScanState() : mapper.readValue(input, ScanState.class);
+            }
+
+            s3.expireAfter(3);
+            done = new BucketScanner(s3).scan(source.bucket, state, s3.deadline,
+                    page -> page.forEach(o -> sent.add(o.getKey())));
+            if (!done) {
+                final var bytes = mapper.writeValueAsBytes(state);
+                store.save("scan", new ByteArrayInputStream(bytes), bytes.length);
+            }
+        }
+
+        assertTrue(invocations > 1, "invocations " + invocations);
+        keys.sort(BucketScanner::compare);
+        sent.sort(BucketScanner::compare);
+        assertEquals(keys, sent);
+    }
+
+    private List<String> delta() {
+        final var sent = new CopyOnWriteArrayList<S3ObjectSummary>();
+        new BucketScanner(source, target, target.bucket, 1).scan(source.bucket, sent::addAll);
+        return sent.stream().map(S3ObjectSummary::getKey).collect(Collectors.toList());
+    }
+
+    /**
+     * Lists in pages of {@value #PAGE_SIZE}, and lets the deadline pass once the pages allowed are listed.
+     */
+    private static class Expiring extends InMemoryS3 {
+        private static final int PAGE_SIZE = 7;
+
+        private final AtomicInteger allowed = new AtomicInteger();
+        private volatile long deadline;
+
+        void expireAfter(int pages) {
+            allowed.set(pages);
+            deadline = System.currentTimeMillis() + 100;
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            if (allowed.decrementAndGet() < 0) {
+                while (System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+            return super.listObjectsV2(request.withMaxKeys(PAGE_SIZE));
+        }
+    }
+
+    /**
+     * Lists the keys in the order of code points as S3 does, in pages of {@value #PAGE_SIZE} to cross the page
+     * boundaries. The keys have no delimiter, so there is no common prefix.
+     */
+    private static class Listing extends AbstractAmazonS3 {
+        private static final int PAGE_SIZE = 2;
+
+        private final String bucket;
+        private final TreeMap<String, S3ObjectSummary> objects = new TreeMap<>(BucketScanner::compare);
+
+        Listing(String bucket) {
+            this.bucket = bucket;
+        }
+
+        void put(String key, long size, String etag, long modified) {
+            final var summary = new S3ObjectSummary();
+            summary.setBucketName(bucket);
+            summary.setKey(key);
+            summary.setSize(size);
+            summary.setETag(etag);
+            summary.setLastModified(new Date(modified));
+            objects.put(key, summary);
+        }
+
+        @Override
+        public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+            final var after = request.getContinuationToken() != null
+                    ? request.getContinuationToken() : request.getStartAfter();
+            final var remaining = new ArrayList<>((after == null ? objects : objects.tailMap(after, false)).values());
+
+            final var result = new ListObjectsV2Result();
+            result.setBucketName(bucket);
+            result.getObjectSummaries().addAll(remaining.subList(0, Math.min(PAGE_SIZE, remaining.size())));
+            result.setTruncated(remaining.size() > PAGE_SIZE);
+            if (result.isTruncated()) {
+                result.setNextContinuationToken(remaining.get(PAGE_SIZE - 1).getKey());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BufferPoolTest {
+
+    @Test
+    void reusesTheSmallestBufferThatFits() throws InterruptedException {
+        final var pool = new BufferPool(1000);
+        final var large = pool.acquire(400);
+        final var medium = pool.acquire(150);
+        final var small = pool.acquire(100);
+        pool.release(large);
+        pool.release(medium);
+        pool.release(small);
+
+        assertSame(medium, pool.acquire(120));
+        assertSame(small, pool.acquire(90));
+    }
+
+    @Test
+    void leavesALargeBufferWhileThereIsRoom() throws InterruptedException {
+        final var pool = new BufferPool(1000);
+        final var large = pool.acquire(400);
+        pool.release(large);
+
+        final var tiny = pool.acquire(10);
+        assertEquals(10, tiny.length);
+        assertSame(large, pool.acquire(400));
+    }
+
+    @Test
+    void takesALargeBufferWithoutRoom() throws InterruptedException {
+        final var pool = new BufferPool(500);
+        final var large = pool.acquire(400);
+        pool.acquire(100);
+        pool.release(large);
+
+        assertSame(large, pool.acquire(10));
+    }
+
+    @Test
+    void dropsSmallBuffersToMakeRoom() throws InterruptedException {
+        final var pool = new BufferPool(500);
+        pool.release(pool.acquire(200));
+        pool.release(pool.acquire(200));
+
+        assertEquals(400, pool.acquire(400).length);
+    }
+
+    @Test
+    void blocksUntilReleased() throws Exception {
+        final var pool = new BufferPool(500);
+        final var held = pool.acquire(400);
+        final var waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(200);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThrows(TimeoutException.class, () -> waiting.get(200, TimeUnit.MILLISECONDS));
+        pool.release(held);
+        assertSame(held, waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void grantsABufferLargerThanTheCapacityAlone() throws InterruptedException {
+        assertEquals(800, new BufferPool(500).acquire(800).length);
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.HeadBucketRequest;
+import com.amazonaws.services.s3.model.HeadBucketResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckBucketsValidTest {
+    private static final String OWNER = "111122223333";
+
+    private final CheckBucketsValid.Worker worker = new CheckBucketsValid.Worker(new AbstractAmazonS3() {
+        @Override
+        public HeadBucketResult headBucket(HeadBucketRequest request) {
+            switch (request.getBucketName()) {
+                case "here":
+                    return new HeadBucketResult().withBucketRegion("us-east-1");
+                case "moved":
+                    throw error(301, Map.of("x-amz-bucket-region", "eu-west-1"));
+                case "moved-somewhere":
+                    throw error(301, null);
+                case "owned":
+                    if (OWNER.equals(request.getExpectedBucketOwner())) {
+                        return new HeadBucketResult().withBucketRegion("us-east-1");
+                    }
+                    throw error(403, null);
+                default:
+                    throw error(404, null);
+            }
+        }
+    });
+
+    @Test
+    void judgesTheBucketsInOrder() {
+        final var verdicts = worker.check(List.of(
+                bucket("here", "us-east-1"), bucket("moved", "us-east-1"), bucket("missing", null)), null);
+
+        assertEquals(List.of("here", "moved", "missing"), List.of(
+                verdicts.get(0).getName(), verdicts.get(1).getName(), verdicts.get(2).getName()));
+        assertTrue(verdicts.get(0).isValid());
+        assertFalse(verdicts.get(1).isValid());
+        assertEquals("eu-west-1", verdicts.get(1).getRegion());
+        assertFalse(verdicts.get(2).isValid());
+    }
+
+    @Test
+    void rejectsARedirectWithoutRegion() {
+        final var verdict = worker.check(List.of(bucket("moved-somewhere", null)), null).get(0);
+
+        assertFalse(verdict.isValid());
+        assertNull(verdict.getRegion());
+    }
+
+    @Test
+    void checksTheOwnerIfGiven() {
+        assertTrue(worker.check(List.of(bucket("owned", null)), OWNER).get(0).isValid());
+        assertFalse(worker.check(List.of(bucket("owned", null)), "444455556666").get(0).isValid());
+    }
+
+    private static AmazonS3Exception error(int status, Map<String, String> headers) {
+        final var e = new AmazonS3Exception("status " + status);
+        e.setStatusCode(status);
+        e.setHttpHeaders(headers);
+        return e;
+    }
+
+    private static Resource bucket(String name, String region) {
+        final var resource = new Resource();
+        resource.setName(name);
+        resource.setRegion(region);
+        return resource;
+    }
+}
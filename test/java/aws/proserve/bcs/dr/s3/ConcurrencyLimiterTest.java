@@ -0,0 +1,167 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+    private static final long ONE_MB = 1024 * 1024;
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    private final AtomicLong now = new AtomicLong();
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ReplicationMetrics(new ObjectMapper(),
+            "test", new PrintStream(OutputStream.nullOutputStream())), now::get);
+
+    /**
+     * A window that reached the limit without throttling nor a drop of throughput grows the limit by one.
+     */
+    @Test
+    void increasesByOneAfterAWindowAtTheLimit() {
+        assertEquals(32, limiter.getLimit());
+        window(32, WINDOW);
+        assertEquals(33, limiter.getLimit());
+        window(33, WINDOW);
+        assertEquals(34, limiter.getLimit());
+    }
+
+    @Test
+    void keepsTheLimitNotReached() {
+        window(16, WINDOW);
+        window(16, WINDOW);
+        assertEquals(32, limiter.getLimit());
+    }
+
+    @Test
+    void increasesUpToTheMaximum() {
+        for (int i = 0; i < 2 * ConcurrencyLimiter.MAX_LIMIT; i++) {
+            window((int) limiter.getLimit(), WINDOW);
+        }
+        assertEquals(ConcurrencyLimiter.MAX_LIMIT, limiter.getLimit());
+    }
+
+    /**
+     * A window with throttling cuts the limit by 30%, down to the minimum.
+     */
+    @Test
+    void decreasesBy30PercentOnThrottlingDownToTheMinimum() {
+        final var limits = new ArrayList<Long>();
+        for (int i = 0; i < 6; i++) {
+            throttle(WINDOW);
+            limits.add(limiter.getLimit());
+        }
+        assertEquals(List.of(22L, 15L, 10L, 7L, 4L, 4L), limits);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * Throttling within a window waits for the end of the window to count.
+     */
+    @Test
+    void decreasesOncePerWindow() {
+        throttle(WINDOW);
+        throttle(0);
+        throttle(WINDOW / 2);
+        assertEquals(22, limiter.getLimit());
+        throttle(WINDOW / 2);
+        assertEquals(15, limiter.getLimit());
+    }
+
+    @Test
+    void decreasesByATenthOnLatencyTwiceTheBest() {
+        window(8, WINDOW);
+        assertEquals(32, limiter.getLimit());
+        window(8, 3 * WINDOW);
+        assertEquals(28, limiter.getLimit());
+    }
+
+    /**
+     * A transfer failing, by an exception, an error, or a future failed or never made, frees its slot.
+     */
+    @Test
+    void releasesTheSlotOnFailures() {
+        assertThrows(IllegalStateException.class, () -> limiter.call(ONE_MB, () -> {
+            throw new IllegalStateException();
+        }));
+        assertThrows(AssertionError.class, () -> limiter.call(ONE_MB, () -> {
+            throw new AssertionError();
+        }));
+        assertTrue(limiter.callAsync(ONE_MB, () -> {
+            throw new IllegalStateException();
+        }, e -> false).isCompletedExceptionally());
+        assertTrue(limiter.callAsync(ONE_MB, () -> CompletableFuture.failedFuture(new IllegalStateException()),
+                e -> false).isCompletedExceptionally());
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(32, limiter.getLimit());
+    }
+
+    /**
+     * A non-blocking transfer beyond the limit waits in the queue, and starts once a slot is freed.
+     */
+    @Test
+    void startsAWaitingTransferOnceASlotIsFreed() {
+        final var pending = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < limiter.getLimit(); i++) {
+            pending.add(start());
+        }
+        final var started = new AtomicInteger();
+        final var waiting = limiter.callAsync(ONE_MB, () -> {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, e -> false);
+
+        assertEquals(0, started.get());
+        pending.get(0).completeExceptionally(new IllegalStateException());
+        assertEquals(1, started.get());
+        assertTrue(waiting.isDone());
+        assertEquals(31, limiter.getInFlight());
+    }
+
+    /**
+     * Starts the transfers at once, and completes them all once the time has passed.
+     */
+    private void window(int transfers, long nanos) {
+        final var pending = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < transfers; i++) {
+            pending.add(start());
+        }
+        now.addAndGet(nanos);
+        pending.forEach(future -> future.complete(null));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private CompletableFuture<Object> start() {
+        final var future = new CompletableFuture<Object>();
+        limiter.callAsync(ONE_MB, () -> future, e -> false);
+        return future;
+    }
+
+    /**
+     * Makes a blocking transfer throttled after the time given.
+     */
+    private void throttle(long nanos) {
+        final var slowDown = new AmazonS3Exception("Slow Down");
+        slowDown.setStatusCode(503);
+        slowDown.setErrorCode("SlowDown");
+        assertThrows(AmazonS3Exception.class, () -> limiter.call(ONE_MB, () -> {
+            now.addAndGet(nanos);
+            throw slowDown;
+        }));
+    }
+}
@@ -0,0 +1,114 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.CreateStream.Estimate;
+import aws.proserve.bcs.dr.s3.CreateStream.Worker;
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Datapoint;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsResult;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
+import com.amazonaws.services.cloudwatch.model.ListMetricsResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CreateStreamTest {
+    private static final long TB = Worker.BYTES_PER_SHARD;
+
+    @Test
+    void sizesTheDefaultStreamWithoutAnEstimate() {
+        assertEquals(Worker.DEFAULT_SHARDS, Worker.shards(null));
+    }
+
+    @Test
+    void sizesOneShardPerMillionObjectsOrPerTerabyte() {
+        assertEquals(1, Worker.shards(new Estimate(0, 0)));
+        assertEquals(1, Worker.shards(new Estimate(1, 1)));
+        assertEquals(1, Worker.shards(new Estimate(Worker.OBJECTS_PER_SHARD, TB)));
+        assertEquals(2, Worker.shards(new Estimate(Worker.OBJECTS_PER_SHARD + 1, TB)));
+        assertEquals(2, Worker.shards(new Estimate(Worker.OBJECTS_PER_SHARD, TB + 1)));
+        assertEquals(10, Worker.shards(new Estimate(10 * Worker.OBJECTS_PER_SHARD, 3 * TB)));
+        assertEquals(10, Worker.shards(new Estimate(3, 10 * TB)));
+    }
+
+    @Test
+    void boundsTheShardsOfAHugeBucket() {
+        assertEquals(Worker.MAX_SHARDS, Worker.shards(new Estimate(Worker.MAX_SHARDS * Worker.OBJECTS_PER_SHARD + 1,
+                0)));
+        assertEquals(Worker.MAX_SHARDS, Worker.shards(new Estimate(Long.MAX_VALUE / 2, Long.MAX_VALUE / 2)));
+    }
+
+    @Test
+    void sumsTheSizeOfEveryStorageType() {
+        final var cloudWatch = new Metrics();
+        cloudWatch.latest.put("NumberOfObjects/AllStorageTypes", 300L);
+        cloudWatch.latest.put("BucketSizeBytes/StandardStorage", 100L);
+        cloudWatch.latest.put("BucketSizeBytes/StandardIAStorage", 20L);
+        cloudWatch.latest.put("BucketSizeBytes/DeepArchiveStorage", 3L);
+
+        final var estimate = new CreateStream.Estimator(cloudWatch).estimate("bucket");
+        assertEquals(300, estimate.getObjects());
+        assertEquals(123, estimate.getBytes());
+    }
+
+    @Test
+    void estimatesNothingWithoutMetrics() {
+        assertNull(new CreateStream.Estimator(new Metrics()).estimate("bucket"));
+    }
+
+    /**
+     * Lists the metrics of the bucket size one per page, and returns one datapoint per metric.
+     */
+    private static class Metrics extends AbstractAmazonCloudWatch {
+        private final Map<String, Long> latest = new LinkedHashMap<>();
+
+        @Override
+        public ListMetricsResult listMetrics(ListMetricsRequest request) {
+            final var types = latest.keySet().stream()
+                    .filter(key -> key.startsWith(request.getMetricName() + "/"))
+                    .map(key -> key.substring(request.getMetricName().length() + 1))
+                    .toArray(String[]::new);
+            final var index = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+
+            final var result = new ListMetricsResult();
+            if (index < types.length) {
+                result.withMetrics(new Metric()
+                        .withMetricName(request.getMetricName())
+                        .withDimensions(new Dimension().withName("BucketName").withValue("bucket"),
+                                new Dimension().withName("StorageType").withValue(types[index])));
+            }
+            if (index + 1 < types.length) {
+                result.setNextToken(Integer.toString(index + 1));
+            }
+            return result;
+        }
+
+        @Override
+        public GetMetricStatisticsResult getMetricStatistics(GetMetricStatisticsRequest request) {
+            final var storageType = request.getDimensions().stream()
+                    .filter(d -> d.getName().equals("StorageType"))
+                    .findFirst()
+                    .orElseThrow()
+                    .getValue();
+            final var value = latest.get(request.getMetricName() + "/" + storageType);
+
+            final var result = new GetMetricStatisticsResult();
+            if (value != null) {
+                result.withDatapoints(
+                        new Datapoint().withTimestamp(new Date(0)).withMaximum(0.0),
+                        new Datapoint().withTimestamp(new Date(1)).withMaximum(value.doubleValue()));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3ServiceClientConfiguration;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectAclRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectAclResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.Grant;
+import software.amazon.awssdk.services.s3.model.Grantee;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.Permission;
+import software.amazon.awssdk.services.s3.model.StorageClass;
+import software.amazon.awssdk.services.s3.model.Tag;
+import software.amazon.awssdk.services.s3.model.TaggingDirective;
+import software.amazon.awssdk.services.s3.model.Type;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CrtTransferEngineTest {
+    private static final List<Grant> GRANTS = List.of(
+            grant(Grantee.builder().type(Type.CANONICAL_USER).id("owner").build(), Permission.FULL_CONTROL),
+            grant(Grantee.builder().type(Type.GROUP).uri("http://acs/AllUsers").build(), Permission.READ),
+            grant(Grantee.builder().type(Type.AMAZON_CUSTOMER_BY_EMAIL).emailAddress("a@b.c").build(),
+                    Permission.READ));
+
+    private final Client s3 = new Client();
+    private final ReplicationMetrics metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+            new PrintStream(OutputStream.nullOutputStream()));
+
+    /**
+     * Within the partition, the copy carries the metadata, storage class, tags and ACL of the source, as the blocking
+     * engine keeps them.
+     */
+    @Test
+    void copiesTheAttributesOfTheSourceWithinThePartition() {
+        assertEquals(Status.COPIED, engine(true).copy(ImmutableS3Object.builder().key("key").size(1).build()));
+
+        final var copy = s3.copy;
+        assertEquals(MetadataDirective.REPLACE, copy.metadataDirective());
+        assertEquals("text/plain", copy.contentType());
+        assertEquals(Map.of("owner", "me"), copy.metadata());
+        assertEquals(StorageClass.STANDARD_IA, copy.storageClass());
+        assertEquals(TaggingDirective.REPLACE, copy.taggingDirective());
+        assertEquals("project=dr", copy.tagging());
+        assertEquals("id=\"owner\"", copy.grantFullControl());
+        assertEquals("uri=\"http://acs/AllUsers\", emailAddress=\"a@b.c\"", copy.grantRead());
+        assertNull(copy.grantWriteACP());
+    }
+
+    @Test
+    void leavesTheAclWithoutCopyAcl() {
+        assertEquals(Status.COPIED, engine(false).copy(ImmutableS3Object.builder().key("key").size(1).build()));
+
+        assertEquals(0, s3.acls);
+        assertNull(s3.copy.grantFullControl());
+        assertNull(s3.copy.grantRead());
+        assertEquals("project=dr", s3.copy.tagging());
+    }
+
+    private CrtTransferEngine engine(boolean copyAcl) {
+        return new CrtTransferEngine(s3, s3, request(),
+                new DeadLetters(new InMemoryStateStore(), new ObjectMapper(), "dead-letters"),
+                new ConcurrencyLimiter(metrics), metrics, copyAcl);
+    }
+
+    private static Grant grant(Grantee grantee, Permission permission) {
+        return Grant.builder().grantee(grantee).permission(permission).build();
+    }
+
+    private static ReplicateBucket.Request request() {
+        final var source = new Resource();
+        source.setName("source");
+        source.setRegion("us-east-1");
+        final var target = new Resource();
+        target.setName("target");
+        target.setRegion("us-west-2");
+
+        final var request = new ReplicateBucket.Request();
+        request.setSource(source);
+        request.setTarget(target);
+        return request;
+    }
+
+    /**
+     * Answers the source attributes of any key, and records the copy.
+     */
+    private static class Client implements S3AsyncClient {
+        private CopyObjectRequest copy;
+        private int acls;
+
+        @Override
+        public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+            return CompletableFuture.completedFuture(HeadObjectResponse.builder()
+                    .contentType("text/plain")
+                    .metadata(Map.of("owner", "me"))
+                    .storageClass(StorageClass.STANDARD_IA)
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<GetObjectTaggingResponse> getObjectTagging(GetObjectTaggingRequest request) {
+            return CompletableFuture.completedFuture(GetObjectTaggingResponse.builder()
+                    .tagSet(Tag.builder().key("project").value("dr").build())
+                    .build());
+        }
+
+        @Override
+        public CompletableFuture<GetObjectAclResponse> getObjectAcl(GetObjectAclRequest request) {
+            acls++;
+            return CompletableFuture.completedFuture(GetObjectAclResponse.builder().grants(GRANTS).build());
+        }
+
+        @Override
+        public CompletableFuture<CopyObjectResponse> copyObject(CopyObjectRequest request) {
+            copy = request;
+            return CompletableFuture.completedFuture(CopyObjectResponse.builder().build());
+        }
+
+        @Override
+        public S3ServiceClientConfiguration serviceClientConfiguration() {
+            return null;
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ExpiringCacheTest {
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<String> removed = new CopyOnWriteArrayList<>();
+
+    @Test
+    void releasesTheValueInvalidated() {
+        final var cache = cache(Duration.ofMinutes(1));
+        final var first = cache.get("key");
+
+        cache.invalidate("key", first);
+        assertEquals(List.of(first), removed);
+        assertNotEquals(first, cache.get("key"));
+    }
+
+    @Test
+    void keepsAValueLoadedMeanwhile() {
+        final var cache = cache(Duration.ofMinutes(1));
+        final var first = cache.get("key");
+        cache.invalidate("key", first);
+        final var second = cache.get("key");
+
+        cache.invalidate("key", first);
+        assertEquals(List.of(first), removed);
+        assertEquals(second, cache.get("key"));
+    }
+
+    @Test
+    void releasesTheValueExpired() throws InterruptedException {
+        final var cache = cache(Duration.ofMillis(1));
+        final var first = cache.get("key");
+        Thread.sleep(5);
+
+        assertNotEquals(first, cache.get("key"));
+        assertEquals(List.of(first), removed);
+    }
+
+    @Test
+    void evictsTheOldestBeyondTheMaximumSize() {
+        final var cache = new ExpiringCache<String, String>(Duration.ofMinutes(1), Duration.ofMinutes(1), 3,
+                key -> key + "-" + loads.incrementAndGet(), removed::add);
+        for (int i = 0; i < 10; i++) {
+            cache.get("key-" + i);
+        }
+
+        assertEquals(3, cache.size());
+        assertEquals(7, removed.size());
+        assertEquals("key-9-10", cache.get("key-9"));
+    }
+
+    @Test
+    void evictsTheExpiredFirst() throws InterruptedException {
+        final var cache = new ExpiringCache<String, String>(Duration.ofMillis(1), Duration.ofMillis(1), 3,
+                key -> key + "-" + loads.incrementAndGet(), removed::add);
+        cache.get("a");
+        cache.get("b");
+        cache.get("c");
+        Thread.sleep(5);
+
+        cache.get("d");
+        assertEquals(1, cache.size());
+        assertEquals(3, removed.size());
+    }
+
+    private ExpiringCache<String, String> cache(Duration ttl) {
+        return new ExpiringCache<>(ttl, ttl, key -> key + "-" + loads.incrementAndGet(), removed::add);
+    }
+}
@@ -0,0 +1,33 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileStateStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void listsTheStatesByPrefix() throws IOException {
+        final var store = new FileStateStore(directory);
+        for (var name : List.of("ledger/a/b", "ledger/a/b.task-1", "ledger/a/b.task-2", "ledger/a/c.task-3")) {
+            store.save(name, new ByteArrayInputStream(new byte[]{1}), 1);
+        }
+
+        assertEquals(List.of("ledger/a/b.task-1", "ledger/a/b.task-2"),
+                store.list("ledger/a/b.task-").stream().sorted().collect(Collectors.toList()));
+        assertEquals(List.of(), store.list("uploads/a/b.task-"));
+    }
+}
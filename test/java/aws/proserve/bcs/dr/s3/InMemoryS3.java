@@ -0,0 +1,414 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stand-in of S3 in memory, for the calls of the listing and copy paths only, shared by the tests and the
+ * benchmarks. The source objects are kept, while the uploaded bytes are drained and discarded, so that a benchmark
+ * measures the copy rather than the stand-in. The multipart uploads in progress are kept with the sizes and ETags of
+ * their parts, until completed or aborted.
+ */
+class InMemoryS3 extends AbstractAmazonS3 {
+    private static final String PREFIX_TOKEN = "prefix:";
+    private static final String KEY_TOKEN = "key:";
+
+    private final NavigableMap<String, byte[]> objects = new ConcurrentSkipListMap<>(BucketScanner::compare);
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+    private final Map<String, Long> sizes = new ConcurrentHashMap<>();
+    private final LongAdder lists = new LongAdder();
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder parts = new LongAdder();
+    private final LongAdder copies = new LongAdder();
+    private final Map<String, Upload> pending = new ConcurrentHashMap<>();
+
+    void put(String bucket, String key, byte[] content, String etag) {
+        objects.put(bucket + "/" + key, content);
+        etags.put(bucket + "/" + key, etag);
+    }
+
+    /**
+     * Puts an object too large to hold, of the size given without content, to be copied by S3 only.
+     */
+    void put(String bucket, String key, long size, String etag) {
+        put(bucket, key, new byte[0], etag);
+        sizes.put(bucket + "/" + key, size);
+    }
+
+    /**
+     * @return the number of {@code LIST} calls so far.
+     */
+    long getLists() {
+        return lists.sum();
+    }
+
+    /**
+     * @return the number of multipart uploads initiated so far.
+     */
+    long getUploads() {
+        return uploads.sum();
+    }
+
+    /**
+     * @return the number of objects copied by {@code CopyObject} so far.
+     */
+    long getCopies() {
+        return copies.sum();
+    }
+
+    /**
+     * @return the number of parts uploaded or copied so far.
+     */
+    long getParts() {
+        return parts.sum();
+    }
+
+    /**
+     * Initiates a multipart upload at the time given, as left behind by an earlier task or another writer.
+     *
+     * @return the upload id.
+     */
+    String initiate(String bucket, String key, Date initiated) {
+        final var uploadId = UUID.randomUUID().toString();
+        pending.put(uploadId, new Upload(bucket, key, initiated));
+        return uploadId;
+    }
+
+    /**
+     * @return {@code true} if the upload is neither completed nor aborted.
+     */
+    boolean isPending(String uploadId) {
+        return pending.containsKey(uploadId);
+    }
+
+    /**
+     * Lists in the order of code points as S3 does, by prefix, delimiter, start after and maximum keys. The continuation
+     * token is the last key or common prefix returned.
+     */
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+        lists.increment();
+        final var bucket = request.getBucketName() + "/";
+        final var prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        final var delimiter = request.getDelimiter();
+        final var max = request.getMaxKeys() == null ? 1000 : request.getMaxKeys();
+        final var token = request.getContinuationToken();
+
+        var lastPrefix = token != null && token.startsWith(PREFIX_TOKEN) ? token.substring(PREFIX_TOKEN.length()) : null;
+        final var after = token == null ? request.getStartAfter()
+                : lastPrefix == null ? token.substring(KEY_TOKEN.length()) : null;
+        // past a common prefix, the keys under it are skipped below.
+        final var start = lastPrefix != null ? lastPrefix : after;
+        final var head = start == null || BucketScanner.compare(start, prefix) < 0;
+
+        final var result = new ListObjectsV2Result();
+        result.setBucketName(request.getBucketName());
+        String last = null;
+        for (var name : objects.tailMap(head ? bucket + prefix : bucket + start, head || lastPrefix != null).keySet()) {
+            if (!name.startsWith(bucket + prefix)) {
+                break;
+            }
+
+            final var key = name.substring(bucket.length());
+            if (lastPrefix != null && key.startsWith(lastPrefix)) {
+                continue;
+            }
+            if (result.getObjectSummaries().size() + result.getCommonPrefixes().size() == max) {
+                result.setTruncated(true);
+                result.setNextContinuationToken(last);
+                break;
+            }
+
+            final var index = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (index >= 0) {
+                lastPrefix = key.substring(0, index + delimiter.length());
+                result.getCommonPrefixes().add(lastPrefix);
+                last = PREFIX_TOKEN + lastPrefix;
+            } else {
+                final var summary = new S3ObjectSummary();
+                summary.setBucketName(request.getBucketName());
+                summary.setKey(key);
+                summary.setSize(size(name));
+                summary.setETag(etags.get(name));
+                summary.setLastModified(new Date(0));
+                result.getObjectSummaries().add(summary);
+                last = KEY_TOKEN + key;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public S3Object getObject(String bucket, String key) {
+        return getObject(new GetObjectRequest(bucket, key));
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest request) {
+        final var content = content(request.getBucketName(), request.getKey());
+        final var range = request.getRange();
+        final var start = range == null ? 0 : (int) range[0];
+        final var end = range == null ? content.length : (int) Math.min(content.length, range[1] + 1);
+
+        final var object = new S3Object();
+        object.setBucketName(request.getBucketName());
+        object.setKey(request.getKey());
+        object.setObjectMetadata(metadata(request.getBucketName(), request.getKey(), end - start));
+        object.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(content, start, end - start), null));
+        return object;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucket, String key) {
+        content(bucket, key);
+        return metadata(bucket, key, size(bucket + "/" + key));
+    }
+
+    @Override
+    public GetObjectTaggingResult getObjectTagging(GetObjectTaggingRequest request) {
+        return new GetObjectTaggingResult(List.of());
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        drain(request.getInputStream());
+        return new PutObjectResult();
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        uploads.increment();
+        final var result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(initiate(request.getBucketName(), request.getKey(), new Date()));
+        return result;
+    }
+
+    /**
+     * Takes the Content-MD5 of the part, in hex, as its ETag.
+     */
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        final var upload = upload(request.getUploadId());
+        drain(request.getInputStream());
+        parts.increment();
+
+        final var eTag = request.getMd5Digest() == null ? UUID.randomUUID().toString().replace("-", "")
+                : hex(Base64.getDecoder().decode(request.getMd5Digest()));
+        final var part = new PartSummary();
+        part.setPartNumber(request.getPartNumber());
+        part.setSize(request.getPartSize());
+        part.setETag(eTag);
+        upload.parts.put(request.getPartNumber(), part);
+
+        final var result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(eTag);
+        return result;
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest request) {
+        content(request.getSourceBucketName(), request.getSourceKey());
+        copies.increment();
+        final var result = new CopyObjectResult();
+        result.setETag(etags.get(request.getSourceBucketName() + "/" + request.getSourceKey()));
+        return result;
+    }
+
+    @Override
+    public CopyPartResult copyPart(CopyPartRequest request) {
+        final var upload = upload(request.getUploadId());
+        content(request.getSourceBucketName(), request.getSourceKey());
+        parts.increment();
+
+        final var part = new PartSummary();
+        part.setPartNumber(request.getPartNumber());
+        part.setSize(request.getLastByte() - request.getFirstByte() + 1);
+        part.setETag(UUID.randomUUID().toString().replace("-", ""));
+        upload.parts.put(request.getPartNumber(), part);
+
+        final var result = new CopyPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(part.getETag());
+        return result;
+    }
+
+    /**
+     * Takes the MD5 of the MD5 of the parts as the ETag, as S3 does.
+     */
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        upload(request.getUploadId());
+        pending.remove(request.getUploadId());
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (var part : request.getPartETags()) {
+            final var eTag = part.getETag();
+            for (int i = 0; i < eTag.length(); i += 2) {
+                digest.update((byte) Integer.parseInt(eTag, i, i + 2, 16));
+            }
+        }
+
+        final var result = new CompleteMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setETag(hex(digest.digest()) + "-" + request.getPartETags().size());
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        upload(request.getUploadId());
+        pending.remove(request.getUploadId());
+    }
+
+    /**
+     * Lists the uploads in progress in the bucket at once, by key and upload id.
+     */
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest request) {
+        final var listing = new MultipartUploadListing();
+        listing.setBucketName(request.getBucketName());
+        pending.entrySet().stream()
+                .filter(e -> e.getValue().bucket.equals(request.getBucketName()))
+                .map(e -> {
+                    final var upload = new MultipartUpload();
+                    upload.setKey(e.getValue().key);
+                    upload.setUploadId(e.getKey());
+                    upload.setInitiated(e.getValue().initiated);
+                    return upload;
+                })
+                .sorted(Comparator.comparing(MultipartUpload::getKey).thenComparing(MultipartUpload::getUploadId))
+                .forEach(listing.getMultipartUploads()::add);
+        return listing;
+    }
+
+    /**
+     * Lists the parts uploaded at once, by part number.
+     */
+    @Override
+    public PartListing listParts(ListPartsRequest request) {
+        final var listing = new PartListing();
+        listing.setBucketName(request.getBucketName());
+        listing.setKey(request.getKey());
+        listing.setUploadId(request.getUploadId());
+        listing.getParts().addAll(upload(request.getUploadId()).parts.values());
+        return listing;
+    }
+
+    private Upload upload(String uploadId) {
+        final var upload = pending.get(uploadId);
+        if (upload == null) {
+            final var e = new AmazonS3Exception("No such upload " + uploadId);
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchUpload");
+            throw e;
+        }
+        return upload;
+    }
+
+    private byte[] content(String bucket, String key) {
+        final var content = objects.get(bucket + "/" + key);
+        if (content == null) {
+            final var e = new AmazonS3Exception("No such object " + bucket + "/" + key);
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchKey");
+            throw e;
+        }
+        return content;
+    }
+
+    private long size(String name) {
+        final var size = sizes.get(name);
+        return size == null ? objects.get(name).length : size;
+    }
+
+    private ObjectMetadata metadata(String bucket, String key, long length) {
+        final var metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        metadata.setHeader(Headers.ETAG, etags.get(bucket + "/" + key));
+        return metadata;
+    }
+
+    private static final class Upload {
+        private final String bucket;
+        private final String key;
+        private final Date initiated;
+        private final Map<Integer, PartSummary> parts = new ConcurrentSkipListMap<>();
+
+        private Upload(String bucket, String key, Date initiated) {
+            this.bucket = bucket;
+            this.key = key;
+            this.initiated = initiated;
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return String.format("%0" + 2 * bytes.length + "x", new BigInteger(1, bytes));
+    }
+
+    private void drain(InputStream input) {
+        try (input) {
+            input.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
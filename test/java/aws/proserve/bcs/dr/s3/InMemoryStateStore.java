@@ -0,0 +1,56 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A stand-in of the state store in memory, for the tests.
+ */
+class InMemoryStateStore implements StateStore {
+    private final Map<String, byte[]> states = new ConcurrentHashMap<>();
+    private final AtomicInteger saves = new AtomicInteger();
+
+    @Override
+    public InputStream load(String name) {
+        final var content = states.get(name);
+        return content == null ? null : new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public void save(String name, InputStream content, long length) throws IOException {
+        try (content) {
+            states.put(name, content.readAllBytes());
+        }
+        saves.incrementAndGet();
+    }
+
+    @Override
+    public void delete(String name) {
+        states.remove(name);
+    }
+
+    @Override
+    public List<String> list(String prefix) {
+        return states.keySet().stream().filter(name -> name.startsWith(prefix)).sorted().collect(Collectors.toList());
+    }
+
+    boolean contains(String name) {
+        return states.containsKey(name);
+    }
+
+    /**
+     * @return the number of saves so far.
+     */
+    int getSaves() {
+        return saves.get();
+    }
+}
@@ -0,0 +1,51 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyRangeTest {
+
+    @Test
+    void startsAfterAndEndsAtItsSplitKeys() {
+        final var range = new KeyRange(1, "b", "d");
+
+        assertFalse(range.contains("a"));
+        assertFalse(range.contains("b"));
+        assertTrue(range.contains("b0"));
+        assertTrue(range.contains("c"));
+        assertTrue(range.contains("d"));
+        assertFalse(range.contains("d0"));
+        assertFalse(range.contains("e"));
+    }
+
+    @Test
+    void opensTheFirstAndLastRanges() {
+        assertTrue(new KeyRange(0, null, "b").contains(""));
+        assertTrue(new KeyRange(0, null, "b").contains("a"));
+        assertFalse(new KeyRange(0, null, "b").contains("c"));
+        assertFalse(new KeyRange(0, "b", null).contains("b"));
+        assertTrue(new KeyRange(0, "b", null).contains("\uD83D\uDE00"));
+        assertTrue(new KeyRange(0, null, null).contains("any"));
+    }
+
+    @Test
+    void coversEveryKeyByExactlyOneRange() {
+        final var ranges = List.of(
+                new KeyRange(0, null, "m"),
+                new KeyRange(1, "m", "z\uFFFF"),
+                new KeyRange(2, "z\uFFFF", null));
+
+        for (var key : List.of("", "a", "m", "m/", "z", "z\uFFFF", "z\uD83D\uDE00", "\uD83D\uDE00")) {
+            assertEquals(1, ranges.stream().filter(range -> range.contains(key)).count(), key);
+        }
+        assertTrue(ranges.get(2).contains("z\uD83D\uDE00"));
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void indexesLinearlyBelowTwiceTheSubBuckets() {
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i, LatencyHistogram.index(i));
+            assertEquals(i, LatencyHistogram.value(i));
+        }
+    }
+
+    @Test
+    void indexesTheBoundariesOfThePowersOfTwo() {
+        assertEquals(32, LatencyHistogram.index(32));
+        assertEquals(32, LatencyHistogram.index(33));
+        assertEquals(33, LatencyHistogram.index(34));
+        assertEquals(47, LatencyHistogram.index(63));
+        assertEquals(48, LatencyHistogram.index(64));
+        assertEquals(48, LatencyHistogram.index(67));
+        assertEquals(49, LatencyHistogram.index(68));
+
+        assertEquals(33, LatencyHistogram.value(32));
+        assertEquals(63, LatencyHistogram.value(47));
+        assertEquals(66, LatencyHistogram.value(48));
+    }
+
+    @Test
+    void keepsTheRelativeErrorWithinTheBucket() {
+        var previous = 0;
+        for (int exponent = 5; exponent < 63; exponent++) {
+            for (long value : List.of((1L << exponent) - 1, 1L << exponent, (1L << exponent) + 1)) {
+                final var index = LatencyHistogram.index(value);
+                assertTrue(index >= previous, "index of " + value);
+                assertTrue(Math.abs(LatencyHistogram.value(index) - value) <= value / 32, "value of " + value);
+                previous = index;
+            }
+        }
+
+        final var histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(List.of(1L), histogram.snapshot(10).getCounts());
+    }
+
+    @Test
+    void mergesTheNeighbouringValuesAboveTheMaximum() {
+        final var histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros);
+        }
+
+        final var snapshot = histogram.snapshot(10);
+        assertTrue(snapshot.getValues().size() <= 10, "values " + snapshot.getValues());
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500_500, snapshot.getSum());
+        for (int i = 1; i < snapshot.getValues().size(); i++) {
+            assertTrue(snapshot.getValues().get(i - 1) < snapshot.getValues().get(i));
+        }
+
+        var weighted = 0L;
+        for (int i = 0; i < snapshot.getValues().size(); i++) {
+            weighted += snapshot.getValues().get(i) * snapshot.getCounts().get(i);
+        }
+        assertEquals(500_500, weighted, 500_500 * 0.04);
+    }
+
+    @Test
+    void takesTheValuesSinceTheLastSnapshot() {
+        final var histogram = new LatencyHistogram();
+        histogram.record(5);
+        histogram.record(-1);
+        assertEquals(List.of(0L, 5L), histogram.snapshot(10).getValues());
+
+        assertTrue(histogram.snapshot(10).isEmpty());
+        histogram.record(7);
+        final var snapshot = histogram.snapshot(10);
+        assertEquals(List.of(7L), snapshot.getValues());
+        assertEquals(7, snapshot.getMin());
+        assertEquals(7, snapshot.getSum());
+    }
+}
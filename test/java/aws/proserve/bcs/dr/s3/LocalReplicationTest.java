@@ -0,0 +1,190 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalReplicationTest {
+    private static final String SOURCE = "source";
+
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final ReplicationLedger ledger = new ReplicationLedger(store, "ledger");
+    private final ReplicationMetrics metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+            new PrintStream(OutputStream.nullOutputStream()));
+    private final ReplicateBucket.Request request = request();
+    private final List<String> keys = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        ledger.close();
+    }
+
+    /**
+     * More objects than the queue holds are copied once each, and every worker stops at its poison.
+     */
+    @Test
+    void drainsTheQueueAndStopsTheWorkers() {
+        put(LocalReplication.QUEUE_CAPACITY * 2 + 1);
+        final var engine = new Engine(key -> key.endsWith("7") ? Status.FAILED : Status.COPIED);
+
+        final var failed = run(engine);
+        assertEquals(keys.size(), engine.copies.size());
+        assertEquals(keys.stream().filter(k -> k.endsWith("7")).count(), failed);
+        assertEquals(Set.copyOf(keys), engine.copies.keySet());
+        assertTrue(engine.copies.values().stream().allMatch(count -> count.get() == 1));
+    }
+
+    @Test
+    void skipsTheObjectsCopiedInTheLedger() {
+        put(100);
+        for (int i = 0; i < 50; i++) {
+            ledger.record(object(keys.get(i), "etag-" + i), Status.COPIED);
+        }
+        ledger.record(object(keys.get(50), "changed"), Status.COPIED);
+        ledger.record(object(keys.get(51), "etag-51"), Status.FAILED);
+        final var engine = new Engine(key -> Status.COPIED);
+
+        assertEquals(0, run(engine));
+        assertEquals(Set.copyOf(keys.subList(50, 100)), engine.copies.keySet());
+        assertEquals(Set.copyOf(keys.subList(0, 50)), engine.forgotten);
+        for (int i = 0; i < keys.size(); i++) {
+            assertTrue(ledger.isCopied(object(keys.get(i), "etag-" + i)), keys.get(i));
+        }
+    }
+
+    /**
+     * A non-blocking engine completes the copies on threads of its own, within the permits in flight.
+     */
+    @Test
+    void copiesOnANonBlockingEngine() {
+        put(5000);
+        final var completer = Executors.newScheduledThreadPool(4);
+        try {
+            final var engine = new AsyncEngine(completer);
+
+            assertEquals(0, run(engine));
+            assertEquals(Set.copyOf(keys), engine.copies.keySet());
+            assertTrue(engine.copies.values().stream().allMatch(count -> count.get() == 1));
+            assertTrue(engine.peak.get() <= LocalReplication.IN_FLIGHT, "peak " + engine.peak.get());
+            assertEquals(0, engine.inFlight.get());
+            for (int i = 0; i < keys.size(); i++) {
+                assertTrue(ledger.isCopied(object(keys.get(i), "etag-" + i)), keys.get(i));
+            }
+        } finally {
+            completer.shutdownNow();
+        }
+    }
+
+    @Test
+    void copiesTheRangeOnly() {
+        put(100);
+        request.setRange(new KeyRange(1, keys.get(9), keys.get(19)));
+        final var engine = new Engine(key -> Status.COPIED);
+
+        assertEquals(0, run(engine));
+        assertEquals(Set.copyOf(keys.subList(10, 20)), engine.copies.keySet());
+    }
+
+    private long run(TransferEngine engine) {
+        return assertTimeoutPreemptively(Duration.ofMinutes(1),
+                () -> new LocalReplication(s3, engine, ledger, request, metrics).run());
+    }
+
+    private void put(int count) {
+        for (int i = 0; i < count; i++) {
+            keys.add(String.format("key-%06d", i));
+            s3.put(SOURCE, keys.get(i), new byte[1], "etag-" + i);
+        }
+    }
+
+    private static S3Object object(String key, String etag) {
+        return ImmutableS3Object.builder().key(key).size(1).etag(etag).build();
+    }
+
+    private static ReplicateBucket.Request request() {
+        final var source = new Resource();
+        source.setName(SOURCE);
+        final var target = new Resource();
+        target.setName("target");
+
+        final var request = new ReplicateBucket.Request();
+        request.setSource(source);
+        request.setTarget(target);
+        return request;
+    }
+
+    private static class Engine implements TransferEngine {
+        final Map<String, AtomicInteger> copies = new ConcurrentHashMap<>();
+        final Set<String> forgotten = ConcurrentHashMap.newKeySet();
+        private final Function<String, Status> status;
+
+        Engine(Function<String, Status> status) {
+            this.status = status;
+        }
+
+        @Override
+        public Status copy(S3Object object) {
+            copies.computeIfAbsent(object.getKey(), k -> new AtomicInteger()).incrementAndGet();
+            return status.apply(object.getKey());
+        }
+
+        @Override
+        public void forget(S3Object object) {
+            forgotten.add(object.getKey());
+        }
+    }
+
+    private static class AsyncEngine extends Engine {
+        private final ScheduledExecutorService completer;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+
+        AsyncEngine(ScheduledExecutorService completer) {
+            super(key -> Status.COPIED);
+            this.completer = completer;
+        }
+
+        @Override
+        public CompletableFuture<Status> copyAsync(S3Object object) {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            final var future = new CompletableFuture<Status>();
+            completer.schedule(() -> {
+                inFlight.decrementAndGet();
+                future.complete(copy(object));
+            }, 100, TimeUnit.MICROSECONDS);
+            return future;
+        }
+
+        @Override
+        public boolean isNonBlocking() {
+            return true;
+        }
+    }
+}
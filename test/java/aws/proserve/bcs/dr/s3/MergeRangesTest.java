@@ -0,0 +1,148 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MergeRangesTest {
+    private static final List<KeyRange> RANGES = List.of(new KeyRange(0, null, "m"), new KeyRange(1, "m", null));
+
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final ReplicateBucket.Request request = request();
+    private final ReplicationLedger ledger = new ReplicationLedger(store, S3Module.ledgerName(request, null));
+    private final ReplicationMetrics metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+            new PrintStream(OutputStream.nullOutputStream()));
+
+    @AfterEach
+    void tearDown() {
+        ledger.close();
+    }
+
+    @Test
+    void succeedsWithObjectsSkippedOnPurpose() throws IOException {
+        range(0, "a", Status.COPIED);
+        range(1, "x", Status.SKIPPED);
+
+        assertTrue(merge(new FailurePolicy(0, 0)));
+        assertFalse(store.contains(S3Module.ledgerName(request, RANGES.get(0))));
+        assertEquals(List.of(), store.list("runs/" + S3Module.ledgerName(request, RANGES.get(0)) + "/"));
+    }
+
+    @Test
+    void failsBeyondTheFailurePolicy() throws IOException {
+        range(0, "a", Status.COPIED);
+        range(1, "x", Status.FAILED);
+
+        assertFalse(merge(new FailurePolicy(0, 0)));
+    }
+
+    @Test
+    void toleratesTheFailuresWithinTheFailurePolicy() throws IOException {
+        assertTrue(mergeFailures(new FailurePolicy(2, 0)));
+        assertFalse(mergeFailures(new FailurePolicy(1, 0)));
+        assertTrue(mergeFailures(new FailurePolicy(0, 100)));
+    }
+
+    /**
+     * The failures are judged against the objects attempted by the ranges of this run, not the history of the bucket.
+     */
+    @Test
+    void judgesTheRangesOfThisRunOnly() throws IOException {
+        for (int i = 0; i < 98; i++) {
+            ledger.record(ImmutableS3Object.builder().key("b" + i).size(1).etag("x").build(), Status.COPIED);
+        }
+        range(0, "a", Status.COPIED);
+        range(1, "x", Status.FAILED);
+
+        assertFalse(merge(new FailurePolicy(0, 10)));
+        assertEquals(Map.of(Status.COPIED, 99L, Status.FAILED, 1L), ledger.count());
+    }
+
+    /**
+     * The ranges of a second run inherit the merged ledger of the bucket, thus copy nothing.
+     */
+    @Test
+    void skipsTheObjectsCopiedByTheRangesOfTheLastRun() throws IOException {
+        final var s3 = new InMemoryS3();
+        for (var key : List.of("a", "f", "m", "n", "x")) {
+            s3.put("source", key, new byte[1], "x");
+        }
+
+        assertEquals(List.of("a", "f", "m", "n", "x"), replicate(s3));
+        assertEquals(List.of(), replicate(s3));
+    }
+
+    /**
+     * Replicates every range in its own task, then merges the ranges.
+     *
+     * @return the keys copied.
+     */
+    private List<String> replicate(InMemoryS3 s3) throws IOException {
+        final var copied = new CopyOnWriteArrayList<String>();
+        final TransferEngine engine = object -> {
+            copied.add(object.getKey());
+            return Status.COPIED;
+        };
+        for (var range : RANGES) {
+            final var ranged = request();
+            ranged.setRange(range);
+            final var part = S3Module.ledger(ranged, null, store);
+            new LocalReplication(s3, engine, part, ranged, metrics).run();
+            part.save();
+            part.close();
+        }
+
+        assertTrue(merge(new FailurePolicy(0, 0)));
+        copied.sort(BucketScanner::compare);
+        return copied;
+    }
+
+    private boolean merge(FailurePolicy policy) {
+        return new MergeRanges.Worker(request, ledger, store, policy).merge(RANGES);
+    }
+
+    /**
+     * Merges a range mismatched and a range failed, recorded afresh as a merge deletes the ranges.
+     */
+    private boolean mergeFailures(FailurePolicy policy) throws IOException {
+        range(0, "a", Status.MISMATCH);
+        range(1, "x", Status.FAILED);
+        return merge(policy);
+    }
+
+    private void range(int index, String key, Status status) throws IOException {
+        final var range = new ReplicationLedger(store, S3Module.ledgerName(request, RANGES.get(index)));
+        range.record(ImmutableS3Object.builder().key(key).size(1).etag("x").build(), status);
+        range.save();
+        range.close();
+    }
+
+    private static ReplicateBucket.Request request() {
+        final var source = new Resource();
+        source.setName("source");
+        final var target = new Resource();
+        target.setName("target");
+
+        final var request = new ReplicateBucket.Request();
+        request.setSource(source);
+        request.setTarget(target);
+        return request;
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.Tag;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MetadataPrefetcherTest {
+    private static final List<Tag> TAGS = List.of(new Tag("team", "dr"));
+
+    private final List<String> tagged = new CopyOnWriteArrayList<>();
+    private final InMemoryS3 s3 = new InMemoryS3() {
+        @Override
+        public ObjectMetadata getObjectMetadata(String bucket, String key) {
+            final var metadata = super.getObjectMetadata(bucket, key);
+            metadata.setHeader(Headers.S3_TAGGING_COUNT, key.startsWith("tagged") ? "1" : "0");
+            return metadata;
+        }
+
+        @Override
+        public GetObjectTaggingResult getObjectTagging(GetObjectTaggingRequest request) {
+            tagged.add(request.getKey());
+            return new GetObjectTaggingResult(TAGS);
+        }
+    };
+    private final MetadataPrefetcher prefetcher = prefetcher(s3);
+
+    @Test
+    void fetchesTheTagsOnlyOfObjectsCountingSome() {
+        s3.put("source", "tagged", new byte[]{1}, "\"etag\"");
+        s3.put("source", "plain", new byte[]{1}, "\"etag\"");
+        prefetcher.prefetch(object("tagged"), true, false);
+        prefetcher.prefetch(object("plain"), true, false);
+
+        assertEquals(TAGS, prefetcher.get(object("tagged"), true, false).getTags());
+        assertEquals(List.of(), prefetcher.get(object("plain"), true, false).getTags());
+        assertEquals(List.of("tagged"), tagged);
+    }
+
+    @Test
+    void fetchesTheTagsCountedByTheMetadataOfTheData() {
+        s3.put("source", "tagged", new byte[]{1}, "\"etag\"");
+        s3.put("source", "plain", new byte[]{1}, "\"etag\"");
+        prefetcher.prefetch(object("tagged"), false, false);
+
+        assertNull(prefetcher.get(object("tagged"), false, false).getTags());
+        assertEquals(List.of(), tagged);
+        assertEquals(TAGS, prefetcher.tags(object("tagged"), s3.getObjectMetadata("source", "tagged")).join());
+        assertEquals(List.of(), prefetcher.tags(object("plain"), s3.getObjectMetadata("source", "plain")).join());
+        assertEquals(List.of("tagged"), tagged);
+    }
+
+    /**
+     * The tags counted by the metadata of the data are fetched while the data is read, rather than after.
+     */
+    @Test
+    void fetchesTheTagsWhileTheDataIsRead() {
+        s3.put("source", "tagged", new byte[]{1}, "\"etag\"");
+        final var read = new CountDownLatch(1);
+        final var slow = new InMemoryS3() {
+            @Override
+            public GetObjectTaggingResult getObjectTagging(GetObjectTaggingRequest request) {
+                try {
+                    read.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new GetObjectTaggingResult(TAGS);
+            }
+        };
+        final var metadata = s3.getObjectMetadata("source", "tagged");
+
+        final var tags = prefetcher(slow).tags(object("tagged"), metadata);
+        assertFalse(tags.isDone());
+        read.countDown();
+        assertEquals(TAGS, MetadataPrefetcher.join(tags));
+    }
+
+    private static MetadataPrefetcher prefetcher(InMemoryS3 s3) {
+        final var request = new ReplicateBucket.Request();
+        request.setSource(resource("source"));
+        request.setTarget(resource("target"));
+        final var metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+                new PrintStream(OutputStream.nullOutputStream()));
+        return new MetadataPrefetcher(s3, request, new RetryPolicy(metrics));
+    }
+
+    private static S3Object object(String key) {
+        return ImmutableS3Object.builder().key(key).size(1).etag("etag").build();
+    }
+
+    private static Resource resource(String name) {
+        final var resource = new Resource();
+        resource.setName(name);
+        resource.setRegion("us-east-1");
+        return resource;
+    }
+}
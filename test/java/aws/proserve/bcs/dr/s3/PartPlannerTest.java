@@ -0,0 +1,123 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static aws.proserve.bcs.dr.s3.PartPlanner.MAX_OBJECT_SIZE;
+import static aws.proserve.bcs.dr.s3.PartPlanner.MAX_PARTS;
+import static aws.proserve.bcs.dr.s3.PartPlanner.MAX_PART_SIZE;
+import static aws.proserve.bcs.dr.s3.PartPlanner.MIN_PART_SIZE;
+import static aws.proserve.bcs.dr.s3.PartPlanner.ONE_MB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartPlannerTest {
+    private static final long ONE_GB = 1024 * ONE_MB;
+
+    @Test
+    void fitsTheLargestObjectInTheMaximumParts() {
+        final var planner = new PartPlanner(4 * ONE_GB, 16);
+        final var plan = covers(planner.plan(MAX_OBJECT_SIZE), MAX_OBJECT_SIZE);
+
+        assertTrue(plan.getParts() <= MAX_PARTS, plan.toString());
+        assertTrue(plan.getPartSize() <= MAX_PART_SIZE, plan.toString());
+        assertEquals(0, plan.getPartSize() % ONE_MB);
+    }
+
+    @Test
+    void keepsTheMinimumPartSizeForSmallObjects() {
+        final var planner = new PartPlanner(ONE_GB, 16);
+        final var plan = covers(planner.plan(100 * ONE_MB), 100 * ONE_MB);
+
+        assertEquals(MIN_PART_SIZE, plan.getPartSize());
+        assertEquals(13, plan.getParts());
+        assertEquals(13, plan.getParallelism());
+    }
+
+    @Test
+    void splitsAMidSizeObjectForEveryStream() {
+        final var planner = new PartPlanner(4 * ONE_GB, 16);
+        planner.record(ONE_GB, TimeUnit.SECONDS.toNanos(1));
+        final var plan = covers(planner.plan(16 * ONE_GB), 16 * ONE_GB);
+
+        assertEquals(16, plan.getParts());
+        assertEquals(ONE_GB, plan.getPartSize());
+    }
+
+    @Test
+    void capsThePartSizeOfFastPaths() {
+        final var planner = new PartPlanner(2 * ONE_GB, 16);
+        planner.record(10 * ONE_GB, TimeUnit.MILLISECONDS.toNanos(1));
+        final var plan = covers(planner.plan(100 * ONE_GB), 100 * ONE_GB);
+
+        assertEquals(MAX_PART_SIZE, plan.getPartSize());
+        assertEquals(100, plan.getParts());
+        assertEquals(2, plan.getParallelism());
+    }
+
+    @Test
+    void keepsThePartsWithinTheMemory() {
+        final var memory = 20 * ONE_MB;
+        final var planner = new PartPlanner(memory, 16);
+        planner.record(10 * ONE_GB, TimeUnit.MILLISECONDS.toNanos(1));
+        final var plan = covers(planner.plan(ONE_GB), ONE_GB);
+
+        assertTrue(plan.getPartSize() <= memory, plan.toString());
+        assertEquals(1, plan.getParallelism());
+        assertTrue(covers(planner.plan(ONE_GB, 64 * ONE_MB), ONE_GB).getPartSize() <= memory);
+    }
+
+    @Test
+    void raisesThePartSizeWithinTheMemoryOnlyForTheLimitOfParts() {
+        final var memory = 600 * ONE_MB;
+        final var plan = covers(new PartPlanner(memory, 16).plan(MAX_OBJECT_SIZE), MAX_OBJECT_SIZE);
+
+        assertTrue(plan.getPartSize() <= memory, plan.toString());
+        assertTrue(plan.getParts() <= MAX_PARTS, plan.toString());
+        assertEquals(1, plan.getParallelism());
+    }
+
+    @Test
+    void failsIfThePartsCannotFitTheMemory() {
+        final var planner = new PartPlanner(100 * ONE_MB, 16);
+
+        assertThrows(IllegalStateException.class, () -> planner.plan(MAX_OBJECT_SIZE));
+        assertThrows(IllegalStateException.class, () -> new PartPlanner(4 * ONE_MB, 16).plan(ONE_GB));
+    }
+
+    @Test
+    void keepsAValidSourcePartSize() {
+        final var planner = new PartPlanner(ONE_GB, 16);
+        final var plan = covers(planner.plan(ONE_GB + 1, 5 * ONE_MB), ONE_GB + 1);
+
+        assertEquals(5 * ONE_MB, plan.getPartSize());
+        assertEquals(205, plan.getParts());
+    }
+
+    @Test
+    void replansAnInvalidSourcePartSize() {
+        final var planner = new PartPlanner(ONE_GB, 16);
+
+        assertEquals(16 * ONE_MB, covers(planner.plan(ONE_GB, 4 * ONE_MB), ONE_GB).getPartSize());
+        assertEquals(16 * ONE_MB, covers(planner.plan(ONE_GB, 2 * ONE_GB), ONE_GB).getPartSize());
+
+        final var length = 60 * ONE_GB;
+        final var plan = covers(planner.plan(length, 5 * ONE_MB), length);
+        assertTrue(plan.getParts() <= MAX_PARTS, plan.toString());
+    }
+
+    /**
+     * @return the plan, once checked to cover the length without a part to spare.
+     */
+    private static PartPlanner.Plan covers(PartPlanner.Plan plan, long length) {
+        assertTrue(plan.getPartSize() * plan.getParts() >= length, plan.toString());
+        assertTrue(plan.getPartSize() * (plan.getParts() - 1) < length, plan.toString());
+        assertTrue(plan.getParallelism() >= 1 && plan.getParallelism() <= plan.getParts(), plan.toString());
+        return plan;
+    }
+}
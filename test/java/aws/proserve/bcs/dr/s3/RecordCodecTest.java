@@ -0,0 +1,98 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordCodecTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void decodesTheObjectsEncoded() throws IOException {
+        final var objects = List.of(
+                object("plain", 0, "0123456789abcdef0123456789abcdef"),
+                object("multipart", Long.MAX_VALUE - 1, "0123456789abcdef0123456789abcdef-10000"),
+                object("ключ/日本 space", 1L << 40, "not-an-md5"),
+                object("no-etag", 7, null),
+                object(S3Object.COMPLETED_KEY, S3Object.COMPLETED_SIZE, null));
+
+        final var records = RecordCodec.encode(objects);
+        assertEquals(1, records.size());
+        assertEquals(objects, RecordCodec.decode(records.get(0), mapper));
+    }
+
+    @Test
+    void splitsTheObjectsBeyondOneRecord() throws IOException {
+        final var objects = new ArrayList<S3Object>();
+        for (int i = 0; i < 2000; i++) {
+            objects.add(object("k".repeat(i % 1024 + 1), i, "0123456789abcdef0123456789abcdef-" + i));
+        }
+
+        final var records = RecordCodec.encode(objects);
+        assertTrue(records.size() > 1);
+        final var decoded = new ArrayList<S3Object>();
+        for (var record : records) {
+            assertTrue(record.remaining() <= RecordCodec.MAX_RECORD_BYTES);
+            decoded.addAll(RecordCodec.decode(record, mapper));
+        }
+        assertEquals(objects, decoded);
+    }
+
+    @Test
+    void decodesTheJsonOfEarlierVersions() throws IOException {
+        final var object = object("key", 42, "etag");
+        final var json = mapper.writeValueAsBytes(object);
+
+        assertEquals(List.of(object), RecordCodec.decode(ByteBuffer.wrap(json), mapper));
+        final var direct = ByteBuffer.allocateDirect(json.length).put(json).flip();
+        assertEquals(List.of(object), RecordCodec.decode(direct, mapper));
+
+        final var withoutEtag = "{\"key\":\"key\",\"size\":42}".getBytes();
+        assertEquals(List.of(object("key", 42, null)), RecordCodec.decode(ByteBuffer.wrap(withoutEtag), mapper));
+    }
+
+    @Test
+    void rejectsAnUnknownVersion() {
+        final var record = ByteBuffer.wrap(new byte[]{RecordCodec.MAGIC, RecordCodec.VERSION + 1, 0, 0, 0, 0});
+
+        assertThrows(IOException.class, () -> RecordCodec.decode(record, mapper));
+    }
+
+    @Test
+    void decodesVarintsAtTheirLimits() {
+        final var buffer = ByteBuffer.allocate(64);
+        for (var value : new long[]{0, 127, 128, 16_383, 16_384, Long.MAX_VALUE, -1}) {
+            buffer.clear();
+            BinaryCodec.putVarint(buffer, value);
+            buffer.flip();
+            assertEquals(value, BinaryCodec.getVarint(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    void keepsAnMd5EtagInSixteenBytes() {
+        final var buffer = ByteBuffer.allocate(64);
+        BinaryCodec.putEtag(buffer, "0123456789abcdef0123456789abcdef");
+
+        assertEquals(17, buffer.position());
+        assertEquals("0123456789abcdef0123456789abcdef", BinaryCodec.getEtag(buffer.flip()));
+    }
+
+    private static S3Object object(String key, long size, String etag) {
+        return ImmutableS3Object.builder().key(key).size(size).etag(etag).build();
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordProcessorTest {
+    private static final IRecordProcessorCheckpointer CHECKPOINTER = (IRecordProcessorCheckpointer) Proxy
+            .newProxyInstance(RecordProcessorTest.class.getClassLoader(),
+                    new Class<?>[]{IRecordProcessorCheckpointer.class}, (proxy, method, args) -> null);
+
+    private final ReplicationMetrics metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+            new PrintStream(OutputStream.nullOutputStream()));
+    private final ReplicationLedger ledger = new ReplicationLedger(new InMemoryStateStore(), "ledger");
+    private final ScheduledExecutorService completer = Executors.newScheduledThreadPool(4);
+
+    @AfterEach
+    void tearDown() {
+        ledger.close();
+        completer.shutdownNow();
+    }
+
+    /**
+     * Records packing many objects each hold at most the objects in flight allowed between their prefetch and copy.
+     */
+    @Test
+    void boundsTheObjectsInFlightRatherThanTheRecords() {
+        final var objects = new ArrayList<S3Object>();
+        for (int i = 0; i < 5 * RecordProcessor.MAX_IN_FLIGHT; i++) {
+            objects.add(ImmutableS3Object.builder().key(String.format("key-%06d", i)).size(1).etag("x").build());
+        }
+        final var records = new ArrayList<Record>();
+        for (var data : RecordCodec.encode(objects)) {
+            records.add(new Record().withSequenceNumber(Integer.toString(records.size())).withData(data));
+        }
+        assertTrue(records.size() < objects.size() / RecordProcessor.MAX_IN_FLIGHT, "records " + records.size());
+
+        final var engine = new Engine();
+        final var processor = new RecordProcessor(null, null, engine, new TransferLanes(metrics), ledger, null,
+                null, metrics, () -> {
+        });
+        processor.initialize(new InitializationInput().withShardId("shard"));
+        assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+            processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(CHECKPOINTER));
+            processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.ZOMBIE)
+                    .withCheckpointer(CHECKPOINTER));
+        });
+
+        assertEquals(objects.size(), engine.copied.get());
+        assertTrue(engine.peak.get() <= RecordProcessor.MAX_IN_FLIGHT, "peak " + engine.peak.get());
+        for (var object : objects) {
+            assertTrue(ledger.isCopied(object), object.getKey());
+        }
+    }
+
+    /**
+     * Completes the copies later on threads of its own, and tracks the objects prefetched but not yet copied.
+     */
+    private class Engine implements TransferEngine {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+        private final AtomicInteger copied = new AtomicInteger();
+
+        @Override
+        public Status copy(S3Object object) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Status> copyAsync(S3Object object) {
+            final var future = new CompletableFuture<Status>();
+            completer.schedule(() -> {
+                copied.incrementAndGet();
+                pending.decrementAndGet();
+                future.complete(Status.COPIED);
+            }, 100, TimeUnit.MICROSECONDS);
+            return future;
+        }
+
+        @Override
+        public boolean isNonBlocking() {
+            return true;
+        }
+
+        @Override
+        public void prefetch(S3Object object) {
+            peak.accumulateAndGet(pending.incrementAndGet(), Math::max);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class ReplicateFileTest {
+    private static final int ONE_MB = 1024 * 1024;
+    private static final String SOURCE = "source";
+    private static final String TARGET = "target";
+
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final Random random = new Random(42);
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final UploadJournal journal = new UploadJournal(store, "test");
+    private ReplicationMetrics metrics;
+    private ReplicateBucket.Request request;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        request = new ReplicateBucket.Request();
+        request.setSource(resource(SOURCE, "us-east-1"));
+        request.setTarget(resource(TARGET, "cn-north-1"));
+        metrics = new ReplicationMetrics(new ObjectMapper(), "test", new PrintStream(OutputStream.nullOutputStream()));
+        executor = Executors.newFixedThreadPool(64);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        journal.close();
+    }
+
+    /**
+     * Parts hold the whole pool of buffers while more small copies than the slots of the limiter wait for a buffer,
+     * as the 64 threads of the tiny lane do. Every copy completes, as none waits for a buffer holding a slot.
+     */
+    @Test
+    void copiesWithBuffersAndSlotsSaturated() {
+        final var replicateFile = replicateFile(new BufferPool(16L * ONE_MB));
+        final var objects = new ArrayList<S3Object>();
+        final var large = content(100 * ONE_MB + 1);
+        for (int i = 0; i < 2; i++) {
+            objects.add(put("large-" + i, large));
+        }
+        for (int i = 0; i < 128; i++) {
+            objects.add(put("small-" + i, content(ONE_MB / 2 + i)));
+        }
+
+        assertTimeoutPreemptively(Duration.ofMinutes(2), () -> {
+            final var futures = new ArrayList<CompletableFuture<Status>>();
+            for (var object : objects) {
+                futures.add(CompletableFuture.supplyAsync(() -> replicateFile.copy(object), executor));
+            }
+            for (var future : futures) {
+                assertEquals(Status.COPIED, future.join());
+            }
+        });
+    }
+
+    /**
+     * An object grown since listed is copied by parts, rather than in a buffer of the size listed.
+     */
+    @Test
+    void copiesByPartsAnObjectGrownSinceListed() {
+        final var replicateFile = replicateFile(new BufferPool(16L * ONE_MB));
+        final var grown = put("grown", content(3 * ONE_MB));
+        final var listed = ImmutableS3Object.builder().from(grown).size(ONE_MB).build();
+
+        assertEquals(Status.COPIED, replicateFile.copy(listed));
+        assertEquals(1, s3.getUploads());
+    }
+
+    /**
+     * An upload recorded by the journal continues from the parts S3 lists as uploaded, and completes with the ETag of
+     * all the parts.
+     */
+    @Test
+    void resumesAnUploadFromTheJournal() {
+        final var content = content(12 * ONE_MB);
+        final var object = put("resumed", content);
+        final var partSize = (int) PartPlanner.MIN_UPLOAD_PART_SIZE;
+        final var uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(TARGET, "resumed"))
+                .getUploadId();
+        final var upload = journal.begin("resumed", uploadId, object.getEtag(), content.length, partSize, null);
+        for (int part = 1; part <= 2; part++) {
+            final var result = s3.uploadPart(new UploadPartRequest()
+                    .withBucketName(TARGET)
+                    .withKey("resumed")
+                    .withUploadId(uploadId)
+                    .withPartNumber(part)
+                    .withPartSize(partSize)
+                    .withInputStream(new ByteArrayInputStream(content, (part - 1) * partSize, partSize))
+                    .withMD5Digest(md5(content, (part - 1) * partSize, partSize)));
+            journal.part(upload, part, result.getETag());
+        }
+        journal.release(uploadId);
+
+        final var listed = ImmutableS3Object.builder().from(object).size(ONE_MB).build();
+        assertEquals(Status.COPIED, replicateFile(new BufferPool(16L * ONE_MB)).copy(listed));
+        assertEquals(1, s3.getUploads());
+        assertEquals(3, s3.getParts());
+        assertFalse(s3.isPending(uploadId));
+        assertNull(journal.get("resumed"));
+    }
+
+    /**
+     * An upload recorded by the journal but gone from S3, such as aborted by a lifecycle rule, starts over.
+     */
+    @Test
+    void startsOverAnUploadGoneFromS3() {
+        final var content = content(12 * ONE_MB);
+        final var object = put("gone", content);
+        journal.begin("gone", "aborted", object.getEtag(), content.length, PartPlanner.MIN_UPLOAD_PART_SIZE, null);
+        journal.release("aborted");
+
+        final var listed = ImmutableS3Object.builder().from(object).size(ONE_MB).build();
+        assertEquals(Status.COPIED, replicateFile(new BufferPool(16L * ONE_MB)).copy(listed));
+        assertEquals(1, s3.getUploads());
+        assertEquals(3, s3.getParts());
+        assertNull(journal.get("gone"));
+    }
+
+    /**
+     * Within the partition, an object under 1 GB is copied by a single {@code CopyObject}.
+     */
+    @Test
+    void copiesInThePartitionBySingleCopy() {
+        request.getTarget().setRegion("us-west-2");
+        final var object = put("small", content(ONE_MB));
+
+        assertEquals(Status.COPIED, replicateFile(new BufferPool(16L * ONE_MB)).copy(object));
+        assertEquals(1, s3.getCopies());
+        assertEquals(0, s3.getUploads());
+    }
+
+    /**
+     * Within the partition, an object of 1 GB or more is copied by {@code UploadPartCopy} in parts of 512 MB.
+     */
+    @Test
+    void copiesInThePartitionByParts() {
+        request.getTarget().setRegion("us-west-2");
+        s3.put(SOURCE, "large", 1536L * ONE_MB, "\"etag-3\"");
+        final var object = ImmutableS3Object.builder().key("large").size(1536L * ONE_MB).etag("etag-3").build();
+
+        assertEquals(Status.COPIED, replicateFile(new BufferPool(16L * ONE_MB)).copy(object));
+        assertEquals(0, s3.getCopies());
+        assertEquals(1, s3.getUploads());
+        assertEquals(3, s3.getParts());
+        assertEquals(List.of(), s3.listMultipartUploads(new ListMultipartUploadsRequest(TARGET))
+                .getMultipartUploads());
+    }
+
+    /**
+     * A part failing for good aborts the upload, rather than leaving its parts billed in the target.
+     */
+    @Test
+    void abortsTheCopyByPartsOnAPartFailed() {
+        request.getTarget().setRegion("us-west-2");
+        final var denied = new AmazonS3Exception("Access Denied");
+        denied.setStatusCode(403);
+        denied.setErrorCode("AccessDenied");
+        final var failing = new InMemoryS3() {
+            @Override
+            public CopyPartResult copyPart(CopyPartRequest request) {
+                if (request.getPartNumber() == 2) {
+                    throw denied;
+                }
+                return super.copyPart(request);
+            }
+        };
+        failing.put(SOURCE, "large", 1536L * ONE_MB, "\"etag-3\"");
+        final var object = ImmutableS3Object.builder().key("large").size(1536L * ONE_MB).etag("etag-3").build();
+
+        assertEquals(Status.FAILED, replicateFile(failing, new BufferPool(16L * ONE_MB)).copy(object));
+        assertEquals(1, failing.getUploads());
+        assertEquals(List.of(), failing.listMultipartUploads(new ListMultipartUploadsRequest(TARGET))
+                .getMultipartUploads());
+    }
+
+    private ReplicateFile replicateFile(BufferPool buffers) {
+        return replicateFile(s3, buffers);
+    }
+
+    private ReplicateFile replicateFile(InMemoryS3 s3, BufferPool buffers) {
+        final var retry = new RetryPolicy(metrics);
+        return new ReplicateFile(s3, s3, request, metrics, new BandwidthGovernor(0, 0, null), retry,
+                new ConcurrencyLimiter(metrics), buffers, journal,
+                new DeadLetters(store, new ObjectMapper(), "test"), new MetadataPrefetcher(s3, request, retry));
+    }
+
+    private byte[] content(int size) {
+        final var content = new byte[size];
+        random.nextBytes(content);
+        return content;
+    }
+
+    private S3Object put(String key, byte[] content) {
+        final var part = new TransferChecksum.Part();
+        part.update(content, 0, content.length);
+        final var checksum = new TransferChecksum(1);
+        checksum.complete(1, part);
+
+        s3.put(SOURCE, key, content, '"' + checksum.etag() + '"');
+        return ImmutableS3Object.builder().key(key).size(content.length).etag(checksum.etag()).build();
+    }
+
+    private static String md5(byte[] content, int offset, int length) {
+        try {
+            final var digest = MessageDigest.getInstance("MD5");
+            digest.update(content, offset, length);
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Resource resource(String name, String region) {
+        final var resource = new Resource();
+        resource.setName(name);
+        resource.setRegion(region);
+        return resource;
+    }
+}
@@ -0,0 +1,214 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationLedgerTest {
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final List<ReplicationLedger> ledgers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        ledgers.forEach(ReplicationLedger::close);
+    }
+
+    @Test
+    void tellsTheSameVersionCopied() {
+        final var ledger = ledger("ledger");
+        ledger.record(object("key", 10, "\"abc\""), Status.COPIED);
+
+        assertTrue(ledger.isCopied(object("key", 10, "abc")));
+        assertTrue(ledger.isCopied(object("key", 10, null)));
+        assertFalse(ledger.isCopied(object("key", 10, "def")));
+        assertFalse(ledger.isCopied(object("key", 11, "abc")));
+        assertFalse(ledger.isCopied(object("other", 10, "abc")));
+    }
+
+    @Test
+    void keepsTheNewestEntryAcrossRunsCompacted() {
+        final var ledger = ledger("ledger");
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                ledger.record(object(key(i), i, "etag-" + round), round == 4 ? Status.COPIED : Status.FAILED);
+            }
+            ledger.flush();
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ledger.isCopied(object(key(i), i, "etag-4")), key(i));
+            assertEquals(5, ledger.get(key(i)).getAttempts());
+        }
+        assertEquals(Map.of(Status.COPIED, 100L), ledger.count());
+    }
+
+    @Test
+    void loadsTheLedgerSaved() throws IOException {
+        final var ledger = ledger("ledger");
+        for (int i = 0; i < 1000; i++) {
+            ledger.record(object(key(i), i, "etag-" + i), i % 10 == 0 ? Status.FAILED : Status.COPIED);
+            if (i % 300 == 0) {
+                ledger.flush();
+            }
+        }
+        ledger.record(object("ключ/日本", 1, null), Status.SKIPPED);
+        ledger.save();
+
+        final var loaded = ledger("ledger");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 10 != 0, loaded.isCopied(object(key(i), i, "etag-" + i)), key(i));
+        }
+        assertEquals(Status.SKIPPED, loaded.get("ключ/日本").getStatus());
+        assertNull(loaded.get("ключ/日本").getEtag());
+        assertEquals(ledger.count(), loaded.count());
+    }
+
+    /**
+     * A save writes the runs flushed or merged since the last one, and deletes those merged away.
+     */
+    @Test
+    void savesTheNewRunsOnly() throws IOException {
+        final var ledger = ledger("ledger");
+        record(ledger, 0, 1000);
+        record(ledger, 1000, 10);
+        ledger.save();
+        final var first = store.list("runs/ledger/");
+        assertEquals(2, first.size());
+        final var saves = store.getSaves();
+
+        ledger.save();
+        assertEquals(saves, store.getSaves());
+
+        record(ledger, 1010, 10);
+        ledger.save();
+        final var second = store.list("runs/ledger/");
+        assertEquals(2, second.size());
+        assertEquals(first.get(0), second.get(0));
+        assertFalse(second.contains(first.get(1)));
+        assertEquals(saves + 2, store.getSaves());
+
+        final var loaded = ledger("ledger");
+        for (int i = 0; i < 1020; i++) {
+            assertTrue(loaded.isCopied(object(key(i), i, "etag-" + i)), key(i));
+        }
+        record(loaded, 1020, 5);
+        loaded.save();
+        assertEquals(3, store.list("runs/ledger/").size());
+        assertTrue(store.list("runs/ledger/").containsAll(second));
+    }
+
+    @Test
+    void deletesTheRunsOfAnotherLedger() throws IOException {
+        final var ledger = ledger("ledger");
+        final var range = ledger("ledger/range-0");
+        record(ledger, 0, 10);
+        record(range, 10, 10);
+        ledger.save();
+        range.save();
+
+        ledger.absorb("ledger/range-0");
+        ledger.save();
+        ledger.delete("ledger/range-0");
+        assertFalse(store.contains("ledger/range-0"));
+        assertEquals(List.of(), store.list("runs/ledger/range-0/"));
+
+        final var loaded = ledger("ledger");
+        for (int i = 0; i < 20; i++) {
+            assertTrue(loaded.isCopied(object(key(i), i, "etag-" + i)), key(i));
+        }
+    }
+
+    @Test
+    void startsEmptyWithoutARunOfTheManifest() throws IOException {
+        final var ledger = ledger("ledger");
+        record(ledger, 0, 10);
+        ledger.save();
+        store.delete(store.list("runs/ledger/").get(0));
+
+        assertEquals(Map.of(), ledger("ledger").count());
+    }
+
+    @Test
+    void mergesAnotherLedgerWhoseEntriesWin() {
+        final var ledger = ledger("ledger");
+        ledger.record(object("a", 1, "x"), Status.FAILED);
+        ledger.record(object("b", 1, "x"), Status.COPIED);
+        final var range = ledger("range");
+        range.record(object("a", 1, "x"), Status.COPIED);
+        range.record(object("c", 1, "x"), Status.COPIED);
+
+        ledger.merge(range);
+        assertTrue(ledger.isCopied(object("a", 1, "x")));
+        assertTrue(ledger.isCopied(object("b", 1, "x")));
+        assertTrue(ledger.isCopied(object("c", 1, "x")));
+        assertEquals(Map.of(Status.COPIED, 3L), ledger.count());
+    }
+
+    /**
+     * The objects recorded since the ledger was loaded count apart from the history, even once their runs compacted.
+     */
+    @Test
+    void countsTheObjectsOfThisRunApart() throws IOException {
+        final var ledger = ledger("ledger");
+        record(ledger, 0, 100);
+        ledger.save();
+
+        final var loaded = ledger("ledger");
+        for (int i = 90; i < 105; i++) {
+            loaded.record(object(key(i), i, "etag-" + i), i < 95 ? Status.COPIED : Status.FAILED);
+            loaded.flush();
+        }
+        assertEquals(Map.of(Status.COPIED, 5L, Status.FAILED, 10L), loaded.countThisRun());
+        assertEquals(Map.of(Status.COPIED, 95L, Status.FAILED, 10L), loaded.count());
+    }
+
+    @Test
+    void startsEmptyFromAnUnknownFormat() throws IOException {
+        store.save("ledger", new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}), 5);
+
+        assertEquals(Map.of(), ledger("ledger").count());
+    }
+
+    /**
+     * Records the objects copied into a run of their own.
+     */
+    private static void record(ReplicationLedger ledger, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            ledger.record(object(key(i), i, "etag-" + i), Status.COPIED);
+        }
+        ledger.flush();
+    }
+
+    private ReplicationLedger ledger(String name) {
+        final var ledger = new ReplicationLedger(store, name);
+        ledgers.add(ledger);
+        return ledger;
+    }
+
+    /**
+     * @return keys sharing long prefixes, to cross the restarts of the prefix compression.
+     */
+    private static String key(int i) {
+        return String.format("data/2024/%02d/object-%05d.bin", i % 12, i);
+    }
+
+    private static S3Object object(String key, long size, String etag) {
+        return ImmutableS3Object.builder().key(key).size(size).etag(etag).build();
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationMetricsTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ReplicationMetrics metrics = new ReplicationMetrics(mapper, "stream",
+            new PrintStream(out, true, StandardCharsets.UTF_8));
+
+    @Test
+    void flushesOneDocumentInTheEmbeddedMetricFormat() throws IOException {
+        metrics.counter("Failures").add(3);
+        metrics.gauge("Queued", () -> 7);
+        metrics.histogram("Latency").record(1500);
+        metrics.histogram("Latency").record(2500);
+        metrics.flush();
+
+        final var documents = documents();
+        assertEquals(1, documents.size());
+        final var document = documents.get(0);
+        final var directive = document.at("/_aws/CloudWatchMetrics/0");
+        assertTrue(document.at("/_aws/Timestamp").isNumber());
+        assertEquals(ReplicationMetrics.NAMESPACE, directive.get("Namespace").asText());
+        assertEquals("[[\"Stream\"]]", directive.get("Dimensions").toString());
+        assertEquals("stream", document.get("Stream").asText());
+
+        final var units = new HashMap<String, String>();
+        directive.get("Metrics").forEach(m -> units.put(m.get("Name").asText(), m.get("Unit").asText()));
+        assertEquals("Count", units.get("Failures"));
+        assertEquals("Count", units.get("Queued"));
+        assertEquals("Milliseconds", units.get("Latency"));
+        for (var name : units.keySet()) {
+            assertTrue(document.has(name), name);
+        }
+
+        assertEquals(3, document.get("Failures").asLong());
+        assertEquals(7, document.get("Queued").asLong());
+        final var latency = document.get("Latency");
+        assertEquals(2, latency.get("Count").asLong());
+        assertEquals(1.5, latency.get("Min").asDouble());
+        assertEquals(2.5, latency.get("Max").asDouble());
+        assertEquals(4.0, latency.get("Sum").asDouble());
+        assertEquals(2, latency.get("Values").size());
+        assertEquals("[1,1]", latency.get("Counts").toString());
+    }
+
+    @Test
+    void dividesTheRatesByTheInterval() throws IOException, InterruptedException {
+        final var start = System.nanoTime();
+        metrics.flush();
+        final var flushed = System.nanoTime();
+        out.reset();
+
+        metrics.rate("Bytes", ReplicationMetrics.BYTES_PER_SECOND).add(1_000_000);
+        Thread.sleep(200);
+        final var before = System.nanoTime();
+        metrics.flush();
+        final var after = System.nanoTime();
+
+        final var document = documents().get(0);
+        final var rate = document.get("Bytes").asDouble();
+        assertTrue(rate >= 1_000_000 / ((after - start) / 1e9), "rate " + rate);
+        assertTrue(rate <= 1_000_000 / ((before - flushed) / 1e9), "rate " + rate);
+        assertEquals(ReplicationMetrics.BYTES_PER_SECOND, document.at("/_aws/CloudWatchMetrics/0/Metrics/0/Unit").asText());
+
+        out.reset();
+        metrics.flush();
+        assertEquals(0, documents().get(0).get("Bytes").asDouble());
+    }
+
+    @Test
+    void emitsTheLagOfEveryShardInADocumentOfItsOwn() throws IOException {
+        metrics.lag("shard-1", 100);
+        metrics.lag("shard-2", 300);
+        metrics.removeShard("shard-2");
+        metrics.lag("shard-3", 200);
+        assertEquals(200, metrics.maxShardLag());
+        metrics.flush();
+
+        final var documents = documents();
+        assertEquals(3, documents.size());
+        final var shards = new HashMap<String, Long>();
+        for (var document : documents.subList(1, 3)) {
+            assertEquals("[[\"Stream\",\"Shard\"]]", document.at("/_aws/CloudWatchMetrics/0/Dimensions").toString());
+            shards.put(document.get("Shard").asText(), document.get("MillisBehindLatest").asLong());
+        }
+        assertEquals(100, shards.get("shard-1"));
+        assertEquals(200, shards.get("shard-3"));
+    }
+
+    private List<JsonNode> documents() throws IOException {
+        final var documents = new ArrayList<JsonNode>();
+        for (var line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isBlank()) {
+                documents.add(mapper.readTree(line));
+            }
+        }
+        return documents;
+    }
+}
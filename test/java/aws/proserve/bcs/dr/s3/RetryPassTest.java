@@ -0,0 +1,83 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetryPassTest {
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final DeadLetters deadLetters = new DeadLetters(store, new ObjectMapper(), "dead-letters");
+    private final ReplicationLedger ledger = new ReplicationLedger(store, "ledger");
+    private final List<String> copied = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        deadLetters.close();
+        ledger.close();
+    }
+
+    @Test
+    void dropsTheLettersOfObjectsDeletedFromTheSource() {
+        s3.put("source", "present", new byte[]{1}, "\"etag\"");
+        deadLetters.add(object("present"), "copy", "TRANSIENT", "error");
+        deadLetters.add(object("deleted"), "copy", "PERMANENT", "404");
+
+        assertEquals(0, retryPass(Status.COPIED).run());
+        assertEquals(List.of("present"), copied);
+        assertEquals(Status.SKIPPED, ledger.get("deleted").getStatus());
+    }
+
+    @Test
+    void keepsTheLettersStillFailing() {
+        s3.put("source", "present", new byte[]{1}, "\"etag\"");
+        deadLetters.add(object("present"), "copy", "TRANSIENT", "error");
+
+        assertEquals(1, retryPass(Status.FAILED).run());
+        assertEquals(Status.FAILED, ledger.get("present").getStatus());
+    }
+
+    /**
+     * @param status of every copy, which takes the object out of the dead letters if copied.
+     */
+    private RetryPass retryPass(Status status) {
+        final var request = new ReplicateBucket.Request();
+        request.setSource(resource("source"));
+        request.setTarget(resource("target"));
+        final var metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+                new PrintStream(OutputStream.nullOutputStream()));
+        final TransferEngine engine = object -> {
+            copied.add(object.getKey());
+            if (status == Status.COPIED) {
+                deadLetters.remove(object.getKey());
+            }
+            return status;
+        };
+        return new RetryPass(s3, request, engine, deadLetters, ledger, new RetryPolicy(metrics));
+    }
+
+    private static S3Object object(String key) {
+        return ImmutableS3Object.builder().key(key).size(1).etag("etag").build();
+    }
+
+    private static Resource resource(String name) {
+        final var resource = new Resource();
+        resource.setName(name);
+        resource.setRegion("us-east-1");
+        return resource;
+    }
+}
@@ -0,0 +1,119 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.RetryPolicy.ErrorClass;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private final RetryPolicy retry = new RetryPolicy(new ReplicationMetrics(new ObjectMapper(), "test",
+            new PrintStream(OutputStream.nullOutputStream())));
+
+    @Test
+    void classifiesTheErrorsOfServices() {
+        assertEquals(ErrorClass.THROTTLING, RetryPolicy.classify(service(503, "SlowDown")));
+        assertEquals(ErrorClass.THROTTLING, RetryPolicy.classify(service(429, "TooManyRequests")));
+        assertEquals(ErrorClass.THROTTLING, RetryPolicy.classify(service(400, "ThrottlingException")));
+        assertEquals(ErrorClass.TRANSIENT, RetryPolicy.classify(service(500, "InternalError")));
+        assertEquals(ErrorClass.TRANSIENT, RetryPolicy.classify(service(400, "RequestTimeout")));
+        assertEquals(ErrorClass.TRANSIENT, RetryPolicy.classify(service(400, "ExpiredToken")));
+        assertEquals(ErrorClass.PERMANENT, RetryPolicy.classify(service(403, "AccessDenied")));
+        assertEquals(ErrorClass.PERMANENT, RetryPolicy.classify(service(404, "NoSuchKey")));
+        assertEquals(ErrorClass.UNKNOWN, RetryPolicy.classify(service(301, "PermanentRedirect")));
+    }
+
+    @Test
+    void classifiesTheErrorsOfClients() {
+        assertEquals(ErrorClass.TRANSIENT, RetryPolicy.classify(new SdkClientException("reset")));
+        assertEquals(ErrorClass.TRANSIENT, RetryPolicy.classify(new SocketTimeoutException()));
+        assertEquals(ErrorClass.PERMANENT, RetryPolicy.classify(new InterruptedException()));
+        assertEquals(ErrorClass.PERMANENT, RetryPolicy.classify(new OutOfMemoryError()));
+        assertEquals(ErrorClass.UNKNOWN, RetryPolicy.classify(new IllegalStateException()));
+    }
+
+    @Test
+    void classifiesTheCauseOfWrappers() {
+        final var throttled = service(503, "SlowDown");
+
+        assertEquals(ErrorClass.THROTTLING, RetryPolicy.classify(new CompletionException(throttled)));
+        assertEquals(ErrorClass.THROTTLING,
+                RetryPolicy.classify(new CompletionException(new ExecutionException(throttled))));
+        assertEquals(ErrorClass.TRANSIENT, RetryPolicy.classify(new UncheckedIOException(new IOException())));
+        assertEquals(ErrorClass.UNKNOWN, RetryPolicy.classify(new CompletionException(null)));
+    }
+
+    @Test
+    void backsOffWithinTheCapOfTheClass() {
+        final var caps = Map.of(ErrorClass.THROTTLING, 60_000L, ErrorClass.TRANSIENT, 20_000L,
+                ErrorClass.UNKNOWN, 10_000L, ErrorClass.PERMANENT, 0L);
+        caps.forEach((errorClass, cap) -> {
+            for (int attempt = 1; attempt <= 100; attempt++) {
+                final var backoff = RetryPolicy.backoffMillis(errorClass, attempt);
+                assertTrue(backoff >= 0 && backoff <= cap, errorClass + " " + backoff);
+            }
+        });
+        assertEquals(0, RetryPolicy.backoffMillis(ErrorClass.PERMANENT, 1));
+    }
+
+    @Test
+    void retriesATransientErrorUntilItPasses() {
+        final var calls = new AtomicInteger();
+
+        assertEquals("done", retry.call("test", () -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new SdkClientException("reset");
+            }
+            return "done";
+        }));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void throwsAPermanentErrorAtOnce() {
+        final var calls = new AtomicInteger();
+        final var denied = service(403, "AccessDenied");
+
+        assertSame(denied, assertThrows(AmazonServiceException.class, () -> retry.run("test", () -> {
+            calls.incrementAndGet();
+            throw denied;
+        })));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void wrapsACheckedErrorOnceOutOfAttempts() {
+        final var interrupted = new InterruptedException();
+
+        final var e = assertThrows(CompletionException.class, () -> retry.call("test", () -> {
+            throw interrupted;
+        }));
+        assertSame(interrupted, e.getCause());
+    }
+
+    private static AmazonServiceException service(int status, String code) {
+        final var e = new AmazonS3Exception(code);
+        e.setStatusCode(status);
+        e.setErrorCode(code);
+        return e;
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import aws.proserve.bcs.dr.s3.ReplicationLedger.Status;
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import aws.proserve.bcs.dr.s3.dto.S3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class S3ModuleTest {
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final ReplicateBucket.Request request = request();
+
+    @Test
+    void refusesTheCrtEngineWithABandwidthLimit() {
+        assertThrows(IllegalStateException.class, () -> S3Module.selectEngine("crt", true, () -> null, () -> null));
+        assertNull(S3Module.selectEngine("crt", false, () -> fail("blocking engine"), () -> null));
+        assertNull(S3Module.selectEngine(null, true, () -> null, () -> fail("crt engine")));
+    }
+
+    @Test
+    void keepsTheStateOfAStreamTaskUnderItsOwnName() throws IOException {
+        final var base = new ReplicationLedger(store, "ledger/source/target");
+        base.record(object("a"), Status.COPIED);
+        base.save();
+        base.close();
+        final var other = new ReplicationLedger(store, "ledger/source/target.task-other");
+        other.record(object("b"), Status.COPIED);
+        other.save();
+        other.close();
+
+        final var ledger = S3Module.ledger(request, "stream", store);
+        ledger.close();
+        assertTrue(ledger.isCopied(object("a")));
+        assertTrue(ledger.isCopied(object("b")));
+        assertEquals(List.of("ledger/source/target", "ledger/source/target.task-" + S3Module.TASK_ID),
+                store.list("ledger/"));
+    }
+
+    @Test
+    void takesInTheDeadLettersOfOtherTasks() throws IOException {
+        final var other = new DeadLetters(store, new ObjectMapper(), "dead-letters/source/target.task-other.jsonl");
+        other.add(object("a"), "copy", "TRANSIENT", "error");
+        other.save();
+        other.close();
+
+        final var letters = S3Module.deadLetters(request, "stream", store, new ObjectMapper());
+        letters.close();
+        assertEquals(1, letters.size());
+        assertEquals(List.of("dead-letters/source/target.task-" + S3Module.TASK_ID + ".jsonl"),
+                store.list("dead-letters/"));
+    }
+
+    @Test
+    void keepsTheStateOfALocalTaskUnderTheBucket() {
+        final var journal = S3Module.uploadJournal(request, null, store);
+        journal.close();
+        assertEquals(List.of(), store.list("uploads/source/target.task-"));
+    }
+
+    @Test
+    void requiresARequestForTheState() {
+        assertThrows(NullPointerException.class, () -> S3Module.ledger(null, null, store));
+    }
+
+    private static S3Object object(String key) {
+        return ImmutableS3Object.builder().key(key).size(1).etag("etag").build();
+    }
+
+    private static ReplicateBucket.Request request() {
+        final var request = new ReplicateBucket.Request();
+        request.setSource(resource("source"));
+        request.setTarget(resource("target"));
+        return request;
+    }
+
+    private static Resource resource(String name) {
+        final var resource = new Resource();
+        resource.setName(name);
+        resource.setRegion("us-east-1");
+        return resource;
+    }
+}
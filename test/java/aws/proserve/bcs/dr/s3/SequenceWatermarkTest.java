@@ -0,0 +1,70 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequenceWatermarkTest {
+    private final SequenceWatermark<String> watermark = new SequenceWatermark<>();
+
+    @Test
+    void staysBelowTheFirstItemInFlight() {
+        final var first = watermark.track("1");
+        final var second = watermark.track("2");
+        final var third = watermark.track("3");
+
+        watermark.complete(second);
+        watermark.complete(third);
+        assertNull(watermark.get());
+        assertEquals(3, watermark.size());
+
+        watermark.complete(first);
+        assertEquals("3", watermark.get());
+        assertEquals(0, watermark.size());
+    }
+
+    @Test
+    void advancesUpToTheNextItemInFlight() {
+        final var first = watermark.track("1");
+        final var second = watermark.track("2");
+        watermark.track("3");
+        final var fourth = watermark.track("4");
+
+        watermark.complete(first);
+        assertEquals("1", watermark.get());
+        watermark.complete(fourth);
+        watermark.complete(second);
+        assertEquals("2", watermark.get());
+        assertEquals(2, watermark.size());
+    }
+
+    @Test
+    void neverMovesBackWhileItemsFinishInAnyOrder() {
+        final var watermark = new SequenceWatermark<Integer>();
+        final var tickets = new ArrayList<SequenceWatermark.Ticket<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            tickets.add(watermark.track(i));
+        }
+        final var order = new ArrayList<>(tickets);
+        Collections.shuffle(order, new Random(42));
+
+        var last = -1;
+        for (var ticket : order) {
+            watermark.complete(ticket);
+            final var current = watermark.get() == null ? -1 : watermark.get();
+            assertTrue(current >= last);
+            last = current;
+        }
+        assertEquals(999, watermark.get());
+        assertEquals(0, watermark.size());
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SplitBucketTest {
+    private static final String BUCKET = "bucket";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final List<String> keys = new ArrayList<>();
+
+    @Test
+    void splitsASmallBucketExactly() {
+        put(100, i -> String.format("key-%03d", i));
+
+        final var ranges = split(4, 1000, 10);
+        assertEquals(4, ranges.size());
+        assertBalanced(ranges, 0.1);
+        assertEquals(1, s3.getLists());
+    }
+
+    @Test
+    void splitsAFlatBucketOfSequentialKeysEvenly() {
+        put(200_000, i -> String.format("backup/2024/object-%07d", i));
+
+        final var ranges = split(8, 1000, 100);
+        assertEquals(8, ranges.size());
+        assertBalanced(ranges, 0.2);
+        assertTrue(s3.getLists() <= 150, "lists " + s3.getLists());
+    }
+
+    @Test
+    void splitsAFlatBucketOfMixedKeysEvenly() {
+        put(150_000, i -> "a" + UUID.nameUUIDFromBytes(Integer.toString(i).getBytes()));
+        put(50_000, i -> String.format("z-%06d", i));
+
+        final var ranges = split(8, 1000, 200);
+        assertBalanced(ranges, 0.2);
+    }
+
+    @Test
+    void countsEveryKeyWithEnoughProbes() {
+        put(20_000, i -> String.format("%05d", i * 7));
+
+        assertBalanced(split(10, 1000, 1000), 0.01);
+    }
+
+    private List<KeyRange> split(int tasks, int pageSize, int maxProbes) {
+        final var samples = new KeySampler(s3, BUCKET, Long.MAX_VALUE, pageSize, maxProbes).sample();
+        return new SplitBucket.Worker(s3).split(BUCKET, tasks, samples);
+    }
+
+    private void put(int count, IntFunction<String> key) {
+        for (int i = 0; i < count; i++) {
+            keys.add(key.apply(i));
+            s3.put(BUCKET, keys.get(keys.size() - 1), EMPTY, "etag");
+        }
+    }
+
+    /**
+     * Checks that every key is in exactly one range, and every range is within the tolerance of an even share.
+     */
+    private void assertBalanced(List<KeyRange> ranges, double tolerance) {
+        final var counts = new long[ranges.size()];
+        for (var key : keys) {
+            var owners = 0;
+            for (var range : ranges) {
+                if (range.contains(key)) {
+                    counts[range.getIndex()]++;
+                    owners++;
+                }
+            }
+            assertEquals(1, owners, key);
+        }
+
+        final var share = (double) keys.size() / ranges.size();
+        for (int i = 0; i < counts.length; i++) {
+            assertTrue(Math.abs(counts[i] - share) <= tolerance * share,
+                    String.format("range %s has %d keys of %d", ranges.get(i), counts[i], keys.size()));
+        }
+    }
+}
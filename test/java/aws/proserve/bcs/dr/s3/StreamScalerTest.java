@@ -0,0 +1,141 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import com.amazonaws.services.kinesis.AbstractAmazonKinesis;
+import com.amazonaws.services.kinesis.model.DescribeStreamSummaryRequest;
+import com.amazonaws.services.kinesis.model.DescribeStreamSummaryResult;
+import com.amazonaws.services.kinesis.model.StreamDescriptionSummary;
+import com.amazonaws.services.kinesis.model.UpdateShardCountRequest;
+import com.amazonaws.services.kinesis.model.UpdateShardCountResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamScalerTest {
+    private static final long BEHIND = TimeUnit.MINUTES.toMillis(15);
+    private static final long COOL_DOWN = TimeUnit.MINUTES.toMillis(30);
+
+    private final Kinesis kinesis = new Kinesis();
+    private final ReplicationMetrics metrics = new ReplicationMetrics(new ObjectMapper(), "test",
+            new PrintStream(OutputStream.nullOutputStream()));
+    private final TransferLanes lanes = new TransferLanes(metrics);
+    private long now = COOL_DOWN;
+    private final StreamScaler scaler = new StreamScaler(kinesis, "stream", metrics, lanes, () -> now);
+
+    @Test
+    void doublesTheShardsBehindWithRoomInTheLanes() {
+        kinesis.shards = 4;
+        metrics.lag("shard", BEHIND);
+
+        scaler.check();
+        assertEquals(List.of(8), kinesis.resizes);
+    }
+
+    @Test
+    void keepsTheShardsBehindWithABacklogInTheLanes() {
+        kinesis.shards = 4;
+        metrics.lag("shard", BEHIND);
+        for (int i = 0; i < 1100; i++) {
+            lanes.submitAsync(ImmutableS3Object.builder().key("key-" + i).size(1).build(), CompletableFuture::new);
+        }
+
+        scaler.check();
+        assertEquals(List.of(), kinesis.resizes);
+    }
+
+    @Test
+    void boundsTheShardsDoubled() {
+        kinesis.shards = CreateStream.Worker.MAX_SHARDS;
+        metrics.lag("shard", BEHIND);
+
+        scaler.check();
+        assertEquals(List.of(), kinesis.resizes);
+    }
+
+    @Test
+    void halvesTheShardsIdleForSixChecks() {
+        kinesis.shards = 5;
+        for (int i = 0; i < 5; i++) {
+            scaler.check();
+        }
+        assertEquals(List.of(), kinesis.resizes);
+
+        scaler.check();
+        assertEquals(List.of(3), kinesis.resizes);
+    }
+
+    @Test
+    void restartsTheIdleChecksOnActivity() {
+        kinesis.shards = 4;
+        for (int i = 0; i < 5; i++) {
+            scaler.check();
+        }
+        metrics.lag("shard", TimeUnit.MINUTES.toMillis(1));
+        scaler.check();
+        metrics.lag("shard", 0);
+        for (int i = 0; i < 5; i++) {
+            scaler.check();
+        }
+        assertEquals(List.of(), kinesis.resizes);
+
+        scaler.check();
+        assertEquals(List.of(2), kinesis.resizes);
+    }
+
+    @Test
+    void coolsDownBetweenResizes() {
+        kinesis.shards = 2;
+        metrics.lag("shard", BEHIND);
+        scaler.check();
+        kinesis.shards = 4;
+
+        now += COOL_DOWN - 1;
+        scaler.check();
+        assertEquals(List.of(4), kinesis.resizes);
+
+        now += 1;
+        scaler.check();
+        assertEquals(List.of(4, 8), kinesis.resizes);
+    }
+
+    @Test
+    void waitsForTheStreamToBeActive() {
+        kinesis.shards = 4;
+        kinesis.status = "UPDATING";
+        metrics.lag("shard", BEHIND);
+
+        scaler.check();
+        assertEquals(List.of(), kinesis.resizes);
+    }
+
+    private static class Kinesis extends AbstractAmazonKinesis {
+        private final List<Integer> resizes = new ArrayList<>();
+        private int shards;
+        private String status = "ACTIVE";
+
+        @Override
+        public DescribeStreamSummaryResult describeStreamSummary(DescribeStreamSummaryRequest request) {
+            return new DescribeStreamSummaryResult().withStreamDescriptionSummary(new StreamDescriptionSummary()
+                    .withStreamName(request.getStreamName())
+                    .withStreamStatus(status)
+                    .withOpenShardCount(shards));
+        }
+
+        @Override
+        public UpdateShardCountResult updateShardCount(UpdateShardCountRequest request) {
+            resizes.add(request.getTargetShardCount());
+            return new UpdateShardCountResult();
+        }
+    }
+}
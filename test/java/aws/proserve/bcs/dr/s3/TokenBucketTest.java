@@ -0,0 +1,113 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketTest {
+    private static final long ONE_MB = 1024 * 1024;
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(42);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * The debt is paid off at the rate, so the wait is for the bytes short of the tokens.
+     */
+    @Test
+    void refillsAtTheRate() {
+        final var bucket = new TokenBucket(1000, now::get);
+
+        assertEquals(0, bucket.take(1000));
+        assertEquals(ONE_SECOND / 2, bucket.take(500), 1e3);
+        now.addAndGet(ONE_SECOND);
+        assertEquals(0, bucket.take(500));
+        now.addAndGet(ONE_SECOND / 4);
+        assertEquals(ONE_SECOND / 4, bucket.take(500), 1e3);
+    }
+
+    /**
+     * However long idle, the bucket holds one second of tokens.
+     */
+    @Test
+    void burstsAtMostOneSecondOfTokens() {
+        final var bucket = new TokenBucket(1000, now::get);
+        now.addAndGet(60 * ONE_SECOND);
+
+        assertEquals(0, bucket.take(1000));
+        assertEquals(ONE_SECOND / 1000, bucket.take(1), 1e3);
+    }
+
+    /**
+     * A large take runs into debt at once rather than waiting for the tokens piece by piece.
+     */
+    @Test
+    void takesBeyondTheBurstIntoDebt() {
+        final var bucket = new TokenBucket(1000, now::get);
+
+        assertEquals(4 * ONE_SECOND, bucket.take(5000), 1e3);
+        assertEquals(5 * ONE_SECOND, bucket.take(1000), 1e3);
+    }
+
+    @Test
+    void waitsNeverWithoutARate() {
+        final var bucket = new TokenBucket(0, now::get);
+
+        assertEquals(0, bucket.take(Long.MAX_VALUE));
+        assertEquals(0, bucket.take(Long.MAX_VALUE));
+        assertEquals(0, new BandwidthGovernor(0, 0, null).getReadLimit());
+    }
+
+    /**
+     * A lower rate caps the tokens at once, and a rate of {@code 0} lifts the limit.
+     */
+    @Test
+    void changesTheRateWhileRunning() {
+        final var bucket = new TokenBucket(1000, now::get);
+
+        bucket.setRate(100);
+        assertEquals(ONE_SECOND, bucket.take(200), 1e3);
+        bucket.setRate(0);
+        assertEquals(0, bucket.take(Long.MAX_VALUE));
+        bucket.setRate(1000);
+        now.addAndGet(2 * ONE_SECOND);
+        assertEquals(0, bucket.take(1000));
+    }
+
+    /**
+     * The limits follow the control file once modified, an absent or blank limit meaning unlimited.
+     */
+    @Test
+    void takesTheLimitsOfTheControlFile() throws IOException {
+        final var file = directory.resolve("bandwidth.properties");
+        final var governor = new BandwidthGovernor(10 * ONE_MB, 10 * ONE_MB, file);
+
+        control(file, "read_limit_mbps=5\nwrite_limit_mbps=20\n", 1);
+        governor.poll();
+        assertEquals(5 * ONE_MB, governor.getReadLimit());
+        assertEquals(20 * ONE_MB, governor.getWriteLimit());
+
+        control(file, "read_limit_mbps= \n", 2);
+        governor.poll();
+        assertEquals(0, governor.getReadLimit());
+        assertEquals(0, governor.getWriteLimit());
+    }
+
+    private static void control(Path file, String limits, long modifiedSeconds) throws IOException {
+        Files.writeString(file, limits);
+        Files.setLastModifiedTime(file, FileTime.from(modifiedSeconds, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferChecksumTest {
+    private final byte[] content = new byte[10_000];
+
+    TransferChecksumTest() {
+        new Random(42).nextBytes(content);
+    }
+
+    @Test
+    void combinesTheCrcOfTwoBlocks() {
+        for (var split : new int[]{0, 1, 7, 4096, 9_999, 10_000}) {
+            final var first = crc32c(content, 0, split);
+            final var second = crc32c(content, split, content.length);
+            assertEquals(crc32c(content, 0, content.length),
+                    TransferChecksum.combine(first, second, content.length - split), "split at " + split);
+        }
+    }
+
+    @Test
+    void combinesThePartsCompletedInAnyOrder() {
+        final var checksum = checksum(4, 3000);
+
+        assertTrue(checksum.isCrc32cKnown());
+        assertEquals(crc32c(content, 0, content.length), checksum.crc32c());
+        final var crc = crc32c(content, 0, content.length);
+        assertEquals(Base64.getEncoder().encodeToString(new byte[]{
+                (byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc}), checksum.crc32cBase64());
+    }
+
+    @Test
+    void computesTheEtagOfASinglePart() {
+        final var checksum = checksum(1, content.length);
+
+        assertEquals(hex(TransferChecksum.md5().digest(content)), checksum.etag());
+        assertTrue(checksum.matches('"' + checksum.etag().toUpperCase() + '"'));
+    }
+
+    /**
+     * A multipart upload of a single part has the ETag of the MD5 of its part, rather than the MD5 of the bytes.
+     */
+    @Test
+    void matchesTheEtagOfAMultipartUploadOfOnePart() {
+        final var checksum = checksum(1, content.length);
+
+        final var etag = hex(TransferChecksum.md5().digest(TransferChecksum.md5().digest(content))) + "-1";
+        assertTrue(checksum.matches(etag));
+        assertTrue(checksum.isComparable(etag, 0));
+        assertFalse(checksum.matches(checksum.etag() + "-1"));
+    }
+
+    @Test
+    void computesTheCompositeEtagOfParts() {
+        final var checksum = checksum(4, 3000);
+
+        final var md5 = TransferChecksum.md5();
+        for (int start = 0; start < content.length; start += 3000) {
+            md5.update(TransferChecksum.md5().digest(Arrays.copyOfRange(content, start,
+                    Math.min(content.length, start + 3000))));
+        }
+        assertEquals(hex(md5.digest()) + "-4", checksum.etag());
+        assertTrue(checksum.isComparable("\"" + checksum.etag() + "\"", 3000));
+        assertFalse(checksum.isComparable(checksum.etag().replace("-4", "-5"), 3000));
+        assertFalse(checksum.isComparable(hex(TransferChecksum.md5().digest(content)), 3000));
+    }
+
+    /**
+     * A source of as many parts split at other bytes has another ETag for the same bytes, thus is not comparable.
+     */
+    @Test
+    void comparesOnlyThePartsOfTheSameBoundaries() {
+        final var checksum = checksum(4, 3000);
+
+        assertTrue(checksum.isComparable(checksum.etag(), 3000));
+        assertFalse(checksum.isComparable(checksum.etag(), 2500));
+        assertFalse(checksum.isComparable(checksum.etag(), 0));
+        assertTrue(checksum(1, content.length).isComparable(checksum.etag().replace("-4", "-1"), 0));
+    }
+
+    @Test
+    void resumesAPartFromItsEtag() {
+        final var read = checksum(2, 5000);
+        final var resumed = new TransferChecksum(2);
+        resumed.resume(1, '"' + hex(read.digest(1)) + '"', 5000);
+        resumed.complete(2, part(5000, 10_000));
+
+        assertEquals(read.etag(), resumed.etag());
+        assertFalse(resumed.isCrc32cKnown());
+        assertNull(resumed.crc32cBase64());
+    }
+
+    @Test
+    void knowsNoEtagOfAPartEncryptedByKms() {
+        final var checksum = new TransferChecksum(2);
+        checksum.resume(1, null, 5000);
+        checksum.complete(2, part(5000, 10_000));
+
+        assertFalse(checksum.isKnown());
+        assertNull(checksum.etag());
+        assertFalse(checksum.isComparable("abc-2", 5000));
+    }
+
+    /**
+     * @return the checksum of the content in parts of the size, completed from the last part to the first.
+     */
+    private TransferChecksum checksum(int parts, int partSize) {
+        final var checksum = new TransferChecksum(parts);
+        for (int number = parts; number >= 1; number--) {
+            final var start = (number - 1) * partSize;
+            checksum.complete(number, part(start, Math.min(content.length, start + partSize)));
+        }
+        return checksum;
+    }
+
+    private TransferChecksum.Part part(int start, int end) {
+        final var part = new TransferChecksum.Part();
+        part.update(content, start, end - start);
+        return part;
+    }
+
+    private static int crc32c(byte[] bytes, int start, int end) {
+        final var crc = new CRC32C();
+        crc.update(bytes, start, end - start);
+        return (int) crc.getValue();
+    }
+
+    private static String hex(byte[] bytes) {
+        final var builder = new StringBuilder();
+        for (var b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
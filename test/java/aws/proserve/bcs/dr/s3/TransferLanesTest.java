@@ -0,0 +1,62 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.s3.dto.ImmutableS3Object;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferLanesTest {
+    private final TransferLanes lanes = new TransferLanes(
+            new ReplicationMetrics(new ObjectMapper(), "test", new PrintStream(OutputStream.nullOutputStream())));
+
+    @Test
+    void boundsTheNonBlockingCopiesByPermits() {
+        final var started = new ArrayList<CompletableFuture<Object>>();
+        final var submitted = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 1100; i++) {
+            submitted.add(lanes.submitAsync(ImmutableS3Object.builder().key("key-" + i).size(1).build(), () -> {
+                final var copy = new CompletableFuture<>();
+                started.add(copy);
+                return copy;
+            }));
+        }
+
+        assertEquals(1024, started.size());
+        assertEquals(76, lanes.lane(1).queueDepth());
+
+        complete(started, 0, 100);
+        assertEquals(1100, started.size());
+        assertEquals(0, lanes.lane(1).queueDepth());
+
+        complete(started, 100, 1100);
+        assertTrue(submitted.stream().allMatch(CompletableFuture::isDone));
+    }
+
+    @Test
+    void startsCopiesCompletedAtOnce() {
+        final var submitted = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 10_000; i++) {
+            submitted.add(lanes.submitAsync(ImmutableS3Object.builder().key("key-" + i).size(1).build(),
+                    () -> CompletableFuture.completedFuture(null)));
+        }
+
+        assertTrue(submitted.stream().allMatch(future -> future.isDone() && !future.isCompletedExceptionally()));
+    }
+
+    private static void complete(List<CompletableFuture<Object>> copies, int from, int to) {
+        for (int i = from; i < to; i++) {
+            copies.get(i).complete(null);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadJournalTest {
+    private final InMemoryStateStore store = new InMemoryStateStore();
+    private final List<UploadJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        journals.forEach(UploadJournal::close);
+    }
+
+    /**
+     * A journal loaded resumes the uploads saved with their parts, but none of them is in progress.
+     */
+    @Test
+    void loadsTheUploadsSavedWithTheirParts() throws IOException {
+        final var journal = journal("journal");
+        final var upload = journal.begin("key", "upload", "etag", 100, 10, "aws:kms");
+        journal.part(upload, 1, "a");
+        journal.part(upload, 2, "b");
+        journal.save();
+
+        final var loaded = journal("journal").get("key");
+        assertEquals("upload", loaded.getUploadId());
+        assertEquals(10, loaded.getPartSize());
+        assertEquals("aws:kms", loaded.getSse());
+        assertEquals(2, loaded.getParts());
+        assertEquals(upload.getInitiatedMillis(), loaded.getInitiatedMillis());
+        assertTrue(loaded.isOf("etag", 100));
+        assertFalse(loaded.isOf("etag", 101));
+        assertFalse(loaded.isOf("other", 100));
+        assertFalse(journal("journal").isActive("upload"));
+    }
+
+    @Test
+    void forgetsOnlyTheSameUploadOfTheKey() {
+        final var journal = journal("journal");
+        journal.begin("key", "first", "etag", 100, 10, null);
+        journal.begin("key", "second", "etag", 100, 10, null);
+
+        journal.remove("key", "first");
+        assertTrue(journal.contains("key", "second"));
+        assertFalse(journal.isActive("first"));
+        assertTrue(journal.isActive("second"));
+
+        journal.remove("key", "second");
+        assertNull(journal.get("key"));
+    }
+
+    @Test
+    void absorbsTheUploadsOfAnotherJournalItsOwnWinning() throws IOException {
+        final var other = journal("other");
+        other.begin("a", "other-a", "etag", 100, 10, null);
+        other.begin("b", "other-b", "etag", 100, 10, null);
+        other.save();
+
+        final var journal = journal("journal");
+        journal.begin("a", "own-a", "etag", 100, 10, null);
+        journal.absorb("other");
+        assertTrue(journal.contains("a", "own-a"));
+        assertTrue(journal.contains("b", "other-b"));
+    }
+
+    private UploadJournal journal(String name) {
+        final var journal = new UploadJournal(store, name);
+        journals.add(journal);
+        return journal;
+    }
+}
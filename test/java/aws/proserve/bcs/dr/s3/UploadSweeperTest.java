@@ -0,0 +1,89 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+
+package aws.proserve.bcs.dr.s3;
+
+import aws.proserve.bcs.dr.lambda.dto.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadSweeperTest {
+    private static final String TARGET = "target";
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final Date OLD = new Date(System.currentTimeMillis() - 2 * MAX_AGE_MILLIS);
+
+    private final InMemoryS3 s3 = new InMemoryS3();
+    private final UploadJournal journal = new UploadJournal(new InMemoryStateStore(), "journal");
+    private final ReplicateBucket.Request request = request(new KeyRange(1, "b", "m"));
+
+    @AfterEach
+    void tearDown() {
+        journal.close();
+    }
+
+    /**
+     * Only the old uploads left behind by the journals are aborted: neither those in progress, nor recent, nor out of
+     * the range, nor of another writer.
+     */
+    @Test
+    void abortsTheOldUploadsOfTheJournalsOnly() {
+        final var left = journaled("c", OLD);
+        journal.release(left);
+        final var active = journaled("d", OLD);
+        final var recent = journaled("e", new Date());
+        journal.release(recent);
+        final var outside = journaled("x", OLD);
+        journal.release(outside);
+        final var foreign = s3.initiate(TARGET, "f", OLD);
+
+        assertEquals(1, sweeper(false).sweep());
+        assertFalse(s3.isPending(left));
+        assertNull(journal.get("c"));
+        for (var uploadId : new String[]{active, recent, outside, foreign}) {
+            assertTrue(s3.isPending(uploadId), uploadId);
+        }
+    }
+
+    @Test
+    void abortsTheForeignUploadsWithinTheRangeWhenAsked() {
+        final var foreign = s3.initiate(TARGET, "f", OLD);
+        final var outside = s3.initiate(TARGET, "x", OLD);
+        final var other = s3.initiate("other", "f", OLD);
+
+        assertEquals(1, sweeper(true).sweep());
+        assertFalse(s3.isPending(foreign));
+        assertTrue(s3.isPending(outside));
+        assertTrue(s3.isPending(other));
+    }
+
+    private UploadSweeper sweeper(boolean all) {
+        return new UploadSweeper(s3, request, journal, MAX_AGE_MILLIS, all);
+    }
+
+    /**
+     * @return the id of an upload initiated at the time given, and recorded as in progress.
+     */
+    private String journaled(String key, Date initiated) {
+        final var uploadId = s3.initiate(TARGET, key, initiated);
+        journal.begin(key, uploadId, "etag", 1, 1, null);
+        return uploadId;
+    }
+
+    private static ReplicateBucket.Request request(KeyRange range) {
+        final var target = new Resource();
+        target.setName(TARGET);
+
+        final var request = new ReplicateBucket.Request();
+        request.setTarget(target);
+        request.setRange(range);
+        return request;
+    }
+}